@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.bench;
+
+/**
+ * A piece of code to time.  {@link #run(int)} is called over and over by a
+ * {@link BenchmarkRunner}; everything it needs should be made in
+ * {@link #setUp()} so only the code being measured is timed.
+ * @author kurie
+ */
+public abstract class Benchmark {
+    private final String name;
+
+    /**
+     * @param name the name shown in the results
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name shown in the results
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the benchmark.  Called once, before any timing starts.
+     * @throws Exception if the benchmark can't be prepared
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     * Runs one operation.
+     * @param index counts up from 0 on each call, so a benchmark can cycle
+     * through its inputs
+     * @return a value that depends on the work done, so that it can't be
+     * optimized away
+     * @throws Exception if the operation fails
+     */
+    public abstract double run(int index) throws Exception;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times {@link Benchmark}s.  Each benchmark is run for a number of warmup
+ * iterations (so the JIT compiler has done its work) and then for a number of
+ * measured iterations of a fixed number of operations; the result is the
+ * mean time per operation over the measured iterations, with its standard
+ * deviation.
+ * @author kurie
+ */
+public class BenchmarkRunner {
+
+    /** The time to aim for when working out how many operations to run per iteration */
+    private static final long CALIBRATION_NANOS = 1000000;
+
+    /** Written to at the end of each iteration, so the benchmark results are used */
+    private static volatile double sink;
+
+    private int warmupIterations = 5;
+    private int measurementIterations = 10;
+    private long iterationMillis = 200;
+
+    /**
+     * The time taken by one benchmark.
+     */
+    public static class Result {
+        private final String name;
+        private final double nanosPerOperation;
+        private final double error;
+
+        public Result(String name, double nanosPerOperation, double error) {
+            this.name = name;
+            this.nanosPerOperation = nanosPerOperation;
+            this.error = error;
+        }
+
+        /**
+         * @return the benchmark name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the mean time per operation, in nanoseconds
+         */
+        public double getNanosPerOperation() {
+            return nanosPerOperation;
+        }
+
+        /**
+         * @return the standard deviation of the time per operation over the
+         * measured iterations, in nanoseconds
+         */
+        public double getError() {
+            return error;
+        }
+    }
+
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    public int getMeasurementIterations() {
+        return measurementIterations;
+    }
+
+    public void setMeasurementIterations(int measurementIterations) {
+        this.measurementIterations = measurementIterations;
+    }
+
+    public long getIterationMillis() {
+        return iterationMillis;
+    }
+
+    public void setIterationMillis(long iterationMillis) {
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Times a benchmark.
+     * @param benchmark the benchmark
+     * @return the result
+     * @throws Exception if the benchmark fails
+     */
+    public Result run(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+
+        //work out how many operations fill an iteration
+        int index = 0;
+        int batch = 1;
+        long elapsed;
+        while (true) {
+            long start = System.nanoTime();
+            runBatch(benchmark, index, batch);
+            elapsed = System.nanoTime() - start;
+            index += batch;
+            if (elapsed >= CALIBRATION_NANOS || batch >= Integer.MAX_VALUE / 4) {
+                break;
+            }
+            batch *= 2;
+        }
+        long operations = Math.max(1, (long) ((double) batch * iterationMillis * 1000000 / elapsed));
+        int operationsPerIteration = (int) Math.min(operations, Integer.MAX_VALUE / 4);
+
+        for (int i = 0; i < warmupIterations; i++) {
+            runBatch(benchmark, index, operationsPerIteration);
+            index += operationsPerIteration;
+        }
+
+        double[] nanosPerOperation = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            long start = System.nanoTime();
+            runBatch(benchmark, index, operationsPerIteration);
+            nanosPerOperation[i] = (double) (System.nanoTime() - start) / operationsPerIteration;
+            index += operationsPerIteration;
+        }
+
+        double mean = 0;
+        for (double t : nanosPerOperation) {
+            mean += t;
+        }
+        mean /= nanosPerOperation.length;
+        double variance = 0;
+        for (double t : nanosPerOperation) {
+            variance += (t - mean) * (t - mean);
+        }
+        if (nanosPerOperation.length > 1) {
+            variance /= nanosPerOperation.length - 1;
+        }
+
+        return new Result(benchmark.getName(), mean, Math.sqrt(variance));
+    }
+
+    /**
+     * Times a list of benchmarks, printing each result as it's finished.
+     * @param benchmarks the benchmarks
+     * @param out where to print the results
+     * @return the results, in the same order as the benchmarks
+     * @throws Exception if a benchmark fails
+     */
+    public List<Result> run(List<Benchmark> benchmarks, PrintWriter out) throws Exception {
+        List<Result> results = new ArrayList<Result>();
+        out.println(String.format("%-45s %14s %12s", "Benchmark", "ns/op", "error"));
+        out.flush();
+        for (Benchmark benchmark : benchmarks) {
+            Result result = run(benchmark);
+            results.add(result);
+            out.println(String.format("%-45s %14.1f %12.1f", result.getName(), result.getNanosPerOperation(), result.getError()));
+            out.flush();
+        }
+        return results;
+    }
+
+    private static void runBatch(Benchmark benchmark, int index, int count) throws Exception {
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += benchmark.run(index + i);
+        }
+        sink = total;
+    }
+
+    /**
+     * Saves results, one tab-separated line per benchmark, for use as a
+     * baseline later.
+     * @param results the results
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void save(List<Result> results, File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            for (Result result : results) {
+                out.println(result.getName() + "\t" + result.getNanosPerOperation() + "\t" + result.getError());
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    /**
+     * Loads results saved by {@link #save(List, File)}.
+     * @param file the file to read
+     * @return the results, by benchmark name
+     * @throws IOException if the file can't be read or is badly formatted
+     */
+    public static Map<String, Result> load(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                try {
+                    results.put(fields[0], new Result(fields[0], Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ", line " + lineNumber + ": bad benchmark result \"" + line + "\"");
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return results;
+    }
+
+    /**
+     * Compares results with a baseline, printing the change for each
+     * benchmark in both.
+     * @param results the new results
+     * @param baseline the baseline results, by name
+     * @param threshold how much slower (as a fraction, e.g. 0.1 for 10%) a
+     * benchmark can be before it counts as a regression
+     * @param out where to print the comparison
+     * @return the number of regressions
+     */
+    public static int compare(List<Result> results, Map<String, Result> baseline, double threshold, PrintWriter out) {
+        int regressions = 0;
+        out.println(String.format("%-45s %14s %14s %9s", "Benchmark", "baseline", "ns/op", "change"));
+        for (Result result : results) {
+            Result base = baseline.get(result.getName());
+            if (base == null) {
+                continue;
+            }
+            double change = result.getNanosPerOperation() / base.getNanosPerOperation() - 1;
+            boolean regression = change > threshold;
+            if (regression) {
+                regressions++;
+            }
+            out.println(String.format("%-45s %14.1f %14.1f %+8.1f%%%s", result.getName(), base.getNanosPerOperation(),
+                    result.getNanosPerOperation(), 100 * change, regression ? "  REGRESSION" : ""));
+        }
+        out.flush();
+        return regressions;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.fieldmuseum.biosync.mandibLever.model.MandibLeverMuscle;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenFile;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SimulationCsvFormat;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SimulationEngine;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SimulationOutput;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SpecimenResult;
+
+/**
+ * Benchmarks for the hot paths of the simulation: parsing specimens, rotating
+ * the mandible, setting muscle lengths, the velocity model, whole specimen
+ * runs and the CSV output.  The specimens come from the SnapperData and Goby
+ * data files.
+ * <p>
+ * Usage: <code>MandibLeverBenchmarks [-data dir] [-filter text] [-warmup n]
+ * [-iterations n] [-time ms] [-save file] [-baseline file] [-threshold fraction]</code>
+ * <p>
+ * With <code>-baseline</code>, the results are compared with a file saved by an
+ * earlier run with <code>-save</code>, and the exit status is 1 if any
+ * benchmark is more than the threshold (default 0.1, i.e. 10%) slower.
+ * @author kurie
+ */
+public class MandibLeverBenchmarks {
+
+    /** The data files the specimens are read from */
+    private static final String[] DATA_FILES = {"SnapperData.txt", "Goby.txt"};
+
+    /** The charset of the data for the SpecimenFile benchmark */
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    /** The number of different inputs each benchmark cycles through */
+    private static final int STEPS = 64;
+
+    private final List<String> lines;
+    private final List<Specimen> specimens;
+
+    /**
+     * @param dataDirectory the directory with the data files
+     * @throws IOException if a data file can't be read
+     */
+    public MandibLeverBenchmarks(File dataDirectory) throws IOException {
+        lines = new ArrayList<String>();
+        specimens = new ArrayList<Specimen>();
+        for (String fileName : DATA_FILES) {
+            BufferedReader in = new BufferedReader(new FileReader(new File(dataDirectory, fileName)));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.trim().length() == 0) {
+                        continue;
+                    }
+                    try {
+                        specimens.add(new Specimen(line));
+                        lines.add(line);
+                    } catch (IllegalArgumentException e) {
+                        //the data files have a few specimens the model can't build; leave them out, like the GUI does
+                        System.err.println("Skipping: " + e.getMessage());
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @return the benchmarks
+     */
+    public List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        benchmarks.add(new SpecimenBenchmark("Mandible.setRotation") {
+            @Override
+            public double run(int index) {
+                Mandible mandible = specimens[index % specimens.length].getMandible();
+                mandible.setRotation(rotations[index % STEPS]);
+                return mandible.getRotation();
+            }
+        });
+
+        benchmarks.add(new SpecimenBenchmark("Specimen.setLength") {
+            @Override
+            public double run(int index) {
+                int s = index % specimens.length;
+                return specimens[s].setLength(specimens[s].getA3(), a3Lengths[s][index % STEPS]) ? 1 : 0;
+            }
+        });
+
+        benchmarks.add(new SpecimenBenchmark("LinearVelocityModel.getF") {
+            @Override
+            public double run(int index) {
+                return specimens[index % specimens.length].getA3().velocityModel.getF();
+            }
+        });
+
+        benchmarks.add(new SpecimenBenchmark("LinearVelocityModel.getTotalWork") {
+            @Override
+            public double run(int index) {
+                return specimens[index % specimens.length].getA3().velocityModel.getTotalWork();
+            }
+        });
+
+        for (int bins : new int[] {10, 100, 1000}) {
+            final SimulationEngine engine = new SimulationEngine(new SimulationParameters(bins, SimulationParameters.DEFAULT_OPEN_DURATION));
+            benchmarks.add(new Benchmark("SimulationEngine.run (" + bins + " bins)") {
+                @Override
+                public double run(int index) {
+                    int s = index % specimens.size();
+                    return engine.run(specimens.get(s), s + 1).getTotalBiteForce();
+                }
+            });
+        }
+
+        //the whole data set, as objects and as columns
+        final SimulationEngine engine = new SimulationEngine(new SimulationParameters(100, SimulationParameters.DEFAULT_OPEN_DURATION));
+        benchmarks.add(new Benchmark("SimulationEngine.run (all specimens, 100 bins)") {
+            @Override
+            public double run(int index) {
+                return engine.run(specimens).size();
+            }
+        });
+        benchmarks.add(new Benchmark("SimulationEngine.run (SpecimenBatch, 100 bins)") {
+            private final SpecimenBatch batch = new SpecimenBatch();
+            private int count;
+
+            @Override
+            public void setUp() {
+                for (Specimen specimen : specimens) {
+                    batch.add(specimen);
+                }
+            }
+
+            @Override
+            public double run(int index) throws IOException {
+                count = 0;
+                engine.run(batch, new SimulationOutput() {
+                    public void write(SpecimenResult result) {
+                        count++;
+                    }
+                });
+                return count;
+            }
+        });
+
+        benchmarks.add(new Benchmark("SimulationCsvFormat (100 bins)") {
+            private final StringBuilder sb = new StringBuilder();
+            private final List<SpecimenResult> results = new ArrayList<SpecimenResult>();
+
+            @Override
+            public void setUp() {
+                SimulationEngine engine = new SimulationEngine(new SimulationParameters(100, SimulationParameters.DEFAULT_OPEN_DURATION));
+                results.addAll(engine.run(specimens));
+            }
+
+            @Override
+            public double run(int index) {
+                SpecimenResult result = results.get(index % results.size());
+                sb.setLength(0);
+                SimulationCsvFormat.appendOpenRow(sb, result);
+                SimulationCsvFormat.appendClosedRow(sb, result);
+                SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A2_HEADER, result, result.getA2());
+                SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A3_HEADER, result, result.getA3());
+                return sb.length();
+            }
+        });
+
+        benchmarks.add(new Benchmark("SpecimenFile.parse") {
+            private ByteBuffer data;
+
+            @Override
+            public void setUp() {
+                StringBuilder sb = new StringBuilder();
+                for (String line : lines) {
+                    sb.append(line).append('\r');
+                }
+                data = ByteBuffer.wrap(sb.toString().getBytes(CHARSET));
+            }
+
+            @Override
+            public double run(int index) {
+                return SpecimenFile.parse(data, CHARSET).size();
+            }
+        });
+
+        /*
+         * Last, because every new specimen leaves its muscle listeners
+         * registered with the shared muscle parameter events, which slows
+         * down whatever runs after it.
+         */
+        benchmarks.add(new Benchmark("Specimen(String)") {
+            @Override
+            public double run(int index) {
+                return new Specimen(lines.get(index % lines.size())).getA2JointDist();
+            }
+        });
+
+        return benchmarks;
+    }
+
+    /**
+     * A benchmark on copies of the specimens set up the way a simulation run
+     * uses them, with the jaw rotations and A3 lengths to step through.
+     */
+    private abstract class SpecimenBenchmark extends Benchmark {
+        protected Specimen[] specimens;
+        protected double[] rotations;
+        protected double[][] a3Lengths;
+
+        SpecimenBenchmark(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setUp() throws CloneNotSupportedException {
+            SimulationParameters parameters = new SimulationParameters();
+            specimens = new Specimen[MandibLeverBenchmarks.this.specimens.size()];
+            rotations = new double[STEPS];
+            a3Lengths = new double[specimens.length][STEPS];
+            for (int i = 0; i < STEPS; i++) {
+                rotations[i] = parameters.getMaxRotation() * i / (STEPS - 1);
+            }
+            for (int s = 0; s < specimens.length; s++) {
+                Specimen specimen = (Specimen) MandibLeverBenchmarks.this.specimens.get(s).clone();
+                specimen.setSimulationParameters(parameters);
+                specimen.setSimulationMode(true);
+                MandibLeverMuscle a3 = specimen.getA3();
+                double maxLength = specimen.getMaxMuscleLength(a3);
+                double minLength = specimen.getMinMuscleLength(a3);
+                for (int i = 0; i < STEPS; i++) {
+                    a3Lengths[s][i] = maxLength + (minLength - maxLength) * i / (STEPS - 1);
+                }
+                specimen.getMandible().setRotation(parameters.getMaxRotation() / 2);
+                specimens[s] = specimen;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dataDirectory = new File("data");
+        String filter = null;
+        File saveFile = null;
+        File baselineFile = null;
+        double threshold = 0.1;
+        BenchmarkRunner runner = new BenchmarkRunner();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                if (arg.equals("-data")) {
+                    dataDirectory = new File(value);
+                } else if (arg.equals("-filter")) {
+                    filter = value;
+                } else if (arg.equals("-warmup")) {
+                    runner.setWarmupIterations(Integer.parseInt(value));
+                } else if (arg.equals("-iterations")) {
+                    runner.setMeasurementIterations(Integer.parseInt(value));
+                } else if (arg.equals("-time")) {
+                    runner.setIterationMillis(Long.parseLong(value));
+                } else if (arg.equals("-save")) {
+                    saveFile = new File(value);
+                } else if (arg.equals("-baseline")) {
+                    baselineFile = new File(value);
+                } else if (arg.equals("-threshold")) {
+                    threshold = Double.parseDouble(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: MandibLeverBenchmarks [-data dir] [-filter text] [-warmup n] [-iterations n] [-time ms] [-save file] [-baseline file] [-threshold fraction]");
+            System.exit(2);
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (Benchmark benchmark : new MandibLeverBenchmarks(dataDirectory).getBenchmarks()) {
+            if (filter == null || benchmark.getName().contains(filter)) {
+                benchmarks.add(benchmark);
+            }
+        }
+
+        PrintWriter out = new PrintWriter(System.out);
+        List<BenchmarkRunner.Result> results = runner.run(benchmarks, out);
+        if (saveFile != null) {
+            BenchmarkRunner.save(results, saveFile);
+        }
+        if (baselineFile != null) {
+            Map<String, BenchmarkRunner.Result> baseline = BenchmarkRunner.load(baselineFile);
+            out.println();
+            int regressions = BenchmarkRunner.compare(results, baseline, threshold, out);
+            if (regressions > 0) {
+                System.exit(1);
+            }
+        }
+    }
+}
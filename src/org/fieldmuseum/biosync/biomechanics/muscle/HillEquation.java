@@ -50,6 +50,20 @@ public abstract class HillEquation {
 		return (1 - v)/(1 + v/K);
 	}
 
+	/**
+	 * Get the integral of the force over a range of velocities, i.e. the
+	 * area under the force-velocity curve.  The velocities must be greater
+	 * than -k.
+	 * @param v0 the normalized velocity at the start of the range
+	 * @param v1 the normalized velocity at the end of the range
+	 * @return the integral of getF() from v0 to v1
+	 */
+	public static double getIntegral(double v0, double v1) {
+		//F' = k((k + 1)/(k + V') - 1)
+		double dv = v1 - v0;
+		return K * ((K + 1) * Math.log1p(dv / (K + v0)) - dv);
+	}
+
 	/**
 	 * Get the velocity at a given force.  (The inverse of getF()).
 	 * @param f the normalized force F/F0
@@ -17,6 +17,7 @@
 package org.fieldmuseum.biosync.biomechanics.muscle;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.fieldmuseum.biosync.kinematics.Joint;
 import org.fieldmuseum.biosync.kinematics.MobileJoint;
 import org.fieldmuseum.biosync.kinematics.PlasticBar;
@@ -37,6 +38,12 @@ public class Muscle extends PlasticBar implements Serializable {
 	 * as high as 8-10 lengths/s in fast white muscle of fishes
 	 */
 	private static double velocityPerLengthMax = 10;
+
+    /**
+     * Counts changes to forcePerAreaMax and velocityPerLengthMax, so values
+     * worked out from them can tell when they're out of date.
+     */
+    private static final AtomicInteger sharedParametersVersion = new AtomicInteger();
 	
 	/** The density of a muscle, in g/cm^3 */
 	public static double muscleDensity = 1.05;
@@ -96,6 +103,7 @@ public class Muscle extends PlasticBar implements Serializable {
      */
     public static void setVelocityPerLengthMax(double vMax) {
         Muscle.velocityPerLengthMax = vMax;
+        sharedParametersVersion.incrementAndGet();
     }
 
     /**
@@ -110,6 +118,35 @@ public class Muscle extends PlasticBar implements Serializable {
      */
     public static void setForcePerAreaMax(double fMax) {
         Muscle.forcePerAreaMax = fMax;
+        sharedParametersVersion.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever the forcePerAreaMax or the
+     * velocityPerLengthMax is set
+     */
+    public static int getSharedParametersVersion() {
+        return sharedParametersVersion.get();
+    }
+
+    /**
+     * Gets the maximum isometric force per unit area used for this muscle.
+     * This is the shared {@link #getForcePerAreaMax()}, unless a subclass
+     * provides its own value.
+     * @return the force per unit area, in kPa
+     */
+    public double getMaxForcePerArea() {
+        return getForcePerAreaMax();
+    }
+
+    /**
+     * Gets the maximum contraction velocity per muscle length used for this
+     * muscle.  This is the shared {@link #getVelocityPerLengthMax()}, unless a
+     * subclass provides its own value.
+     * @return the velocity, in muscle lengths per second
+     */
+    public double getMaxVelocityPerLength() {
+        return getVelocityPerLengthMax();
     }
 
     /**
@@ -125,8 +162,17 @@ public class Muscle extends PlasticBar implements Serializable {
 	 * @return an estimate of average muscle cross-sectional area, based on mass and length, in cm^2
 	 */
 	public double getCrossSectionArea() {
-		double vol = getMass() / muscleDensity;
-		return vol/getFiberLength(); 
+		return getCrossSectionArea(getMass(), getFiberLength());
+	}
+
+	/**
+	 * @param mass the muscle mass, in g
+	 * @param fiberLength the fiber length, in cm
+	 * @return an estimate of average muscle cross-sectional area, in cm^2
+	 */
+	public static double getCrossSectionArea(double mass, double fiberLength) {
+		double vol = mass / muscleDensity;
+		return vol/fiberLength;
 	}
 
     /**
@@ -141,22 +187,41 @@ public class Muscle extends PlasticBar implements Serializable {
 	 * @return the resting length of the pennate muscle fibers, in cm
 	 */
 	public double getFiberLength() {
-		return Math.cos(getPennationAngle()) * (getRestingLength() - getTendonLength());
+		return getFiberLength(getPennationAngle(), getRestingLength(), getTendonLength());
+	}
+
+	/**
+	 * @param pennationAngle the pennation angle, in radians
+	 * @param restingLength the resting length, in cm
+	 * @param tendonLength the tendon length, in cm
+	 * @return the resting length of the pennate muscle fibers, in cm
+	 */
+	public static double getFiberLength(double pennationAngle, double restingLength, double tendonLength) {
+		return Math.cos(pennationAngle) * (restingLength - tendonLength);
 	}
 	
 	/**
 	 * @return the maximum tension this muscle is capable of, in Newtons
 	 */
 	public double getMaxForce() {
+		return getMaxForce(getMaxForcePerArea(), getCrossSectionArea());
+	}
+
+	/**
+	 * @param forcePerArea the max force per area, in kN/cm^2
+	 * @param crossSectionArea the cross-sectional area, in cm^2
+	 * @return the maximum tension, in Newtons
+	 */
+	public static double getMaxForce(double forcePerArea, double crossSectionArea) {
         //note conversions: forcePerAreaMax is in kN and crossSectionArea is in cm^2
-		return getForcePerAreaMax() * 1000 * getCrossSectionArea() / 10000;
+		return forcePerArea * 1000 * crossSectionArea / 10000;
 	}
 
     /**
      * @return the maximum velocity this muscle is capable of, in cm/s
      */
     public double getMaxVelocity() {
-        return getVelocityPerLengthMax() * getFiberLength();
+        return getMaxVelocityPerLength() * getFiberLength();
     }
 
     /**
@@ -214,13 +279,20 @@ public class Muscle extends PlasticBar implements Serializable {
      * @param force the force to set
      */
     public void setForce(double force) {
+        this.forceFraction = getForceFraction(force, getMaxForce());
+    }
+
+    /**
+     * @return a force as a fraction of a max force, constrained to the range
+     * [0, 1] as setForce() does
+     */
+    public static double getForceFraction(double force, double maxForce) {
         if (force < 0) {
-            this.forceFraction = 0.0;
-        } else if (force > getMaxForce()) {
-            this.forceFraction = 1.0;
-        } else {
-            this.forceFraction = force/getMaxForce();
+            return 0.0;
+        } else if (force > maxForce) {
+            return 1.0;
         }
+        return force/maxForce;
     }
 
     /**
@@ -250,20 +322,27 @@ public class Muscle extends PlasticBar implements Serializable {
      * @return the velocity, in cm/s
      */
     public double getVelocity() {
-        return velocityFraction * getMaxVelocity();
+        return getVelocityFraction() * getMaxVelocity();
     }
 
     /**
      * @param velocity the velocity to set, in cm/s
      */
     public void setVelocity(double velocity) {
-        if (velocity > getMaxVelocity()) {
-            this.velocityFraction = 1.0;
+        this.velocityFraction = getVelocityFraction(velocity, getMaxVelocity());
+    }
+
+    /**
+     * @return a velocity as a fraction of a max velocity, constrained to the
+     * range [0, 1] as setVelocity() does
+     */
+    public static double getVelocityFraction(double velocity, double maxVelocity) {
+        if (velocity > maxVelocity) {
+            return 1.0;
         } else if (velocity < 0.0) {
-            this.velocityFraction = 0.0;
-        } else {
-            this.velocityFraction = velocity/getMaxVelocity();
+            return 0.0;
         }
+        return velocity/maxVelocity;
     }
 
     /**
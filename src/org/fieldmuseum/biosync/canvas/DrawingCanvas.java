@@ -36,6 +36,11 @@ import javax.swing.JPanel;
 public class DrawingCanvas extends JPanel {
 	protected Rectangle2D drawingBounds;
 	protected BufferedImage image;
+
+	/** The transform from drawing to image coordinates, see getDeviceTransform() */
+	private AffineTransform deviceTransform;
+	/** The image that deviceTransform was worked out for */
+	private BufferedImage deviceTransformImage;
 	
 	private boolean debug = false;
 	
@@ -47,6 +52,7 @@ public class DrawingCanvas extends JPanel {
         Rectangle2D oldBounds = getDrawingBounds();
 //		this.drawingBounds = (Rectangle2D) r.clone();
         this.drawingBounds = r;
+        deviceTransform = null;
         firePropertyChange("drawingbounds", oldBounds, r);
 	}
 	
@@ -91,8 +97,7 @@ public class DrawingCanvas extends JPanel {
 		g2d.setStroke(new BasicStroke(0.0f)); //use thinnest possible stroke (to avoid stroke scaling).
 		g2d.setColor(getForeground());
 		
-		AffineTransform drawingToImage = getTransform(drawingBounds, image);
-		g2d.transform(drawingToImage);
+		g2d.transform(getDeviceTransform());
 		g2d.draw(shape);
 		
 		if(debug) {
@@ -137,6 +142,23 @@ public class DrawingCanvas extends JPanel {
 		return transform;
 	}
 	
+	/**
+	 * Gets the transform from drawing coordinates to the coordinates of the
+	 * current image (i.e. device coordinates).  It is kept until the drawing
+	 * bounds or the image change, so it must not be modified.
+	 * @return the transform, or null if there is no image yet
+	 */
+	public AffineTransform getDeviceTransform() {
+		if (image == null) {
+			return null;
+		}
+		if (deviceTransform == null || deviceTransformImage != image) {
+			deviceTransform = getTransform(drawingBounds, image);
+			deviceTransformImage = image;
+		}
+		return deviceTransform;
+	}
+	
 	@Override
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2d = (Graphics2D)g;
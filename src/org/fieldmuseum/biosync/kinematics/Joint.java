@@ -25,6 +25,9 @@ public abstract class Joint extends Point2D {
     protected double y;
     protected PropertyChangeSupport changeSupport = new PropertyChangeSupport(this); //TODO change this to plain ChangeEvent support.  Property changes aren't really needed.
 
+    /** Whether moving this joint fires change events */
+    protected boolean eventsEnabled = true;
+
     public Joint(double x, double y) {
         super();
         this.x = x;
@@ -67,6 +70,24 @@ public abstract class Joint extends Point2D {
         changeSupport.removePropertyChangeListener(listener);
     }
 
+    /**
+     * @return whether moving this joint fires change events
+     */
+    public boolean isEventsEnabled() {
+        return eventsEnabled;
+    }
+
+    /**
+     * Turns change events on or off.  With events off, moving the joint is
+     * just an assignment, which is what a simulation moving the joints
+     * thousands of times wants.  Listeners are kept, but aren't told about
+     * moves until events are turned back on.
+     * @param eventsEnabled whether moving this joint fires change events
+     */
+    public void setEventsEnabled(boolean eventsEnabled) {
+        this.eventsEnabled = eventsEnabled;
+    }
+
     @Override
     public Object clone() {
         Joint clone = (Joint) super.clone();
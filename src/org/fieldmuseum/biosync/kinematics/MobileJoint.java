@@ -43,6 +43,13 @@ public class MobileJoint extends Joint {
 
     @Override
     public void setLocation(double x, double y) {
+        if (!eventsEnabled) {
+            //no event, so no need for a copy of the old location
+            this.x = x;
+            this.y = y;
+            return;
+        }
+
         Point2D oldLocation = (Point2D) this.clone();
 
         /* TODO? somehow check the members attached to this joint to see if the
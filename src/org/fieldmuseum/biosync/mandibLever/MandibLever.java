@@ -135,7 +135,7 @@ public class MandibLever extends javax.swing.JFrame {
             kinematicResultPanel1.setSpecimen(newSpecimen, simParamPanel1);
             sliderPanel1.setSpecimen(newSpecimen);
             openLeverResultsPanel1.setSpecimen(newSpecimen, simParamPanel1);
-            specimenCanvas1.setSpecimen(newSpecimen);
+            specimenCanvas1.setSpecimen(newSpecimen, simParamPanel1);
         } else if (evt.getPropertyName().equals("specimens")) {
             File path = null;
             String name = null;
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenFile;
+import org.fieldmuseum.biosync.mandibLever.model.sim.AggregateStatistics;
+import org.fieldmuseum.biosync.mandibLever.model.sim.AggregateTableWriter;
+import org.fieldmuseum.biosync.mandibLever.model.sim.BinaryResultWriter;
+import org.fieldmuseum.biosync.mandibLever.model.sim.MonteCarloResult;
+import org.fieldmuseum.biosync.mandibLever.model.sim.MonteCarloSimulation;
+import org.fieldmuseum.biosync.mandibLever.model.sim.MonteCarloTableWriter;
+import org.fieldmuseum.biosync.mandibLever.model.sim.ParameterSweep;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SimulationCsvWriter;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SimulationEngine;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SimulationOutput;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SpecimenResult;
+import org.fieldmuseum.biosync.mandibLever.model.sim.SweepTableWriter;
+
+/**
+ * Runs the simulation on a specimen data file from the command line, without
+ * the GUI, and writes the same output files as the "Run Sim" button.
+ * <p>
+ * Usage: <code>MandibLeverBatch [options] specimenFile</code>, where the
+ * options are
+ * <pre> -bins n            number of steps in the closing simulation (default 20)
+ * -angle degrees     max jaw-open angle (default 30)
+ * -openDur ms        duration of jaw opening (default 30)
+ * -fMax kPa          max isometric force per unit area of muscle (default 200)
+ * -vMax l/s          max contraction velocity, in muscle lengths/s (default 10)
+ * -peakV fraction    muscle velocity at max jaw-open, as a fraction of vMax (default 0.8)
+ * -minV fraction     muscle velocity at jaw closed, as a fraction of vMax (default 0.05)
+ * -a2Pennation deg   A2 pennation angle (default 0)
+ * -a3Pennation deg   A3 pennation angle (default 0)
+ * -tolerance frac    relative error allowed in each bin's time and work, or exact for the closed forms (default 0: taken from the end of each bin)
+ * -out directory     where to write the output files (default: the specimen file's directory)
+ * -name baseName     start of the output file names (default: the specimen file name, without extension)
+ * -output files      which output to write, any of sim (the usual files), aggregate and binary, e.g. sim,binary (default sim)
+ * -group by          aggregate groups: all, or name to also group specimens by name without the trailing number (default all)
+ * -monteCarlo draws  propagate measurement error, with this many draws per specimen
+ * -error fraction    measurement error (standard deviation) relative to each measurement (default 0.05)
+ * -seed n            random number seed for -monteCarlo (default 1)</pre>
+ * The values of -angle, -fMax, -vMax, -peakV and -minV can also be lists,
+ * either separated by commas (<code>150,200,250</code>) or as
+ * <code>first:last:count</code> for evenly spaced values
+ * (<code>150:250:5</code>).  If any of them has more than one value, the data
+ * set is run for every combination of values (see {@link ParameterSweep}) and
+ * the results go to one table, &lt;baseName&gt;.Sweep.csv, instead of the
+ * usual output files.
+ * <p>
+ * With <code>-output aggregate</code>, statistics over the specimens are
+ * accumulated as they're simulated (see {@link AggregateStatistics}) and
+ * written to &lt;baseName&gt;.Aggregate.csv and
+ * &lt;baseName&gt;.BinAggregate.csv; without <code>sim</code> the per-bin
+ * files aren't written at all.  With <code>-output binary</code>, the
+ * per-bin results are written in a compact binary form to
+ * &lt;baseName&gt;.Sim.bin (see {@link BinaryResultWriter}).
+ * <p>
+ * With <code>-monteCarlo</code>, each specimen is simulated many times with
+ * randomly perturbed measurements (see {@link MonteCarloSimulation}), and the
+ * mean, spread and confidence interval of the main results go to
+ * &lt;baseName&gt;.MonteCarlo.csv instead.  It can't be combined with a
+ * list of parameter values, and neither can <code>-output</code>.
+ * <p>
+ * The exit status is one of the <code>EXIT_</code> constants.
+ * @author kurie
+ */
+public class MandibLeverBatch {
+
+    /** Exit status: every specimen was simulated */
+    public static final int EXIT_OK = 0;
+
+    /**
+     * Exit status: a file couldn't be read or written, or the run was
+     * interrupted.  (Also what the JVM returns for an uncaught exception.)
+     */
+    public static final int EXIT_ERROR = 1;
+
+    /** Exit status: the arguments were wrong */
+    public static final int EXIT_USAGE = 2;
+
+    /** Exit status: some lines of the specimen file weren't valid specimens; the rest were simulated */
+    public static final int EXIT_BAD_SPECIMENS = 3;
+
+    private static final String USAGE = "Usage: MandibLeverBatch [-bins n] [-angle degrees] [-openDur ms] [-fMax kPa] [-vMax l/s]"
+            + " [-peakV fraction] [-minV fraction] [-a2Pennation degrees] [-a3Pennation degrees] [-tolerance fraction|exact]"
+            + " [-out directory] [-name baseName] [-output sim,aggregate,binary] [-group all|name] [-monteCarlo draws [-error fraction] [-seed n]] specimenFile";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs a batch.
+     * @param args the command line arguments
+     * @param out where to print progress
+     * @param err where to print errors
+     * @return the exit status
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        SimulationParameters defaults = new SimulationParameters();
+        int bins = defaults.getBins();
+        double openDuration = defaults.getOpenDuration();
+        double[] maxRotations = {defaults.getMaxRotation()};
+        double[] forcePerAreaMaxes = {defaults.getForcePerAreaMax()};
+        double[] velocityPerLengthMaxes = {defaults.getVelocityPerLengthMax()};
+        double[] peakVMaxFractions = {defaults.getPeakVMaxFraction()};
+        double[] minVMaxFractions = {defaults.getMinVMaxFraction()};
+        double a2PennationAngle = defaults.getA2PennationAngle();
+        double a3PennationAngle = defaults.getA3PennationAngle();
+        double tolerance = defaults.getTolerance();
+        boolean exact = defaults.isExact();
+        File specimenFile = null;
+        File outputDirectory = null;
+        String baseName = null;
+        int draws = 0;
+        double relativeError = 0.05;
+        long seed = 1;
+        boolean simOutput = true;
+        boolean aggregateOutput = false;
+        boolean binaryOutput = false;
+        boolean outputGiven = false;
+        boolean groupByName = false;
+
+        //parse the arguments
+        ParameterSweep sweep;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("-")) {
+                    if (specimenFile != null) {
+                        throw new IllegalArgumentException("More than one specimen file given.");
+                    }
+                    specimenFile = new File(arg);
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg + ".");
+                }
+                String value = args[++i];
+                if (arg.equals("-bins")) {
+                    bins = Integer.parseInt(value);
+                } else if (arg.equals("-angle")) {
+                    maxRotations = parseValues(value);
+                    for (int j = 0; j < maxRotations.length; j++) {
+                        maxRotations[j] = -Math.toRadians(maxRotations[j]);
+                    }
+                } else if (arg.equals("-openDur")) {
+                    openDuration = Double.parseDouble(value);
+                } else if (arg.equals("-fMax")) {
+                    forcePerAreaMaxes = parseValues(value);
+                } else if (arg.equals("-vMax")) {
+                    velocityPerLengthMaxes = parseValues(value);
+                } else if (arg.equals("-peakV")) {
+                    peakVMaxFractions = parseValues(value);
+                } else if (arg.equals("-minV")) {
+                    minVMaxFractions = parseValues(value);
+                } else if (arg.equals("-a2Pennation")) {
+                    a2PennationAngle = Math.toRadians(Double.parseDouble(value));
+                } else if (arg.equals("-a3Pennation")) {
+                    a3PennationAngle = Math.toRadians(Double.parseDouble(value));
+                } else if (arg.equals("-tolerance")) {
+                    if (value.equals("exact")) {
+                        exact = true;
+                    } else {
+                        tolerance = Double.parseDouble(value);
+                        exact = false;
+                    }
+                } else if (arg.equals("-out")) {
+                    outputDirectory = new File(value);
+                } else if (arg.equals("-name")) {
+                    baseName = value;
+                } else if (arg.equals("-output")) {
+                    simOutput = false;
+                    aggregateOutput = false;
+                    binaryOutput = false;
+                    outputGiven = true;
+                    for (String output : value.split(",")) {
+                        if (output.equals("sim")) {
+                            simOutput = true;
+                        } else if (output.equals("aggregate")) {
+                            aggregateOutput = true;
+                        } else if (output.equals("binary")) {
+                            binaryOutput = true;
+                        } else {
+                            throw new IllegalArgumentException("Unknown output " + output + ".");
+                        }
+                    }
+                } else if (arg.equals("-group")) {
+                    if (value.equals("name")) {
+                        groupByName = true;
+                    } else if (value.equals("all")) {
+                        groupByName = false;
+                    } else {
+                        throw new IllegalArgumentException("Unknown grouping " + value + ".");
+                    }
+                } else if (arg.equals("-monteCarlo")) {
+                    draws = Integer.parseInt(value);
+                    if (draws < 1) {
+                        throw new IllegalArgumentException("The number of draws must be positive.");
+                    }
+                } else if (arg.equals("-error")) {
+                    relativeError = Double.parseDouble(value);
+                } else if (arg.equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg + ".");
+                }
+            }
+            if (specimenFile == null) {
+                throw new IllegalArgumentException("No specimen file given.");
+            }
+            sweep = new ParameterSweep(new SimulationParameters(bins, openDuration, maxRotations[0],
+                    forcePerAreaMaxes[0], velocityPerLengthMaxes[0],
+                    peakVMaxFractions[0], minVMaxFractions[0],
+                    a2PennationAngle, a3PennationAngle).withTolerance(tolerance).withExact(exact));
+            sweep.setMaxRotations(maxRotations);
+            sweep.setForcePerAreaMaxes(forcePerAreaMaxes);
+            sweep.setVelocityPerLengthMaxes(velocityPerLengthMaxes);
+            sweep.setPeakVMaxFractions(peakVMaxFractions);
+            sweep.setMinVMaxFractions(minVMaxFractions);
+            if (draws > 0 && sweep.getParameterSets().size() > 1) {
+                throw new IllegalArgumentException("-monteCarlo can't be used with a list of parameter values.");
+            }
+            if (outputGiven && (draws > 0 || sweep.getParameterSets().size() > 1)) {
+                throw new IllegalArgumentException("-output can't be used with -monteCarlo or a list of parameter values.");
+            }
+        } catch (IllegalArgumentException e) { //includes NumberFormatException
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        //same defaults as the GUI: next to the specimen file, named after it
+        if (outputDirectory == null) {
+            outputDirectory = specimenFile.getAbsoluteFile().getParentFile();
+        }
+        if (baseName == null) {
+            baseName = specimenFile.getName().replaceFirst("\\.[^\\.]*$", ""); //trim the extension, if any
+        }
+
+        int status = EXIT_OK;
+        try {
+            /*
+             * Read the specimens, reporting (but skipping) the bad ones.  A
+             * run or a sweep only needs the specimens' geometry, so they're
+             * kept as columns, which takes much less memory for a big data
+             * set.
+             */
+            List<SimulationParameters> parameterSets = sweep.getParameterSets();
+            SpecimenFile file = SpecimenFile.read(specimenFile);
+            List<SpecimenFile.LineError> errors = new ArrayList<SpecimenFile.LineError>();
+            List<Specimen> specimens = null;
+            SpecimenBatch batch = null;
+            if (draws == 0) {
+                batch = file.createBatch(errors);
+            } else {
+                specimens = file.createSpecimens(errors);
+            }
+            for (SpecimenFile.LineError error : errors) {
+                err.println(specimenFile + ", " + error);
+            }
+            if (!errors.isEmpty()) {
+                status = EXIT_BAD_SPECIMENS;
+            }
+
+            if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+                throw new IOException("Unable to create the output directory " + outputDirectory + ".");
+            }
+            if (draws > 0) {
+                out.println("Simulating " + specimens.size() + " specimens " + draws + " times each (" + parameterSets.get(0) + ")");
+                MonteCarloSimulation simulation = new MonteCarloSimulation(parameterSets.get(0), draws, seed);
+                simulation.setRelativeError(relativeError);
+                List<MonteCarloResult> results = simulation.runParallel(specimens);
+                MonteCarloTableWriter writer = new MonteCarloTableWriter(outputDirectory, baseName);
+                try {
+                    for (MonteCarloResult result : results) {
+                        writer.write(result);
+                    }
+                } finally {
+                    writer.close();
+                }
+                out.println("Wrote " + new File(outputDirectory, baseName) + ".MonteCarlo.csv");
+            } else if (parameterSets.size() == 1) {
+                out.println("Simulating " + batch.size() + " specimens (" + parameterSets.get(0) + ")");
+                final List<SimulationOutput> outputs = new ArrayList<SimulationOutput>();
+                List<Closeable> files = new ArrayList<Closeable>();
+                try {
+                    if (simOutput) {
+                        addOutput(new SimulationCsvWriter(outputDirectory, baseName), outputs, files);
+                    }
+                    if (aggregateOutput) {
+                        addOutput(new AggregateTableWriter(outputDirectory, baseName, groupByName), outputs, files);
+                    }
+                    if (binaryOutput) {
+                        addOutput(new BinaryResultWriter(outputDirectory, baseName, parameterSets.get(0).getBins()), outputs, files);
+                    }
+                    new SimulationEngine(parameterSets.get(0)).runParallel(batch, new SimulationOutput() {
+                        public void write(SpecimenResult result) throws IOException {
+                            for (SimulationOutput output : outputs) {
+                                output.write(result);
+                            }
+                        }
+                    });
+                } finally {
+                    close(files);
+                }
+                out.println("Wrote " + new File(outputDirectory, baseName) + ".*");
+            } else {
+                out.println("Simulating " + batch.size() + " specimens with " + parameterSets.size() + " parameter sets");
+                SweepTableWriter writer = new SweepTableWriter(outputDirectory, baseName);
+                try {
+                    sweep.runParallel(batch, writer);
+                } finally {
+                    writer.close();
+                }
+                out.println("Wrote " + new File(outputDirectory, baseName) + ".Sweep.csv");
+            }
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            err.println("Interrupted.");
+            Thread.currentThread().interrupt();
+            return EXIT_ERROR;
+        }
+
+        return status;
+    }
+
+    /**
+     * Adds an output that writes to a file, to be written to and then closed.
+     */
+    private static <T extends SimulationOutput & Closeable> void addOutput(T output, List<SimulationOutput> outputs, List<Closeable> files) {
+        outputs.add(output);
+        files.add(output);
+    }
+
+    /**
+     * Closes all of the files, even if closing one of them fails.
+     * @throws IOException the first exception thrown while closing
+     */
+    private static void close(List<Closeable> files) throws IOException {
+        IOException exception = null;
+        for (Closeable file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Parses a list of values, either separated by commas or as
+     * first:last:count.
+     * @throws IllegalArgumentException if the list isn't in either format
+     */
+    private static double[] parseValues(String value) throws IllegalArgumentException {
+        String[] parts = value.split(":");
+        if (parts.length == 3) {
+            return ParameterSweep.range(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Integer.parseInt(parts[2]));
+        } else if (parts.length != 1) {
+            throw new IllegalArgumentException("Expected first:last:count, not \"" + value + "\".");
+        }
+
+        parts = value.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i]);
+        }
+        return values;
+    }
+}
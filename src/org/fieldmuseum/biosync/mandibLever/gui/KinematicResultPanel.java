@@ -72,14 +72,18 @@ public class KinematicResultPanel extends javax.swing.JPanel {
         a2MuscleAngleClosed.setValue(Math.toDegrees(mandible.getMuscleAngle(a2)));
         a3MuscleAngleClosed.setValue(Math.toDegrees(mandible.getMuscleAngle(a3)));
 
-        //Muscle Angle Open
-        double angle = -Math.toRadians(paramPanel.getMaxOpenAngle());
-        mandible.setRotation(angle);
-        a2MuscleAngleOpen.setValue(Math.toDegrees(mandible.getMuscleAngle(a2)));
-        a3MuscleAngleOpen.setValue(Math.toDegrees(mandible.getMuscleAngle(a3)));
-
-        //set the mandible back to its original orientation
-        mandible.setRotation(startingRotation);
+        //Muscle Angle Open (in an update, so moving the jaw and back fires at most one event)
+        specimen.beginUpdate();
+        try {
+            double angle = -Math.toRadians(paramPanel.getMaxOpenAngle());
+            mandible.setRotation(angle);
+            a2MuscleAngleOpen.setValue(Math.toDegrees(mandible.getMuscleAngle(a2)));
+            a3MuscleAngleOpen.setValue(Math.toDegrees(mandible.getMuscleAngle(a3)));
+        } finally {
+            //set the mandible back to its original orientation
+            mandible.setRotation(startingRotation);
+            specimen.commitUpdate();
+        }
 
         updateFields();
     }
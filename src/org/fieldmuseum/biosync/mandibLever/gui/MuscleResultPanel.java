@@ -55,7 +55,7 @@ public class MuscleResultPanel extends javax.swing.JPanel {
         if (specimen.getContraction(a2) == 0) {
             work = 0;
         }
-        double time = specimen.getMaxContraction(a2)/(bins * a2.getVelocityFraction() * MandibLeverMuscle.getVelocityPerLengthMax());
+        double time = specimen.getMaxContraction(a2)/(bins * a2.getVelocityFraction() * a2.getMaxVelocityPerLength());
         double power = work / time;
 
         //A2
@@ -75,7 +75,7 @@ public class MuscleResultPanel extends javax.swing.JPanel {
         if (specimen.getContraction(a3) == 0) {
             work = 0;
         }
-        time = specimen.getMaxContraction(a3)/(bins * a3.getVelocityFraction() * MandibLeverMuscle.getVelocityPerLengthMax());
+        time = specimen.getMaxContraction(a3)/(bins * a3.getVelocityFraction() * a3.getMaxVelocityPerLength());
         power = work / time;
         
         //A3
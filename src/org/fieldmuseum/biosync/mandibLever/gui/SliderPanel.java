@@ -243,7 +243,12 @@ public class SliderPanel extends javax.swing.JPanel {
         public void setValue(int n) {
             if (getValueIsAdjusting()) {
                 double rotation = -Math.toRadians(n);
-                specimen.getMandible().setRotation(rotation);
+                specimen.beginUpdate();
+                try {
+                    specimen.getMandible().setRotation(rotation);
+                } finally {
+                    specimen.commitUpdate();
+                }
             }
             super.setValue(n);
         }
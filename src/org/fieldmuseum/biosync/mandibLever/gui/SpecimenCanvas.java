@@ -20,33 +20,53 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.Shape;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.AbstractAction;
+import javax.swing.ButtonGroup;
+import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.Timer;
 import javax.swing.event.MouseInputAdapter;
 import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
 import org.fieldmuseum.biosync.canvas.DrawingCanvas;
 import org.fieldmuseum.biosync.kinematics.Joint;
 import org.fieldmuseum.biosync.kinematics.PlasticBar;
+import org.fieldmuseum.biosync.mandibLever.model.MandibLeverMuscle;
 import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
 import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.sim.ClosingTimeline;
 
 /**
- *
+ * Draws a specimen, highlighting the joint or member under the mouse.  The
+ * right-click menu plays back the jaw closing by the A2 or A3.
  * @author kurie
  */
 public class SpecimenCanvas extends DrawingCanvas {
+    /** The shortest time between redraws of the specimen, in ms (about one display frame) */
+    private static final int FRAME_INTERVAL = 16;
+
+    /** The number of steps the closing animations are simulated in */
+    private static final int ANIMATION_BINS = 500;
+
     private Specimen specimen;
+    private SimParamPanel paramPanel;
     private Object highlight;
 
     /** This circle gets moved around to highlight the nearest joint */
@@ -54,17 +74,109 @@ public class SpecimenCanvas extends DrawingCanvas {
 
     private Color highlightColor = Color.BLUE;
 
+    /**
+     * Redraws the specimen after it changes.  Moving a slider changes several
+     * properties at once, and dragging one changes them many times a frame,
+     * so the redraw waits until the changes have all been made, and until a
+     * frame has gone by since the last one.
+     */
+    private final Timer redrawTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            if (specimen != null) {
+                draw(specimen);
+            }
+        }
+    });
+
+    /** When the specimen was last drawn, from System.currentTimeMillis() */
+    private long lastDrawTime;
+
+    /** Where the joints and members are on the screen, for finding the one under the mouse */
+    private final HitIndex hitIndex = new HitIndex();
+
     // a listener that, on any specimen property change, redraws the specimen
     PropertyChangeListener specimenListener = new PropertyChangeListener() {
         public void propertyChange(PropertyChangeEvent evt) {
-            draw(specimen);
+            hitIndex.invalidate();
+            if (timeline != null) {
+                stopAnimation(); //it's out of date
+            }
+            scheduleRedraw();
         }
     };
 
+    /** The closing being played back, or null */
+    private ClosingTimeline timeline;
+    /** The playback speed, as a fraction of real time */
+    private double animationSpeed = 0.01;
+    /** When the playback started, from System.nanoTime() */
+    private long animationStart;
+    /** Draws the frames of the playback */
+    private final Timer animationTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            drawFrame();
+        }
+    });
+
+    /*
+     * Reused for every frame, so playing back doesn't allocate anything
+     */
+    private final double[] frame = new double[2 * ClosingTimeline.JOINT_COUNT];
+    private final GeneralPath mandibleShape = new GeneralPath();
+    private final Line2D.Double a2Shape = new Line2D.Double();
+    private final Line2D.Double a3Shape = new Line2D.Double();
+    private final BasicStroke frameStroke = new BasicStroke(0.0f);
+    private Shape upperJawShape;
+
     public SpecimenCanvas() {
+        redrawTimer.setRepeats(false);
         SpecimenMouseListener mouseListener = new SpecimenMouseListener();
         addMouseListener(mouseListener);
         addMouseMotionListener(mouseListener);
+        setComponentPopupMenu(createPopupMenu());
+    }
+
+    /**
+     * @return the right-click menu, for playing back the jaw closing
+     */
+    private JPopupMenu createPopupMenu() {
+        JPopupMenu menu = new JPopupMenu();
+        menu.add(new AbstractAction("Play A2 closing") {
+            public void actionPerformed(ActionEvent e) {
+                if (specimen != null) {
+                    animate(specimen.getA2());
+                }
+            }
+        });
+        menu.add(new AbstractAction("Play A3 closing") {
+            public void actionPerformed(ActionEvent e) {
+                if (specimen != null) {
+                    animate(specimen.getA3());
+                }
+            }
+        });
+        menu.add(new AbstractAction("Stop") {
+            public void actionPerformed(ActionEvent e) {
+                stopAnimation();
+            }
+        });
+        menu.addSeparator();
+
+        ButtonGroup speeds = new ButtonGroup();
+        String[] names = {"Real time", "1/10 speed", "1/100 speed"};
+        final double[] values = {1, 0.1, 0.01};
+        for (int i = 0; i < names.length; i++) {
+            final double speed = values[i];
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(new AbstractAction(names[i]) {
+                public void actionPerformed(ActionEvent e) {
+                    animationSpeed = speed;
+                }
+            });
+            item.setSelected(speed == animationSpeed);
+            speeds.add(item);
+            menu.add(item);
+        }
+        return menu;
     }
 
     /**
@@ -83,17 +195,152 @@ public class SpecimenCanvas extends DrawingCanvas {
             this.specimen.removePropertyChangeListener(specimenListener);
         }
 
+        timeline = null;
+        animationTimer.stop();
         this.specimen = specimen;
+        hitIndex.invalidate();
         updateDrawingBounds(specimen);
         draw(specimen);
 
         this.specimen.addPropertyChangeListener(specimenListener);
     }
 
+    /**
+     * @param specimen the specimen to set
+     * @param paramPanel the panel with the simulation parameters the closing
+     * animations use
+     */
+    public void setSpecimen(Specimen specimen, SimParamPanel paramPanel) {
+        this.paramPanel = paramPanel;
+        setSpecimen(specimen);
+    }
+
+    /**
+     * Plays back the closing of the jaw by one of the specimen's muscles,
+     * from max-open, at the current speed.  The closing is simulated once,
+     * with the current parameters, and the frames are then interpolated from
+     * it, so the playback keeps up with the display.  The last frame stays
+     * up until the specimen changes or the playback is stopped.
+     * @param muscle the specimen's A2 or A3
+     */
+    public void animate(MandibLeverMuscle muscle) {
+        if (paramPanel == null) {
+            return;
+        }
+        animate(new ClosingTimeline(specimen, muscle, new SimulationParameters(ANIMATION_BINS, paramPanel.getOpenDur())), animationSpeed);
+    }
+
+    /**
+     * Plays back the closing of the jaw.
+     * @param timeline the closing, of the current specimen
+     * @param speed the playback speed, as a fraction of real time
+     */
+    public void animate(ClosingTimeline timeline, double speed) {
+        this.timeline = timeline;
+        animationSpeed = speed;
+        upperJawShape = specimen.getMandible().getUpperJawShape();
+        setHighlight(null);
+        redrawTimer.stop();
+        animationStart = System.nanoTime();
+        drawFrame();
+        animationTimer.start();
+    }
+
+    /**
+     * Stops any playback, and draws the specimen as it is.
+     */
+    public void stopAnimation() {
+        animationTimer.stop();
+        if (timeline != null) {
+            timeline = null;
+            if (specimen != null) {
+                draw(specimen);
+            }
+        }
+    }
+
+    /**
+     * @return true if a closing is being played back (or its last frame is
+     * showing)
+     */
+    public boolean isAnimating() {
+        return timeline != null;
+    }
+
+    /**
+     * Draws the playback frame for the current time.
+     */
+    private void drawFrame() {
+        AffineTransform deviceTransform = getDeviceTransform();
+        if (deviceTransform == null) {
+            return; //not shown yet
+        }
+        double time = (System.nanoTime() - animationStart) / 1e9 * animationSpeed;
+        if (time >= timeline.getDuration()) {
+            time = timeline.getDuration();
+            animationTimer.stop();
+        }
+        timeline.getFrame(time, frame);
+
+        mandibleShape.reset();
+        moveTo(mandibleShape, ClosingTimeline.QA_JOINT);
+        lineTo(mandibleShape, ClosingTimeline.IOM_LIGAMENT_INSERTION);
+        lineTo(mandibleShape, ClosingTimeline.ANTERIOR_JAW_TIP);
+        lineTo(mandibleShape, ClosingTimeline.A2_INSERTION);
+        lineTo(mandibleShape, ClosingTimeline.QA_JOINT);
+        lineTo(mandibleShape, ClosingTimeline.A3_INSERTION);
+        lineTo(mandibleShape, ClosingTimeline.A2_INSERTION);
+        mandibleShape.closePath();
+        setLine(a2Shape, ClosingTimeline.A2_ORIGIN, ClosingTimeline.A2_INSERTION);
+        setLine(a3Shape, ClosingTimeline.A3_ORIGIN, ClosingTimeline.A3_INSERTION);
+
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(getBackground());
+        g2d.fillRect(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        g2d.setStroke(frameStroke);
+        g2d.transform(deviceTransform);
+        g2d.setColor(Color.LIGHT_GRAY);
+        g2d.draw(upperJawShape);
+        g2d.setColor(Color.BLACK);
+        g2d.draw(mandibleShape);
+        g2d.setColor(Color.RED);
+        g2d.draw(a2Shape);
+        g2d.draw(a3Shape);
+        g2d.dispose();
+        repaint();
+    }
+
+    private void moveTo(GeneralPath path, int joint) {
+        path.moveTo((float) frame[2 * joint], (float) frame[2 * joint + 1]);
+    }
+
+    private void lineTo(GeneralPath path, int joint) {
+        path.lineTo((float) frame[2 * joint], (float) frame[2 * joint + 1]);
+    }
+
+    private void setLine(Line2D.Double line, int from, int to) {
+        line.setLine(frame[2 * from], frame[2 * from + 1], frame[2 * to], frame[2 * to + 1]);
+    }
+
+    /**
+     * Redraws the specimen soon, if it isn't going to be already.  The redraw
+     * happens once the current event has been handled, or a frame after the
+     * last one if that is later.
+     */
+    private void scheduleRedraw() {
+        if (!redrawTimer.isRunning()) {
+            long sinceLastDraw = System.currentTimeMillis() - lastDrawTime;
+            redrawTimer.setInitialDelay((int) Math.max(0, Math.min(FRAME_INTERVAL, FRAME_INTERVAL - sinceLastDraw)));
+            redrawTimer.start();
+        }
+    }
+
     /**
      * Draws a specimen
      */
     private void draw(Specimen specimen) {
+        redrawTimer.stop(); //already up to date
+        lastDrawTime = System.currentTimeMillis();
         Mandible mandible = specimen.getMandible();
         Muscle a2 = specimen.getA2();
         Muscle a3 = specimen.getA3();
@@ -117,7 +364,7 @@ public class SpecimenCanvas extends DrawingCanvas {
 
         if (highlight instanceof Joint) {
             Joint j = (Joint) highlight;
-            Point2D jInDeviceSpace = getTransform(drawingBounds, image).transform(j, null);
+            Point2D jInDeviceSpace = getDeviceTransform().transform(j, null);
             jointHighlight.x = jInDeviceSpace.getX() - jointHighlight.width/2;
             jointHighlight.y = jInDeviceSpace.getY() - jointHighlight.height/2;
             g2d.draw(jointHighlight);
@@ -125,8 +372,8 @@ public class SpecimenCanvas extends DrawingCanvas {
         } else if (highlight instanceof PlasticBar) {
             PlasticBar bar = (PlasticBar)highlight;
             Line2D line = bar.getShape();
-            Point2D p1 = getTransform(drawingBounds, image).transform(line.getP1(), null);
-            Point2D p2 = getTransform(drawingBounds, image).transform(line.getP2(), null);
+            Point2D p1 = getDeviceTransform().transform(line.getP1(), null);
+            Point2D p2 = getDeviceTransform().transform(line.getP2(), null);
             Point2D midpoint = new Point2D.Double(p1.getX()/2 + p2.getX()/2, p1.getY()/2 + p2.getY()/2);
             g2d.draw(new Line2D.Double(p1, p2));
             g2d.drawString(specimen.getName(bar), (int)midpoint.getX(), (int)midpoint.getY()); //TODO rotate the text to run along the bar
@@ -159,8 +406,116 @@ public class SpecimenCanvas extends DrawingCanvas {
     }
 
     private void setHighlight(Object highlight) {
-        this.highlight = highlight;
-        repaint();
+        if (highlight != this.highlight) {
+            this.highlight = highlight;
+            repaint();
+        }
+    }
+
+    /**
+     * The device-space locations of the specimen's joints and the ends of its
+     * members, in plain arrays.  They're worked out again (on the next mouse
+     * move) when the specimen changes or the device transform does, so moving
+     * the mouse over a specimen that isn't changing doesn't allocate anything
+     * or transform any points.
+     */
+    private class HitIndex {
+        private boolean valid;
+        private AffineTransform transform;
+
+        private Joint[] joints = new Joint[0];
+        private double[] jointXY = new double[0];
+        private PlasticBar[] members = new PlasticBar[0];
+        private double[] memberXY = new double[0];
+
+        /** the distance to the last joint or member found, in pixels */
+        private double distance;
+
+        void invalidate() {
+            valid = false;
+        }
+
+        /**
+         * Brings the index up to date with the specimen and the transform.
+         * @return false if there's nothing to index yet
+         */
+        boolean update() {
+            AffineTransform deviceTransform = getDeviceTransform();
+            if (specimen == null || deviceTransform == null) {
+                return false;
+            }
+            if (valid && transform == deviceTransform) {
+                return true;
+            }
+
+            Set<Joint> jointSet = new LinkedHashSet<Joint>();
+            jointSet.addAll(specimen.getMandible().getJoints());
+            jointSet.addAll(specimen.getA2().getJoints());
+            jointSet.addAll(specimen.getA3().getJoints());
+            joints = jointSet.toArray(new Joint[jointSet.size()]);
+            jointXY = new double[2 * joints.length];
+            for (int i = 0; i < joints.length; i++) {
+                jointXY[2 * i] = joints[i].getX();
+                jointXY[2 * i + 1] = joints[i].getY();
+            }
+            deviceTransform.transform(jointXY, 0, jointXY, 0, joints.length);
+
+            Set<PlasticBar> memberSet = specimen.getMembers();
+            members = memberSet.toArray(new PlasticBar[memberSet.size()]);
+            memberXY = new double[4 * members.length];
+            for (int i = 0; i < members.length; i++) {
+                Line2D line = members[i].getShape();
+                memberXY[4 * i] = line.getX1();
+                memberXY[4 * i + 1] = line.getY1();
+                memberXY[4 * i + 2] = line.getX2();
+                memberXY[4 * i + 3] = line.getY2();
+            }
+            deviceTransform.transform(memberXY, 0, memberXY, 0, 2 * members.length);
+
+            transform = deviceTransform;
+            valid = true;
+            return true;
+        }
+
+        /**
+         * @return the joint nearest to a device-space point, or null if there
+         * are none.  Its distance is then in {@link #distance}.
+         */
+        Joint getNearestJoint(double x, double y) {
+            Joint nearest = null;
+            distance = Double.MAX_VALUE;
+            for (int i = 0; i < joints.length; i++) {
+                double dx = jointXY[2 * i] - x;
+                double dy = jointXY[2 * i + 1] - y;
+                double d = Math.sqrt(dx * dx + dy * dy);
+                if (d < distance) {
+                    distance = d;
+                    nearest = joints[i];
+                }
+            }
+            return nearest;
+        }
+
+        /**
+         * @return the member nearest to a device-space point, or null if there
+         * are none.  Its distance is then in {@link #distance}.
+         */
+        PlasticBar getNearestMember(double x, double y) {
+            PlasticBar nearest = null;
+            distance = Double.MAX_VALUE;
+            for (int i = 0; i < members.length; i++) {
+                double d = Line2D.ptSegDist(memberXY[4 * i], memberXY[4 * i + 1], memberXY[4 * i + 2], memberXY[4 * i + 3], x, y);
+                if (d < distance) {
+                    distance = d;
+                    nearest = members[i];
+                }
+            }
+            return nearest;
+        }
+
+        double getDistance() {
+            return distance;
+        }
     }
 
     private class SpecimenMouseListener extends MouseInputAdapter {
@@ -169,13 +524,13 @@ public class SpecimenCanvas extends DrawingCanvas {
 
         @Override
         public void mouseMoved(MouseEvent e) {
-            if (specimen != null) {
-                Joint nearestJoint = getNearestJoint(e.getPoint());
-                if (getDeviceDistance(e.getPoint(), nearestJoint) <= selectionDist) {
+            if (timeline == null && hitIndex.update()) {
+                Joint nearestJoint = hitIndex.getNearestJoint(e.getX(), e.getY());
+                if (nearestJoint != null && hitIndex.getDistance() <= selectionDist) {
                     setHighlight(nearestJoint);
                 } else {
-                    PlasticBar nearestMember = getNearestMember(e.getPoint());
-                    if (getDeviceDistance(e.getPoint(), nearestMember.getShape()) <= selectionDist) {
+                    PlasticBar nearestMember = hitIndex.getNearestMember(e.getX(), e.getY());
+                    if (nearestMember != null && hitIndex.getDistance() <= selectionDist) {
                         setHighlight(nearestMember);
                     } else {
                         setHighlight(null);
@@ -206,53 +561,5 @@ public class SpecimenCanvas extends DrawingCanvas {
 //            }
 
         }
-
-        private Joint getNearestJoint(Point point) {
-            double minDist = Double.MAX_VALUE;
-            Joint minDistJoint = null;
-            for (Joint j : getJoints(specimen)) {
-                double dist = getDeviceDistance(point, j);
-                if (dist < minDist) {
-                    minDist = dist;
-                    minDistJoint = j;
-                }
-            }
-
-            return minDistJoint;
-        }
-
-        private PlasticBar getNearestMember(Point point) {
-            double minDist = Double.MAX_VALUE;
-            PlasticBar minDistMember = null;
-            for (PlasticBar member : specimen.getMembers()) {
-                double dist = getDeviceDistance(point, member.getShape());
-                if (dist < minDist) {
-                    minDist = dist;
-                    minDistMember = member;
-                }
-            }
-
-            return minDistMember;
-        }
-
-        private Set<Joint> getJoints(Specimen specimen) {
-            HashSet<Joint> joints = new HashSet<Joint>();
-            joints.addAll(specimen.getMandible().getJoints());
-            joints.addAll(specimen.getA2().getJoints());
-            joints.addAll(specimen.getA3().getJoints());
-            return joints;
-        }
-
-        private double getDeviceDistance(Point pointInDeviceSpace, Joint jointInUserSpace) {
-            Point2D jInDeviceSpace = getTransform(drawingBounds, image).transform(jointInUserSpace, null);
-            return jInDeviceSpace.distance(pointInDeviceSpace);
-        }
-
-        private double getDeviceDistance(Point pointInDeviceSpace, Line2D memberInUserSpace) {
-            Point2D p1InDeviceSpace = getTransform(drawingBounds, image).transform(memberInUserSpace.getP1(), null);
-            Point2D p2InDeviceSpace = getTransform(drawingBounds, image).transform(memberInUserSpace.getP2(), null);
-            Line2D lineInDeviceSpace = new Line2D.Double(p1InDeviceSpace, p2InDeviceSpace);
-            return lineInDeviceSpace.ptSegDist(pointInDeviceSpace);
-        }
     }
 }
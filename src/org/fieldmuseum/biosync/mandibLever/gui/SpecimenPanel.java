@@ -39,12 +39,16 @@ import javax.swing.JOptionPane;
 import javax.swing.JSpinner.DefaultEditor;
 import javax.swing.SpinnerListModel;
 import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenFile;
 
 /**
  *
  * @author kgu
  */
 public class SpecimenPanel extends javax.swing.JPanel {
+    /** The most bad lines listed when a file is opened */
+    private static final int MAX_ERRORS_SHOWN = 20;
+
     private List<Specimen> specimens = new ArrayList<Specimen>();
     private SpecimenListener specListener = new SpecimenListener();
     private File currentFile;
@@ -718,21 +722,11 @@ public class SpecimenPanel extends javax.swing.JPanel {
                 List<Specimen> oldSpecimens = specimens; //save old value for prop change event
                 specimens = new ArrayList<Specimen>();
                 try {
-                    BufferedReader in = new BufferedReader(new FileReader(currentFile));
-                    String line;
-                    int lineCount = 0;
-                    while ((line = in.readLine()) != null) {
-                        lineCount++;
-                        if (line.trim().length() > 0) {
-                            try {
-                                Specimen specimen = new Specimen(line);
-                                specimens.add(specimen);
-                            } catch (IllegalArgumentException exc) {
-                                JOptionPane.showMessageDialog(SpecimenPanel.this, "Unable to create specimen on line " + lineCount + ".\n" + exc.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                            }
-                        }
+                    List<SpecimenFile.LineError> errors = new ArrayList<SpecimenFile.LineError>();
+                    specimens = SpecimenFile.read(currentFile).createSpecimens(errors);
+                    if (!errors.isEmpty()) {
+                        showErrors(errors);
                     }
-                    in.close();
 
                     //update the model and fire a property change
                     SpinnerListModel model = (SpinnerListModel) jSpinner1.getModel();
@@ -747,6 +741,22 @@ public class SpecimenPanel extends javax.swing.JPanel {
         }
     }
 
+    /**
+     * Shows the lines of a specimen file that couldn't be read, all in one
+     * dialog.
+     */
+    private void showErrors(List<SpecimenFile.LineError> errors) {
+        StringBuilder message = new StringBuilder("Unable to create specimens on " + errors.size()
+                + (errors.size() == 1 ? " line:" : " lines:"));
+        for (int i = 0; i < errors.size() && i < MAX_ERRORS_SHOWN; i++) {
+            message.append("\n").append(errors.get(i));
+        }
+        if (errors.size() > MAX_ERRORS_SHOWN) {
+            message.append("\n(and ").append(errors.size() - MAX_ERRORS_SHOWN).append(" more)");
+        }
+        JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
+    }
+
     private class FileSaveAction extends AbstractAction {
         public FileSaveAction() {
             super("Save");
@@ -871,11 +881,12 @@ public class SpecimenPanel extends javax.swing.JPanel {
         }
 
         public void propertyChange(PropertyChangeEvent evt) {
-            if (evt.getPropertyName().equals("name")) {
+            if (evt.getPropertyName().equals("name") || evt.getPropertyName().equals(Specimen.UPDATE_PROPERTY)) {
                 //force the spinner editor to update the name displayed
                 ((DefaultEditor) jSpinner1.getEditor()).getTextField().setValue(jSpinner1.getValue());
                 jtfName.setText(specimen.getName());
-            } else {
+            }
+            if (!evt.getPropertyName().equals("name")) {
                 updateFields();
             }
 
@@ -26,6 +26,7 @@ import org.fieldmuseum.biosync.kinematics.Joint;
 public class A2Muscle extends MandibLeverMuscle implements Serializable {
     /**
      * All specimens' A2 muscles in MandibLever are given the same pennation angle
+     * (unless the specimen has simulation parameters of its own)
      */
     private static double pennationAngle = 0;
 
@@ -53,12 +54,22 @@ public class A2Muscle extends MandibLeverMuscle implements Serializable {
         super();
     }
 
+    /**
+     * @return the pennation angle given to A2 muscles of specimens without
+     * simulation parameters of their own
+     */
+    public static double getDefaultPennationAngle() {
+        return pennationAngle;
+    }
+
      /**
-     * @return the pennationAngle
+     * @return the pennationAngle, from the specimen's simulation parameters if
+     * it has any
      */
     @Override
     public double getPennationAngle() {
-        return pennationAngle;
+        SimulationParameters parameters = getSimulationParameters();
+        return parameters == null ? pennationAngle : parameters.getA2PennationAngle();
     }
 
     /**
@@ -69,6 +80,7 @@ public class A2Muscle extends MandibLeverMuscle implements Serializable {
     public void setPennationAngle(double aPennationAngle) {
         double oldValue = pennationAngle;
         pennationAngle = aPennationAngle;
+        LinearVelocityModel.sharedParametersChanged();
         staticChangeSupport.firePropertyChange("pennationAngle", oldValue, pennationAngle);
     }
 }
@@ -26,6 +26,7 @@ import org.fieldmuseum.biosync.kinematics.Joint;
 public class A3Muscle extends MandibLeverMuscle implements Serializable {
     /**
      * All specimens' A3 muscles in MandibLever are given the same pennation angle
+     * (unless the specimen has simulation parameters of its own)
      */
     private static double pennationAngle; //hides the field in the superclass
 
@@ -50,12 +51,22 @@ public class A3Muscle extends MandibLeverMuscle implements Serializable {
         super();
     }
 
+    /**
+     * @return the pennation angle given to A3 muscles of specimens without
+     * simulation parameters of their own
+     */
+    public static double getDefaultPennationAngle() {
+        return pennationAngle;
+    }
+
      /**
-     * @return the pennationAngle
+     * @return the pennationAngle, from the specimen's simulation parameters if
+     * it has any
      */
     @Override
     public double getPennationAngle() {
-        return pennationAngle;
+        SimulationParameters parameters = getSimulationParameters();
+        return parameters == null ? pennationAngle : parameters.getA3PennationAngle();
     }
 
     /**
@@ -66,6 +77,7 @@ public class A3Muscle extends MandibLeverMuscle implements Serializable {
     public void setPennationAngle(double aPennationAngle) {
         double oldValue = pennationAngle;
         pennationAngle = aPennationAngle;
+        LinearVelocityModel.sharedParametersChanged();
         staticChangeSupport.firePropertyChange("pennationAngle", oldValue, pennationAngle);
     }
 }
\ No newline at end of file
@@ -16,7 +16,9 @@
  */
 package org.fieldmuseum.biosync.mandibLever.model;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import org.fieldmuseum.biosync.biomechanics.muscle.HillEquation;
+import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
 
 /**
  * A model where the velocity is proportional to the current muscle length,
@@ -26,10 +28,30 @@ import org.fieldmuseum.biosync.biomechanics.muscle.HillEquation;
  */
 public class LinearVelocityModel {
 
+    /**
+     * Counts changes to the shared parameters of MandibLever (the velocity
+     * fractions, pennation angles and max rotation).  A model re-reads its
+     * cached values when this, or Muscle's count of changes to vMax and fMax,
+     * has moved on since they were worked out.
+     */
+    private static final AtomicInteger sharedParametersVersion = new AtomicInteger();
+
     private MandibLeverMuscle muscle;
 
     private Specimen specimen;
 
+    /*
+     * Values that depend only on the specimen's geometry and the simulation
+     * parameters, not on the current rotation.  Worked out when first needed,
+     * so getV() and getF() don't re-solve the jaw geometry on every call.
+     */
+    private boolean cacheValid;
+    private int cachedSharedParametersVersion;
+    private int cachedMuscleParametersVersion;
+    private SimulationParameters cachedParameters;
+    private double v0, dvdl, len0;
+    private double maxVelocity, maxForce;
+
     /**
      * Create a new LinearVelocityModel for a given muscle in a given specimen.
      */
@@ -38,13 +60,52 @@ public class LinearVelocityModel {
         this.specimen = specimen;
     }
 
+    /**
+     * Tells every model that one of the shared parameters has changed.  Called
+     * by the static setters that change them.
+     */
+    static void sharedParametersChanged() {
+        sharedParametersVersion.incrementAndGet();
+    }
+
+    /**
+     * Throws away the cached values, so they're worked out again the next time
+     * they're needed.  Call this when the muscle itself changes (e.g. its
+     * mass or tendon length).
+     */
+    public void invalidate() {
+        cacheValid = false;
+    }
+
     /**
      * Get the velocity at a given length.
      * @param len the current muscle length
      * @return the velocity at this length
      */
     public double getV() {
-        return v0() + dvdl() * (muscle.getLength() - len0());
+        updateCache();
+        return getVelocity(v0, dvdl, len0, muscle.getLength());
+    }
+
+    /**
+     * Gets the velocity at a length, from the line through the starting
+     * velocity and length.
+     * @param v0 the velocity at the starting length
+     * @param dvdl the slope of the length-velocity line
+     * @param len0 the starting length
+     * @param length the muscle length
+     * @return the velocity, without any limits
+     */
+    public static double getVelocity(double v0, double dvdl, double len0, double length) {
+        return v0 + dvdl * (length - len0);
+    }
+
+    /**
+     * Gets the slope of the length-velocity line through two points.
+     * @return dv/dl
+     */
+    public static double getSlope(double v0, double v1, double len0, double len1) {
+        return (v1 - v0) / (len1 - len0);
     }
 
     /**
@@ -54,7 +115,8 @@ public class LinearVelocityModel {
      * @return the time at this length
      */
     public double getT() {
-        return -Math.log(getV()) / dvdl() + Math.log(v0()) / dvdl();
+        double v = getV();
+        return -Math.log(v) / dvdl + Math.log(v0) / dvdl;
     }
 
     /**
@@ -63,8 +125,19 @@ public class LinearVelocityModel {
      * @return the force at this length
      */
     public double getF() {
-        double forceFraction = HillEquation.getF(getV()/muscle.getMaxVelocity());
-        return forceFraction * muscle.getMaxForce();
+        return getForce(getV(), maxVelocity, maxForce);
+    }
+
+    /**
+     * Gets the force at a velocity, based on the Hill equation.
+     * @param velocity the velocity
+     * @param maxVelocity the muscle's max velocity
+     * @param maxForce the muscle's max force
+     * @return the force, without any limits
+     */
+    public static double getForce(double velocity, double maxVelocity, double maxForce) {
+        double forceFraction = HillEquation.getF(velocity/maxVelocity);
+        return forceFraction * maxForce;
     }
 
     /**
@@ -72,45 +145,161 @@ public class LinearVelocityModel {
      * present.
      */
     public double getTotalWork() {
-        //I could do this analytically, but I'll just do a numerical approximation for now:
-        int bins = 20;
-        double length = len0();
-        double step = (muscle.getLength() - length)/bins; //step from len0 to current length
-        double work = 0;
-        for (int bin = 0; bin < bins; bin++) {
-            length += step;
-            double velocity = v0() + dvdl() * (length - len0());
-            double force = HillEquation.getF(velocity/muscle.getMaxVelocity()) * muscle.getMaxForce();
-            work += Math.abs(force * step); //note: in the same units as (muscle velocity * muscle force) (not necessarily joules)
+        updateCache();
+        return getWork(len0, muscle.getLength());
+    }
+
+    /**
+     * Gets the work performed by the muscle between two lengths, worked out
+     * from the closed form of the Hill equation (the velocity is linear in
+     * the length), with the same limits on the force as the muscle.
+     * @param fromLength the muscle length at the start
+     * @param toLength the muscle length at the end
+     * @return the work, in the same units as (muscle length * muscle force)
+     * (not necessarily joules)
+     */
+    public double getWork(double fromLength, double toLength) {
+        updateCache();
+        double meanForce = getMeanForceFraction(getVelocityFraction(fromLength), getVelocityFraction(toLength)) * maxForce;
+        return Math.abs(meanForce * (toLength - fromLength));
+    }
+
+    /**
+     * Gets the time taken to contract between two lengths, worked out in
+     * closed form.  It is the same as the difference in getT() unless the
+     * velocity goes over the max velocity.
+     * @param fromLength the muscle length at the start
+     * @param toLength the muscle length at the end
+     * @return the time, in s (infinite if the velocity falls to 0 on the way)
+     */
+    public double getTime(double fromLength, double toLength) {
+        updateCache();
+        double meanInverse = getMeanInverseVelocityFraction(getVelocityFraction(fromLength), getVelocityFraction(toLength));
+        return Math.abs(meanInverse / maxVelocity * (toLength - fromLength));
+    }
+
+    /**
+     * Gets the mean power of the muscle between two lengths, i.e.
+     * getWork() / getTime().
+     * @param fromLength the muscle length at the start
+     * @param toLength the muscle length at the end
+     * @return the mean power, in the units of getWork() per s
+     */
+    public double getPower(double fromLength, double toLength) {
+        return getWork(fromLength, toLength) / getTime(fromLength, toLength);
+    }
+
+    /**
+     * @return the velocity at a length as a fraction of the max velocity,
+     * without any limits
+     */
+    private double getVelocityFraction(double length) {
+        return getVelocity(v0, dvdl, len0, length) / maxVelocity;
+    }
+
+    /**
+     * Gets the mean force fraction over a range of velocity fractions, with
+     * the limits of Muscle.setForce() (so the force fraction is 1 below 0
+     * velocity and 0 above the max velocity).  The velocity changes linearly
+     * with the length, so this is also the mean over a range of lengths.
+     * @param x0 the velocity fraction at the start of the range
+     * @param x1 the velocity fraction at the end of the range
+     * @return the mean force fraction
+     */
+    public static double getMeanForceFraction(double x0, double x1) {
+        if (x0 == x1) {
+            return x0 < 0 ? 1.0 : x0 > 1 ? 0.0 : HillEquation.getF(x0);
+        }
+        double lo = Math.min(x0, x1);
+        double hi = Math.max(x0, x1);
+        double integral = 0;
+        if (lo < 0) {
+            integral += Math.min(hi, 0) - lo; //force fraction 1
         }
+        if (hi > 0 && lo < 1) {
+            integral += HillEquation.getIntegral(Math.max(lo, 0), Math.min(hi, 1));
+        }
+        //nothing above the max velocity
+        return integral / (hi - lo);
+    }
 
-        return work;
+    /**
+     * Gets the mean of 1/(velocity fraction) over a range of velocity
+     * fractions, with the limits of Muscle.setVelocity() (so the velocity
+     * fraction is never more than 1).  The time a muscle takes to contract a
+     * length at a linearly changing velocity is this times the length over
+     * the max velocity.
+     * @param x0 the velocity fraction at the start of the range
+     * @param x1 the velocity fraction at the end of the range
+     * @return the mean, infinite if the range reaches 0 velocity
+     */
+    public static double getMeanInverseVelocityFraction(double x0, double x1) {
+        double lo = Math.min(x0, x1);
+        double hi = Math.max(x0, x1);
+        if (lo <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (x0 == x1) {
+            return x0 > 1 ? 1.0 : 1 / x0;
+        }
+        double integral = 0;
+        if (lo < 1) {
+            double top = Math.min(hi, 1);
+            integral += Math.log1p((top - lo) / lo);
+        }
+        if (hi > 1) {
+            integral += hi - Math.max(lo, 1); //velocity fraction 1
+        }
+        return integral / (hi - lo);
+    }
+
+    /**
+     * Works out the cached values again if they're missing or out of date.
+     * The specimen's simulation parameters are immutable, so they only need
+     * to be compared by identity; the shared parameters are only used (and
+     * so only checked) when the specimen has none of its own.
+     */
+    private void updateCache() {
+        SimulationParameters parameters = specimen.getSimulationParameters();
+        int version = sharedParametersVersion.get();
+        int muscleVersion = Muscle.getSharedParametersVersion();
+        if (cacheValid && parameters == cachedParameters
+                && (parameters != null || (version == cachedSharedParametersVersion
+                        && muscleVersion == cachedMuscleParametersVersion))) {
+            return;
+        }
+
+        maxVelocity = muscle.getMaxVelocity();
+        maxForce = muscle.getMaxForce();
+        v0 = v0(parameters);
+        len0 = specimen.getMaxMuscleLength(muscle);
+        dvdl = dvdl(parameters);
+
+        cachedParameters = parameters;
+        cachedSharedParametersVersion = version;
+        cachedMuscleParametersVersion = muscleVersion;
+        cacheValid = true;
     }
-    
+
     /**
      * Gets the slope of the length-velocity curve.
      * The jaw starts at max-open rotation with maximum velocity, ends jaw
      * closed with minimum velocity.
      * @return dv/dl
      */
-    private double dvdl() {
+    private double dvdl(SimulationParameters parameters) {
         double len1 = specimen.getMinMuscleLength(muscle);
-        double v1 = MandibLeverMuscle.getMinVMaxFraction() * muscle.getMaxVelocity();
+        double minVMaxFraction = parameters == null ? MandibLeverMuscle.getMinVMaxFraction() : parameters.getMinVMaxFraction();
+        double v1 = minVMaxFraction * maxVelocity;
 
-        return (v1 - v0()) / (len1 - len0());
+        return getSlope(v0, v1, len0, len1);
     }
 
     /**
      * @return the starting velocity of the muscle
      */
-    private double v0() {
-        return MandibLeverMuscle.getPeakVMaxFraction() * muscle.getMaxVelocity();
-    }
-
-    /**
-     * @return the starting length of the muscle
-     */
-    private double len0() {
-        return specimen.getMaxMuscleLength(muscle);
+    private double v0(SimulationParameters parameters) {
+        double peakVMaxFraction = parameters == null ? MandibLeverMuscle.getPeakVMaxFraction() : parameters.getPeakVMaxFraction();
+        return peakVMaxFraction * maxVelocity;
     }
 }
@@ -36,10 +36,24 @@ public class MandibLeverMuscle extends Muscle {
     protected PropertyChangeSupport changeSupport;
     protected static PropertyChangeSupport staticChangeSupport = new PropertyChangeSupport(MandibLeverMuscle.class);
 
+    /*
+     * The shared velocity fractions, used by specimens without simulation
+     * parameters of their own.
+     */
     private static double peakVMaxFraction = 0.8;
     private static double minVMaxFraction = 0.05;
     public final LinearVelocityModel velocityModel; //since it's final and immutable, it should be safe to make this public
 
+    /** The specimen this muscle belongs to (null for a default muscle) */
+    private final Specimen specimen;
+
+    /**
+     * If true, the velocity and force are worked out from the velocity model
+     * when asked for, instead of being updated (with events) on every joint
+     * move.
+     */
+    private boolean simulationMode;
+
 	/**
 	 * Create a new muscle
 	 * @param tendonLength the tendon length, in cm
@@ -47,6 +61,7 @@ public class MandibLeverMuscle extends Muscle {
 	 */
 	public MandibLeverMuscle(Specimen specimen, Joint j1, Joint j2, double tendonLength, double mass, double pennationAngle) {
 		super(j1, j2, tendonLength, mass, pennationAngle);
+        this.specimen = specimen;
         changeSupport = new PropertyChangeSupport(this);
 
         velocityModel = new LinearVelocityModel(this, specimen);
@@ -67,6 +82,7 @@ public class MandibLeverMuscle extends Muscle {
     public MandibLeverMuscle() {
         super();
         velocityModel = null;
+        specimen = null;
         changeSupport = new PropertyChangeSupport(this);
     }
 
@@ -114,6 +130,82 @@ public class MandibLeverMuscle extends Muscle {
         return new ImmobileJoint(locateOrigin(jointDist, length, qaJoint, insertion));
     }
 
+    /**
+     * @return the simulation parameters of this muscle's specimen, or null if
+     * it uses the shared parameters
+     */
+    protected SimulationParameters getSimulationParameters() {
+        return specimen == null ? null : specimen.getSimulationParameters();
+    }
+
+    /**
+     * @return the specimen's max force per unit area if it has simulation
+     * parameters, otherwise the shared value
+     */
+    @Override
+    public double getMaxForcePerArea() {
+        SimulationParameters parameters = getSimulationParameters();
+        return parameters == null ? super.getMaxForcePerArea() : parameters.getForcePerAreaMax();
+    }
+
+    /**
+     * @return the specimen's max velocity per muscle length if it has
+     * simulation parameters, otherwise the shared value
+     */
+    @Override
+    public double getMaxVelocityPerLength() {
+        SimulationParameters parameters = getSimulationParameters();
+        return parameters == null ? super.getMaxVelocityPerLength() : parameters.getVelocityPerLengthMax();
+    }
+
+    /**
+     * @return whether the muscle is in simulation mode
+     */
+    public boolean isSimulationMode() {
+        return simulationMode;
+    }
+
+    /**
+     * Turns simulation mode on or off.  In simulation mode the velocity and
+     * force aren't updated when the joints move; they're calculated from the
+     * velocity model for the current length when they're asked for.  (The
+     * joints should have events turned off too, see
+     * {@link Mandible#setSimulationMode(boolean)}.)  Turning simulation mode
+     * off brings the stored velocity and force up to date.
+     * @param simulationMode whether to turn simulation mode on
+     */
+    public void setSimulationMode(boolean simulationMode) {
+        this.simulationMode = simulationMode;
+        if (!simulationMode && velocityModel != null) {
+            setVelocity(velocityModel.getV());
+            setForce(velocityModel.getF());
+        }
+    }
+
+    /**
+     * @return the velocity fraction, from the velocity model if in simulation mode
+     */
+    @Override
+    public double getVelocityFraction() {
+        if (!simulationMode) {
+            return super.getVelocityFraction();
+        }
+
+        return getVelocityFraction(velocityModel.getV(), getMaxVelocity());
+    }
+
+    /**
+     * @return the force fraction, from the velocity model if in simulation mode
+     */
+    @Override
+    public double getForceFraction() {
+        if (!simulationMode) {
+            return super.getForceFraction();
+        }
+
+        return getForceFraction(velocityModel.getF(), getMaxForce());
+    }
+
     public void addPropertyChangeListener(PropertyChangeListener listener) {
         //attempt to remove first, in case the listener was already added.  (Don't want to receive multiple events)
         removePropertyChangeListener(listener);
@@ -150,6 +242,7 @@ public class MandibLeverMuscle extends Muscle {
     public void setMass(double mass) {
         double oldValue = getMass();
         super.setMass(mass);
+        invalidateVelocityModel();
         changeSupport.firePropertyChange("mass", oldValue, mass);
     }
 
@@ -157,6 +250,7 @@ public class MandibLeverMuscle extends Muscle {
     public void setPennationAngle(double pennationAngle) {
         double oldValue = getPennationAngle();
         super.setPennationAngle(pennationAngle);
+        invalidateVelocityModel();
         changeSupport.firePropertyChange("pennationAngle", oldValue, pennationAngle);
     }
 
@@ -164,6 +258,7 @@ public class MandibLeverMuscle extends Muscle {
     public void setTendonLength(double tendonLength) {
         double oldValue = getTendonLength();
         super.setTendonLength(tendonLength);
+        invalidateVelocityModel();
         changeSupport.firePropertyChange("tendonLength", oldValue, tendonLength);
     }
 
@@ -192,6 +287,7 @@ public class MandibLeverMuscle extends Muscle {
      */
     public static void setPeakVMaxFraction(double peakVMaxFraction) {
         MandibLeverMuscle.peakVMaxFraction = peakVMaxFraction;
+        LinearVelocityModel.sharedParametersChanged();
     }
 
     /**
@@ -206,6 +302,17 @@ public class MandibLeverMuscle extends Muscle {
      */
     public static void setMinVMaxFraction(double minVMaxFraction) {
         MandibLeverMuscle.minVMaxFraction = minVMaxFraction;
+        LinearVelocityModel.sharedParametersChanged();
+    }
+
+    /**
+     * Makes the velocity model work out its cached values again.  (The
+     * velocity model isn't there yet while the superclass constructor runs.)
+     */
+    private void invalidateVelocityModel() {
+        if (velocityModel != null) {
+            velocityModel.invalidate();
+        }
     }
 
     private void handleJointEvent(PropertyChangeEvent evt) {
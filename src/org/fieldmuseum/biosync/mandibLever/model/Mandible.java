@@ -17,7 +17,6 @@
 package org.fieldmuseum.biosync.mandibLever.model;
 
 import java.awt.Shape;
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
@@ -44,31 +43,38 @@ public class Mandible implements Member, Cloneable {
     private static PropertyChangeSupport staticChangeSupport = new PropertyChangeSupport(Mandible.class);
 
     /***************************************************************************
-     * The mandible joints.  Each joint has a corresponding Unrotated copy, so
-     * that the current transform can be applied to the original locations.
+     * The mandible joints.  Their locations are kept up to date with the
+     * rotation of the kinematics.
      **************************************************************************/
     /** The quadrate-articular joint */
-    private Joint qaJoint, qaJointUnrotated;
+    private Joint qaJoint;
 
     /** The insertion of the A2 muscle on ascending process of the articular. */
-    private Joint a2Insertion, a2InsertionUnrotated;
+    private Joint a2Insertion;
 
     /** The insertion of the A3 muscle on medial face of the mandible.*/
-    private Joint a3Insertion, a3InsertionUnrotated;
+    private Joint a3Insertion;
 
     /** The insertion of the interoperculomandibular ligament on the posteroventral margin of the articular */
-    private Joint iomLigamentInsertion, iomLigamentInsertionUnrotated;
+    private Joint iomLigamentInsertion;
 
     /** The anterior-most tip of the dentary or tip of the anteriormost canine tooth. */
-    private Joint anteriorJawTip, anteriorJawTipUnrotated;
+    private Joint anteriorJawTip;
 
     /**
-     * The current rotation of the mandible
+     * The original (closed) joint locations and the current rotation of the
+     * mandible around the QA joint
      */
-    private AffineTransform rotation;
+    private MandibleKinematics kinematics;
 
     private PropertyChangeSupport changeSupport;
 
+    /** The parameters of the current simulation run, or null to use the shared max rotation */
+    private SimulationParameters simulationParameters;
+
+    /** If true, rotating the mandible doesn't fire any events */
+    private boolean simulationMode;
+
     /**
      * Creates a new Mandible with the following measurements (all in centimeters):
      * @param a2InLever
@@ -149,13 +155,12 @@ public class Mandible implements Member, Cloneable {
      * @param anteriorJawTip The anterior-most tip of the dentary or tip of the anteriormost canine tooth.
      */
     public Mandible(Point2D qaJoint, Point2D a2Insertion, Point2D a3Insertion, Point2D iomLigamentInsertion, Point2D anteriorJawTip) {
-        this.qaJoint = new ImmobileJoint(qaJoint); //FIXME: all rotations should be around the QA joint, which may not be at (0,0)
+        this.qaJoint = new ImmobileJoint(qaJoint);
         this.a2Insertion = new MobileJoint(a2Insertion);
         this.a3Insertion = new MobileJoint(a3Insertion);
         this.iomLigamentInsertion = new MobileJoint(iomLigamentInsertion);
         this.anteriorJawTip = new MobileJoint(anteriorJawTip);
-        rotation = new AffineTransform(); //this constructor leaves the initial positions where they are (unlike the length-based one)
-        setUnrotatedLocations();
+        setUnrotatedLocations(); //this constructor leaves the initial positions where they are (unlike the length-based one)
         this.changeSupport = new PropertyChangeSupport(this);
     }
 
@@ -197,9 +202,55 @@ public class Mandible implements Member, Cloneable {
          */
         double oldValue = maxRotation;
         maxRotation = radians;
+        LinearVelocityModel.sharedParametersChanged();
         staticChangeSupport.firePropertyChange("maxRotation", oldValue, radians);
     }
 
+    /**
+     * @return the max jaw-open rotation for this mandible, in radians.  This
+     * is the max rotation of its simulation parameters, if it has any,
+     * otherwise the shared {@link #getMaxRotation()}.
+     */
+    public double getOpenRotation() {
+        return simulationParameters == null ? maxRotation : simulationParameters.getMaxRotation();
+    }
+
+    /**
+     * @return the simulation parameters, or null if this mandible uses the
+     * shared max rotation
+     */
+    public SimulationParameters getSimulationParameters() {
+        return simulationParameters;
+    }
+
+    /**
+     * @param simulationParameters the parameters of the current simulation
+     * run, or null to use the shared max rotation
+     */
+    public void setSimulationParameters(SimulationParameters simulationParameters) {
+        this.simulationParameters = simulationParameters;
+    }
+
+    /**
+     * @return whether the mandible is in simulation mode
+     */
+    public boolean isSimulationMode() {
+        return simulationMode;
+    }
+
+    /**
+     * Turns simulation mode on or off.  In simulation mode, rotating the
+     * mandible still moves the joints, but neither the mandible nor its joints
+     * fire any change events.
+     * @param simulationMode whether to turn simulation mode on
+     */
+    public void setSimulationMode(boolean simulationMode) {
+        this.simulationMode = simulationMode;
+        for (Joint joint : getJoints()) {
+            joint.setEventsEnabled(!simulationMode);
+        }
+    }
+
     /**
      * Rotates the mandible.  Note that the jaw extends to the right , so a
      * positive rotation closes the jaw, and that the angle is in radians,
@@ -208,9 +259,9 @@ public class Mandible implements Member, Cloneable {
      */
     public void rotate(double radians) {
         double oldValue = getRotation();
-        rotation.rotate(radians);
+        kinematics.setRotation(kinematics.getRotation() + radians);
         updateJointLocations();
-        changeSupport.firePropertyChange("rotation", oldValue, getRotation());
+        fireRotationChange(oldValue);
     }
 
     /**
@@ -229,16 +280,16 @@ public class Mandible implements Member, Cloneable {
      */
     public void setRotation(double radians) {
         double oldValue = getRotation();
-        rotation = AffineTransform.getRotateInstance(radians);
+        kinematics.setRotation(radians);
         updateJointLocations();
-        changeSupport.firePropertyChange("rotation", oldValue, getRotation());
+        fireRotationChange(oldValue);
     }
 
     /**
      * @return the current rotation, in radians
      */
     public double getRotation() {
-        return Math.asin(rotation.getShearY());
+        return kinematics.getRotation();
     }
 
     /**
@@ -246,19 +297,19 @@ public class Mandible implements Member, Cloneable {
      * centimeters
      */
     public double getGape() {
-        return anteriorJawTip.distance(anteriorJawTipUnrotated);
+        return kinematics.getGape();
     }
     
     public void resetRotation() {
         double oldValue = getRotation();
         
-        //reset rotation to identity transform
-        rotation = new AffineTransform();
+        //reset rotation to closed
+        kinematics.setRotation(0);
 
         //reset the joints
         updateJointLocations();
 
-        changeSupport.firePropertyChange("rotation", oldValue, getRotation());
+        fireRotationChange(oldValue);
     }
 
     /**
@@ -314,7 +365,9 @@ public class Mandible implements Member, Cloneable {
      * @return a shape to indicate the closed jaw position, for reference.
      */
     public Shape getUpperJawShape() {
-        return new Line2D.Double(a2InsertionUnrotated, anteriorJawTipUnrotated);
+        return new Line2D.Double(
+                kinematics.getX(MandibleKinematics.A2_INSERTION, 0), kinematics.getY(MandibleKinematics.A2_INSERTION, 0),
+                kinematics.getX(MandibleKinematics.ANTERIOR_JAW_TIP, 0), kinematics.getY(MandibleKinematics.ANTERIOR_JAW_TIP, 0));
     }
 
     /**
@@ -349,8 +402,17 @@ public class Mandible implements Member, Cloneable {
         Joint insertion = getInsertion(muscle);
         Joint origin = muscle.getOtherJoint(insertion);
 
-        double inputLeverAngle = TriangleCalc.getAngle(qaJoint, insertion);
-        double muscleAngle = TriangleCalc.getAngle(insertion, origin);
+        return getMuscleAngle(qaJoint.getX(), qaJoint.getY(), insertion.getX(), insertion.getY(), origin.getX(), origin.getY());
+    }
+
+    /**
+     * Gets a muscle's angle relative to its lever arm, from where its ends
+     * and the QA joint are.
+     * @return the angle, in radians
+     */
+    public static double getMuscleAngle(double qaX, double qaY, double insertionX, double insertionY, double originX, double originY) {
+        double inputLeverAngle = Math.atan2(insertionY - qaY, insertionX - qaX);
+        double muscleAngle = Math.atan2(originY - insertionY, originX - insertionX);
 
         return (Math.PI - (muscleAngle - inputLeverAngle)) % (2 * Math.PI);
     }
@@ -395,10 +457,7 @@ public class Mandible implements Member, Cloneable {
      * @return the distance, in cm
      */
     public double getDistanceMoved(Muscle m) {
-        Joint insertion = getInsertion(m);
-        AffineTransform transform = AffineTransform.getRotateInstance(-getRotation());
-        Point2D originalLocation = transform.transform(insertion, null);
-        return insertion.distance(originalLocation);
+        return kinematics.getDistanceMoved(getIndex(getInsertion(m)), 0, getRotation());
     }
 
     /**
@@ -408,12 +467,37 @@ public class Mandible implements Member, Cloneable {
      * @return
      */
     public double getMaxDistanceMoved(Muscle m) {
-        Joint insertion = getInsertion(m);
-        AffineTransform transform = AffineTransform.getRotateInstance(-getRotation()); //to closed position
-        Point2D endLocation = transform.transform(insertion, null);
-        transform = AffineTransform.getRotateInstance(getMaxRotation()); //to open position
-        Point2D startLocation = transform.transform(endLocation, null);
-        return startLocation.distance(endLocation);
+        return kinematics.getDistanceMoved(getIndex(getInsertion(m)), getOpenRotation(), 0);
+    }
+
+    /**
+     * Gets the distance from a location to one of the mandible joints, when
+     * the mandible is at a given rotation.  (The mandible is not moved.)
+     * @param joint a mandible joint
+     * @param location the location, e.g. a muscle origin
+     * @param rotation the rotation, in radians from closed
+     * @return the distance
+     */
+    public double getDistance(Joint joint, Point2D location, double rotation) {
+        return kinematics.getDistance(getIndex(joint), location.getX(), location.getY(), rotation);
+    }
+
+    /**
+     * Creates a solver for the rotation that puts one of the mandible joints
+     * at a given distance from a location.
+     * @param joint a mandible joint, e.g. a muscle insertion
+     * @param location the location, e.g. the muscle origin
+     * @return the solver
+     */
+    public MuscleLengthSolver createLengthSolver(Joint joint, Point2D location) {
+        return new MuscleLengthSolver(kinematics, getIndex(joint), location.getX(), location.getY());
+    }
+
+    /**
+     * @return the kinematics, for calculations that shouldn't move the Joints
+     */
+    public MandibleKinematics getKinematics() {
+        return kinematics;
     }
 
     /**
@@ -541,17 +625,12 @@ public class Mandible implements Member, Cloneable {
         Mandible clone = (Mandible) super.clone();
 
         clone.a2Insertion = (Joint) a2Insertion.clone();
-        clone.a2InsertionUnrotated = (Joint) a2InsertionUnrotated.clone();
         clone.a3Insertion = (Joint) a3Insertion.clone();
-        clone.a3InsertionUnrotated = (Joint) a3InsertionUnrotated.clone();
         clone.anteriorJawTip = (Joint) anteriorJawTip.clone();
-        clone.anteriorJawTipUnrotated = (Joint) anteriorJawTipUnrotated.clone();
         clone.changeSupport = new PropertyChangeSupport(clone);
         clone.iomLigamentInsertion = (Joint) iomLigamentInsertion.clone();
-        clone.iomLigamentInsertionUnrotated = (Joint) iomLigamentInsertionUnrotated.clone();
         clone.qaJoint = (Joint) qaJoint.clone();
-        clone.qaJointUnrotated = (Joint) qaJointUnrotated.clone();
-        clone.rotation = (AffineTransform) rotation.clone();
+        clone.kinematics = kinematics.clone();
 
         return clone;
     }
@@ -589,29 +668,54 @@ public class Mandible implements Member, Cloneable {
         return members;
     }
     
+    private void fireRotationChange(double oldValue) {
+        if (!simulationMode) {
+            changeSupport.firePropertyChange("rotation", oldValue, getRotation());
+        }
+    }
+
     /**
-     * Rotates the joints with the current transform.
+     * Moves the joints to their locations at the current rotation.  (The QA
+     * joint is the center of rotation, so it never moves.)
      */
     private void updateJointLocations() {
-        rotation.transform(qaJointUnrotated, qaJoint);
-        rotation.transform(a2InsertionUnrotated, a2Insertion);
-        rotation.transform(a3InsertionUnrotated, a3Insertion);
-        rotation.transform(iomLigamentInsertionUnrotated, iomLigamentInsertion);
-        rotation.transform(anteriorJawTipUnrotated, anteriorJawTip);
+        a2Insertion.setLocation(kinematics.getX(MandibleKinematics.A2_INSERTION), kinematics.getY(MandibleKinematics.A2_INSERTION));
+        a3Insertion.setLocation(kinematics.getX(MandibleKinematics.A3_INSERTION), kinematics.getY(MandibleKinematics.A3_INSERTION));
+        iomLigamentInsertion.setLocation(kinematics.getX(MandibleKinematics.IOM_LIGAMENT_INSERTION), kinematics.getY(MandibleKinematics.IOM_LIGAMENT_INSERTION));
+        anteriorJawTip.setLocation(kinematics.getX(MandibleKinematics.ANTERIOR_JAW_TIP), kinematics.getY(MandibleKinematics.ANTERIOR_JAW_TIP));
     }
 
     /**
-     * Sets the unrotated joint locations to the current locations and the 
-     * rotation transform to identity.  (So the current orientation is set as
-     * the starting orientation.)
+     * @return the index of a mandible joint in the kinematics
+     * @throws IllegalArgumentException if the joint isn't part of this mandible
      */
-    private void setUnrotatedLocations() {
-        rotation = new AffineTransform();
+    private int getIndex(Joint joint) {
+        if (joint == a2Insertion) return MandibleKinematics.A2_INSERTION;
+        if (joint == a3Insertion) return MandibleKinematics.A3_INSERTION;
+        if (joint == iomLigamentInsertion) return MandibleKinematics.IOM_LIGAMENT_INSERTION;
+        if (joint == anteriorJawTip) return MandibleKinematics.ANTERIOR_JAW_TIP;
+        if (joint == qaJoint) return MandibleKinematics.QA_JOINT;
+        throw new IllegalArgumentException("The joint " + joint + " isn't part of this mandible.");
+    }
 
-        qaJointUnrotated = new ImmobileJoint(qaJoint);
-        a2InsertionUnrotated = new ImmobileJoint(a2Insertion);
-        a3InsertionUnrotated = new ImmobileJoint(a3Insertion);
-        iomLigamentInsertionUnrotated = new ImmobileJoint(iomLigamentInsertion);
-        anteriorJawTipUnrotated = new ImmobileJoint(anteriorJawTip);
+    /**
+     * Sets the kinematics to the current joint locations, with zero rotation.
+     * (So the current orientation is set as the starting orientation.)
+     */
+    private void setUnrotatedLocations() {
+        Joint[] joints = new Joint[MandibleKinematics.JOINT_COUNT];
+        joints[MandibleKinematics.QA_JOINT] = qaJoint;
+        joints[MandibleKinematics.A2_INSERTION] = a2Insertion;
+        joints[MandibleKinematics.A3_INSERTION] = a3Insertion;
+        joints[MandibleKinematics.IOM_LIGAMENT_INSERTION] = iomLigamentInsertion;
+        joints[MandibleKinematics.ANTERIOR_JAW_TIP] = anteriorJawTip;
+
+        double[] xs = new double[joints.length];
+        double[] ys = new double[joints.length];
+        for (int i = 0; i < joints.length; i++) {
+            xs[i] = joints[i].getX();
+            ys[i] = joints[i].getY();
+        }
+        kinematics = new MandibleKinematics(xs, ys);
     }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+/**
+ * The rotation of the five mandible joints around the quadrate-articular
+ * joint, in plain doubles.  Each joint is stored as a distance and angle from
+ * the QA joint, so rotating the mandible is just an angle change, and joint
+ * locations and distances can be worked out at any rotation without creating
+ * any objects.  {@link Mandible} uses this to move its Joints; the simulation
+ * can use it directly.
+ * @author kurie
+ */
+public class MandibleKinematics implements Cloneable {
+    /* The joint indices */
+    public static final int QA_JOINT = 0;
+    public static final int A2_INSERTION = 1;
+    public static final int A3_INSERTION = 2;
+    public static final int IOM_LIGAMENT_INSERTION = 3;
+    public static final int ANTERIOR_JAW_TIP = 4;
+    public static final int JOINT_COUNT = 5;
+
+    /** The location of the QA joint, which the mandible rotates around */
+    private final double pivotX, pivotY;
+
+    /*
+     * The distance of each joint from the QA joint (i.e. the lever length)
+     * and its angle around the QA joint at zero rotation.  These never change,
+     * so clones share them.
+     */
+    private final double[] radius = new double[JOINT_COUNT];
+    private final double[] angle = new double[JOINT_COUNT];
+
+    /** The current rotation, in radians */
+    private double rotation;
+
+    /** The current joint locations */
+    private double[] x = new double[JOINT_COUNT];
+    private double[] y = new double[JOINT_COUNT];
+
+    /**
+     * Creates the kinematics of a mandible at zero rotation.
+     * @param xs the x coordinates of the joints, in index order
+     * @param ys the y coordinates of the joints, in index order
+     */
+    public MandibleKinematics(double[] xs, double[] ys) {
+        pivotX = xs[QA_JOINT];
+        pivotY = ys[QA_JOINT];
+        for (int joint = 0; joint < JOINT_COUNT; joint++) {
+            double dx = xs[joint] - pivotX;
+            double dy = ys[joint] - pivotY;
+            radius[joint] = Math.sqrt(dx * dx + dy * dy);
+            angle[joint] = Math.atan2(dy, dx);
+            x[joint] = xs[joint];
+            y[joint] = ys[joint];
+        }
+    }
+
+    /**
+     * @return the current rotation, in radians from closed
+     */
+    public double getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Sets the rotation relative to the original orientation (closed).
+     * @param radians the angle of rotation.  Note that negative rotations open
+     * the jaw.
+     */
+    public void setRotation(double radians) {
+        rotation = radians;
+        for (int joint = 0; joint < JOINT_COUNT; joint++) {
+            x[joint] = getX(joint, radians);
+            y[joint] = getY(joint, radians);
+        }
+    }
+
+    /**
+     * @return the current x coordinate of a joint
+     */
+    public double getX(int joint) {
+        return x[joint];
+    }
+
+    /**
+     * @return the current y coordinate of a joint
+     */
+    public double getY(int joint) {
+        return y[joint];
+    }
+
+    /**
+     * @return the x coordinate of a joint at a given rotation
+     */
+    public double getX(int joint, double rotation) {
+        return getX(pivotX, radius[joint], angle[joint], rotation);
+    }
+
+    /**
+     * @return the y coordinate of a joint at a given rotation
+     */
+    public double getY(int joint, double rotation) {
+        return getY(pivotY, radius[joint], angle[joint], rotation);
+    }
+
+    /**
+     * Gets the x coordinate of a joint from its lever.  (Shared with the
+     * batch simulation, so both move the joints the same way.)
+     * @param pivotX the x coordinate of the QA joint
+     * @param radius the joint's distance from the QA joint
+     * @param angle the joint's angle around the QA joint at zero rotation
+     * @param rotation the rotation, in radians from closed
+     * @return the x coordinate
+     */
+    public static double getX(double pivotX, double radius, double angle, double rotation) {
+        return pivotX + radius * Math.cos(angle + rotation);
+    }
+
+    /**
+     * Gets the y coordinate of a joint from its lever.
+     * @see #getX(double, double, double, double)
+     */
+    public static double getY(double pivotY, double radius, double angle, double rotation) {
+        return pivotY + radius * Math.sin(angle + rotation);
+    }
+
+    /**
+     * @return the angle of the line from the QA joint to a joint, from
+     * horizontal, at zero rotation
+     */
+    public double getClosedAngle(int joint) {
+        return angle[joint];
+    }
+
+    /**
+     * @return the distance from the QA joint to a joint, i.e. its lever length
+     */
+    public double getRadius(int joint) {
+        return radius[joint];
+    }
+
+    /**
+     * @return the current angle of the line from the QA joint to a joint,
+     * from horizontal
+     */
+    public double getAngle(int joint) {
+        return angle[joint] + rotation;
+    }
+
+    /**
+     * Gets the distance from a point to a joint, when the mandible is at a
+     * given rotation.
+     * @param joint the joint index
+     * @param px the x coordinate of the point
+     * @param py the y coordinate of the point
+     * @param rotation the rotation of the mandible, in radians from closed
+     * @return the distance
+     */
+    public double getDistance(int joint, double px, double py, double rotation) {
+        return getDistance(pivotX, pivotY, radius[joint], angle[joint], px, py, rotation);
+    }
+
+    /**
+     * Gets the distance from a point to a joint, from the joint's lever.
+     * @param pivotX the x coordinate of the QA joint
+     * @param pivotY the y coordinate of the QA joint
+     * @param radius the joint's distance from the QA joint
+     * @param angle the joint's angle around the QA joint at zero rotation
+     * @param px the x coordinate of the point
+     * @param py the y coordinate of the point
+     * @param rotation the rotation, in radians from closed
+     * @return the distance
+     */
+    public static double getDistance(double pivotX, double pivotY, double radius, double angle, double px, double py, double rotation) {
+        double dx = getX(pivotX, radius, angle, rotation) - px;
+        double dy = getY(pivotY, radius, angle, rotation) - py;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Gets the straight-line distance a joint moves between two rotations.
+     * @return the distance
+     */
+    public double getDistanceMoved(int joint, double fromRotation, double toRotation) {
+        return getDistanceMoved(radius[joint], fromRotation, toRotation);
+    }
+
+    /**
+     * Gets the straight-line distance a joint moves between two rotations,
+     * from its distance from the QA joint.
+     * @return the distance
+     */
+    public static double getDistanceMoved(double radius, double fromRotation, double toRotation) {
+        return Math.abs(2 * radius * Math.sin((toRotation - fromRotation) / 2));
+    }
+
+    /**
+     * @return the distance the jaw tip has moved from its closed position
+     */
+    public double getGape() {
+        return getDistanceMoved(ANTERIOR_JAW_TIP, 0, rotation);
+    }
+
+    @Override
+    public MandibleKinematics clone() {
+        try {
+            MandibleKinematics clone = (MandibleKinematics) super.clone();
+            clone.x = x.clone();
+            clone.y = y.clone();
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e); //it's Cloneable
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+/**
+ * Finds the mandible rotation that gives a muscle a desired length, in closed
+ * form.  A muscle runs from a fixed origin to an insertion on the mandible, so
+ * by the law of cosines
+ * <pre> length^2 = r^2 + d^2 - 2 r d cos(beta)</pre>
+ * where r and d are the distances from the QA joint to the insertion and the
+ * origin, and beta is the angle between them at the QA joint.  Everything but
+ * the rotation is worked out once, when the solver is created, so each
+ * solution is one acos.
+ * <p>
+ * The insertion stays on the same side of the QA-to-origin line as it is with
+ * the jaw closed, so each length has one rotation.
+ * @author kurie
+ */
+public class MuscleLengthSolver {
+    /** r^2 + d^2 */
+    private final double sumOfSquares;
+
+    /** 2 r d */
+    private final double twoRD;
+
+    /** The (signed) angle from the QA-to-origin line to the QA-to-insertion line, with the jaw closed */
+    private final double closedAngle;
+
+    /**
+     * Creates a solver for a muscle inserting on one of the mandible joints.
+     * @param kinematics the mandible kinematics
+     * @param insertion the index of the muscle's insertion joint, e.g.
+     * {@link MandibleKinematics#A2_INSERTION}
+     * @param originX the x coordinate of the muscle origin
+     * @param originY the y coordinate of the muscle origin
+     */
+    public MuscleLengthSolver(MandibleKinematics kinematics, int insertion, double originX, double originY) {
+        this(kinematics.getX(MandibleKinematics.QA_JOINT), kinematics.getY(MandibleKinematics.QA_JOINT),
+                kinematics.getRadius(insertion), kinematics.getClosedAngle(insertion), originX, originY);
+    }
+
+    /**
+     * Creates a solver for a muscle from the lever of its insertion.
+     * @param pivotX the x coordinate of the QA joint
+     * @param pivotY the y coordinate of the QA joint
+     * @param radius the insertion's distance from the QA joint
+     * @param angle the insertion's angle around the QA joint at zero rotation
+     * @param originX the x coordinate of the muscle origin
+     * @param originY the y coordinate of the muscle origin
+     */
+    public MuscleLengthSolver(double pivotX, double pivotY, double radius, double angle, double originX, double originY) {
+        double d = Math.sqrt((originX - pivotX) * (originX - pivotX) + (originY - pivotY) * (originY - pivotY));
+        sumOfSquares = radius * radius + d * d;
+        twoRD = 2 * radius * d;
+
+        double insertionAngle = Math.atan2(MandibleKinematics.getY(pivotY, radius, angle, 0) - pivotY,
+                MandibleKinematics.getX(pivotX, radius, angle, 0) - pivotX);
+        double originAngle = Math.atan2(originY - pivotY, originX - pivotX);
+        closedAngle = Math.IEEEremainder(insertionAngle - originAngle, 2 * Math.PI);
+    }
+
+    /**
+     * @param length the desired muscle length
+     * @return the rotation of the mandible (in radians from closed) at which
+     * the muscle has this length, or NaN if the muscle can't have this length
+     */
+    public double getRotation(double length) {
+        double cos = (sumOfSquares - length * length) / twoRD;
+        if (!(cos >= -1 && cos <= 1)) {
+            return Double.NaN;
+        }
+        double angle = Math.acos(cos);
+        return (closedAngle < 0 ? -angle : angle) - closedAngle;
+    }
+
+    /**
+     * @param rotation the rotation of the mandible, in radians from closed
+     * @return the muscle length at this rotation
+     */
+    public double getLength(double rotation) {
+        return Math.sqrt(sumOfSquares - twoRD * Math.cos(closedAngle + rotation));
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import java.io.Serializable;
+import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
+
+/**
+ * The parameters of a single simulation run.  Instances are immutable, so a
+ * run (and any thread working on it) sees the same values from start to
+ * finish, no matter what happens to the GUI fields in the meantime.
+ * <p>
+ * Besides the simulation settings, this holds the muscle and jaw parameters
+ * that used to be shared by every specimen (max force and velocity, the
+ * velocity fractions, pennation angles and the max jaw rotation).  A specimen
+ * given these parameters with {@link Specimen#setSimulationParameters}
+ * uses them instead of the shared values, so runs with different parameters
+ * can go on at the same time.
+ * @author kurie
+ */
+public class SimulationParameters implements Serializable {
+    /** The default number of bins, same as the "# bins sim" field in the GUI */
+    public static final int DEFAULT_BINS = 20;
+
+    /** The default jaw opening duration, in ms */
+    public static final double DEFAULT_OPEN_DURATION = 30;
+
+    /** The number of steps the closing simulation takes, for each muscle */
+    private final int bins;
+
+    /** The duration of jaw opening, in ms */
+    private final double openDuration;
+
+    /** The max jaw-open rotation, in radians (negative opens the jaw) */
+    private final double maxRotation;
+
+    /** The maximum isometric force per unit area of a muscle, in kPa */
+    private final double forcePerAreaMax;
+
+    /** The maximum contraction velocity of a muscle, in muscle lengths/s */
+    private final double velocityPerLengthMax;
+
+    /** The velocity at max jaw-open, as a fraction of the max velocity */
+    private final double peakVMaxFraction;
+
+    /** The velocity at jaw closed, as a fraction of the max velocity */
+    private final double minVMaxFraction;
+
+    /** The A2 and A3 pennation angles, in radians */
+    private final double a2PennationAngle, a3PennationAngle;
+
+    /**
+     * The relative error allowed in each bin's time and work, or 0 to work
+     * them out from the end of the bin only
+     */
+    private final double tolerance;
+
+    /**
+     * Whether each bin's time and work are worked out exactly, from the
+     * closed forms of LinearVelocityModel
+     */
+    private final boolean exact;
+
+    /**
+     * Creates parameters with the default number of bins and open duration.
+     * The muscle and jaw parameters are the current shared values.
+     */
+    public SimulationParameters() {
+        this(DEFAULT_BINS, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * Creates parameters with the current shared muscle and jaw parameters
+     * (i.e. the ones set in the GUI).
+     * @param bins the number of steps in the closing simulation of each muscle
+     * @param openDuration the duration of jaw opening, in ms
+     * @throws IllegalArgumentException if bins is not positive
+     */
+    public SimulationParameters(int bins, double openDuration) throws IllegalArgumentException {
+        this(bins, openDuration, Mandible.getMaxRotation(),
+                Muscle.getForcePerAreaMax(), Muscle.getVelocityPerLengthMax(),
+                MandibLeverMuscle.getPeakVMaxFraction(), MandibLeverMuscle.getMinVMaxFraction(),
+                A2Muscle.getDefaultPennationAngle(), A3Muscle.getDefaultPennationAngle());
+    }
+
+    /**
+     * @param bins the number of steps in the closing simulation of each muscle
+     * @param openDuration the duration of jaw opening, in ms
+     * @param maxRotation the max jaw-open rotation, in radians.  Note that
+     * negative rotations open the jaw.
+     * @param forcePerAreaMax the maximum isometric force per unit area of a
+     * muscle, in kPa
+     * @param velocityPerLengthMax the maximum contraction velocity of a
+     * muscle, in muscle lengths/s
+     * @param peakVMaxFraction the muscle velocity at max jaw-open, as a
+     * fraction of the max velocity
+     * @param minVMaxFraction the muscle velocity at jaw closed, as a fraction
+     * of the max velocity
+     * @param a2PennationAngle the A2 pennation angle, in radians
+     * @param a3PennationAngle the A3 pennation angle, in radians
+     * @throws IllegalArgumentException if bins is not positive
+     */
+    public SimulationParameters(int bins, double openDuration, double maxRotation,
+            double forcePerAreaMax, double velocityPerLengthMax,
+            double peakVMaxFraction, double minVMaxFraction,
+            double a2PennationAngle, double a3PennationAngle)
+            throws IllegalArgumentException
+    {
+        this(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, 0, false);
+    }
+
+    private SimulationParameters(int bins, double openDuration, double maxRotation,
+            double forcePerAreaMax, double velocityPerLengthMax,
+            double peakVMaxFraction, double minVMaxFraction,
+            double a2PennationAngle, double a3PennationAngle, double tolerance, boolean exact)
+            throws IllegalArgumentException
+    {
+        if (bins < 1) {
+            throw new IllegalArgumentException("The number of bins must be positive, not " + bins + ".");
+        }
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("The tolerance can't be negative (" + tolerance + ").");
+        }
+        this.bins = bins;
+        this.openDuration = openDuration;
+        this.maxRotation = maxRotation;
+        this.forcePerAreaMax = forcePerAreaMax;
+        this.velocityPerLengthMax = velocityPerLengthMax;
+        this.peakVMaxFraction = peakVMaxFraction;
+        this.minVMaxFraction = minVMaxFraction;
+        this.a2PennationAngle = a2PennationAngle;
+        this.a3PennationAngle = a3PennationAngle;
+        this.tolerance = tolerance;
+        this.exact = exact;
+    }
+
+    /**
+     * @return the number of steps in the closing simulation of each muscle
+     */
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * @return the duration of jaw opening, in ms
+     */
+    public double getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @return the max jaw-open rotation, in radians
+     */
+    public double getMaxRotation() {
+        return maxRotation;
+    }
+
+    /**
+     * @return the maximum isometric force per unit area of a muscle, in kPa
+     */
+    public double getForcePerAreaMax() {
+        return forcePerAreaMax;
+    }
+
+    /**
+     * @return the maximum contraction velocity of a muscle, in muscle lengths/s
+     */
+    public double getVelocityPerLengthMax() {
+        return velocityPerLengthMax;
+    }
+
+    /**
+     * @return the muscle velocity at max jaw-open, as a fraction of the max velocity
+     */
+    public double getPeakVMaxFraction() {
+        return peakVMaxFraction;
+    }
+
+    /**
+     * @return the muscle velocity at jaw closed, as a fraction of the max velocity
+     */
+    public double getMinVMaxFraction() {
+        return minVMaxFraction;
+    }
+
+    /**
+     * @return the A2 pennation angle, in radians
+     */
+    public double getA2PennationAngle() {
+        return a2PennationAngle;
+    }
+
+    /**
+     * @return the A3 pennation angle, in radians
+     */
+    public double getA3PennationAngle() {
+        return a3PennationAngle;
+    }
+
+    /**
+     * @return the relative error allowed in each bin's time and work, or 0 if
+     * they're worked out from the end of the bin only
+     * @see #withTolerance(double)
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @return whether each bin's time and work are worked out exactly
+     * @see #withExact(boolean)
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return a copy of these parameters with a different max jaw-open
+     * rotation, in radians
+     */
+    public SimulationParameters withMaxRotation(double maxRotation) {
+        return new SimulationParameters(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, tolerance, exact);
+    }
+
+    /**
+     * @return a copy of these parameters with a different maximum force per
+     * unit area, in kPa
+     */
+    public SimulationParameters withForcePerAreaMax(double forcePerAreaMax) {
+        return new SimulationParameters(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, tolerance, exact);
+    }
+
+    /**
+     * @return a copy of these parameters with a different maximum velocity
+     * per muscle length, in lengths/s
+     */
+    public SimulationParameters withVelocityPerLengthMax(double velocityPerLengthMax) {
+        return new SimulationParameters(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, tolerance, exact);
+    }
+
+    /**
+     * @return a copy of these parameters with different velocity fractions at
+     * jaw-open and jaw-closed
+     */
+    public SimulationParameters withVMaxFractions(double peakVMaxFraction, double minVMaxFraction) {
+        return new SimulationParameters(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, tolerance, exact);
+    }
+
+    /**
+     * Gets a copy of these parameters with a different tolerance.  With a
+     * tolerance of 0 (the default), the time and work of each bin of the
+     * closing simulation are worked out from the velocity and force at the
+     * end of the bin, so they're only as good as the number of bins.  With a
+     * positive tolerance they're the mean over the whole bin instead, found by
+     * adaptive quadrature, which takes more steps where the velocity and force
+     * change fastest (i.e. near jaw closed).  The per-bin positions, forces
+     * and leverage are still taken at the end of each bin.
+     * @param tolerance the relative error allowed in each bin's time and work
+     * @return the new parameters
+     * @throws IllegalArgumentException if the tolerance is negative
+     */
+    public SimulationParameters withTolerance(double tolerance) throws IllegalArgumentException {
+        return new SimulationParameters(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, tolerance, exact);
+    }
+
+    /**
+     * Gets a copy of these parameters with exact integration turned on or
+     * off.  With exact integration, the time and work of each bin of the
+     * closing simulation are the mean over the whole bin, as with a {@link
+     * #withTolerance(double) tolerance}, but worked out from the closed forms
+     * of LinearVelocityModel (the velocity is linear in the muscle length)
+     * rather than by quadrature.  The tolerance is then ignored.
+     * @param exact whether to integrate exactly
+     * @return the new parameters
+     */
+    public SimulationParameters withExact(boolean exact) {
+        return new SimulationParameters(bins, openDuration, maxRotation, forcePerAreaMax, velocityPerLengthMax,
+                peakVMaxFraction, minVMaxFraction, a2PennationAngle, a3PennationAngle, tolerance, exact);
+    }
+
+    @Override
+    public String toString() {
+        return "bins=" + bins + ", openDur=" + openDuration
+                + ", maxRotation=" + maxRotation
+                + ", fMax=" + forcePerAreaMax + ", vMax=" + velocityPerLengthMax
+                + ", peakVMaxFraction=" + peakVMaxFraction + ", minVMaxFraction=" + minVMaxFraction
+                + ", a2Pennation=" + a2PennationAngle + ", a3Pennation=" + a3PennationAngle
+                + (tolerance > 0 ? ", tolerance=" + tolerance : "")
+                + (exact ? ", exact" : "");
+    }
+}
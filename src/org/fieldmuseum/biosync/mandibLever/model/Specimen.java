@@ -16,13 +16,15 @@
  */
 package org.fieldmuseum.biosync.mandibLever.model;
 
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -37,6 +39,24 @@ import org.fieldmuseum.biosync.kinematics.PlasticBar;
  */
 public class Specimen implements Serializable, Cloneable {
 	public static final String SEPARATOR = " ";
+
+    /**
+     * The name of the change event fired when an update (see
+     * {@link #beginUpdate()}) changed more than one property.  Its old and
+     * new values are null.
+     */
+    public static final String UPDATE_PROPERTY = "update";
+
+    /**
+     * Names of the 14 measurements of {@link #Specimen(String)}, in order, as
+     * returned by {@link #getMeasurements()}.
+     */
+    public static final String[] MEASUREMENT_NAMES = {
+        "InlevA2", "InlevA3", "InlevOpen", "OutLever",
+        "A2Length", "A3Length", "A3TendonLength",
+        "A2JointDist", "A3JointDist", "A2-A3InsDist",
+        "LJTop", "LJBot", "A2Mass", "A3Mass"
+    };
 	
 	private String name;
     private MandibLeverMuscle a2;
@@ -44,6 +64,28 @@ public class Specimen implements Serializable, Cloneable {
     private Mandible mandible;
     private PropertyChangeSupport changeSupport;
 
+    /** The parameters of the current simulation run, or null to use the shared parameters */
+    private SimulationParameters simulationParameters;
+
+    /** Muscle length to jaw rotation solvers, created when first needed */
+    private transient MuscleLengthSolver a2Solver, a3Solver;
+
+    /** Listeners that re-fire the muscles' change events from this specimen */
+    private transient PropertyChangeListener a2Listener, a3Listener;
+
+    /** If true, the mandible and muscles don't fire change events */
+    private boolean simulationMode;
+
+    /** How many updates have begun and not been committed */
+    private transient int updateDepth;
+
+    /**
+     * The properties changed during the current update, with their values
+     * from before the update and their latest values, in the order they
+     * first changed
+     */
+    private transient Map<String, PropertyChangeEvent> pendingChanges;
+
 	/**
 	 * Creates a new Specimen from a string of morphometric data.
 	 * 
@@ -134,6 +176,29 @@ public class Specimen implements Serializable, Cloneable {
         }
     }
 
+    /**
+     * Creates a new Specimen from its 14 measurements.
+     * @param name the name of the specimen
+     * @param measurements the measurements, in the order of
+     * {@link #Specimen(String)} (and {@link #MEASUREMENT_NAMES})
+     * @throws IllegalArgumentException if there aren't 14 measurements, or
+     * they don't make a valid specimen
+     */
+    public Specimen(String name, double[] measurements) throws IllegalArgumentException {
+        this(name, checkMeasurements(measurements)[0], measurements[1], measurements[2], measurements[3],
+                measurements[4], measurements[5], measurements[6],
+                measurements[7], measurements[8], measurements[9],
+                measurements[10], measurements[11],
+                measurements[12], measurements[13]);
+    }
+
+    private static double[] checkMeasurements(double[] measurements) throws IllegalArgumentException {
+        if (measurements.length != MEASUREMENT_NAMES.length) {
+            throw new IllegalArgumentException("Expected " + MEASUREMENT_NAMES.length + " measurements, not " + measurements.length + ".");
+        }
+        return measurements;
+    }
+
     /**
      * Creates a new Specimen based on the 2D locations of points on the
      * specimen.
@@ -203,6 +268,21 @@ public class Specimen implements Serializable, Cloneable {
 		return sb.toString();
     }
 
+    /**
+     * @return the 14 measurements of the specimen, in the order of
+     * {@link #Specimen(String)}.  Muscle lengths are the resting (jaw closed)
+     * lengths, whatever the current rotation.
+     */
+    public double[] getMeasurements() {
+        return new double[] {
+            mandible.getA2InLever(), mandible.getA3InLever(), mandible.getOpenInLever(), mandible.getOutLever(),
+            a2.getRestingLength(), a3.getRestingLength(), a3.getTendonLength(),
+            getA2JointDist(), getA3JointDist(), mandible.getA2A3InsertionDistance(),
+            mandible.getMandibleDorsalLength(), mandible.getMandibleVentralLength(),
+            a2.getMass(), a3.getMass()
+        };
+    }
+
     /**
      * Rotates the mandible to acheive a desired contraction of a given muscle.
      * Contraction is 0 when the jaw is fully open.
@@ -227,7 +307,18 @@ public class Specimen implements Serializable, Cloneable {
      * @return
      */
     public double getContraction(Muscle muscle) {
-        return (getMaxMuscleLength(muscle) - muscle.getLength()) / (getMaxMuscleLength(muscle) - muscle.getTendonLength());
+        return getContraction(getMaxMuscleLength(muscle), muscle.getLength(), muscle.getTendonLength());
+    }
+
+    /**
+     * @param maxLength the muscle's length with the jaw max-open
+     * @param length the muscle length
+     * @param tendonLength the muscle's tendon length
+     * @return the contraction at the length, as a fraction of the muscle
+     * tissue's length with the jaw max-open
+     */
+    public static double getContraction(double maxLength, double length, double tendonLength) {
+        return (maxLength - length) / (maxLength - tendonLength);
     }
 
     /**
@@ -242,7 +333,7 @@ public class Specimen implements Serializable, Cloneable {
          * angle is not currently being constrained to phyically plausible
          * angles in the GUI.
          */
-        return (getMaxMuscleLength(muscle) - muscle.getRestingLength()) / (getMaxMuscleLength(muscle) - muscle.getTendonLength());
+        return getContraction(getMaxMuscleLength(muscle), muscle.getRestingLength(), muscle.getTendonLength());
     }
 
     /**
@@ -252,11 +343,42 @@ public class Specimen implements Serializable, Cloneable {
      * @return whether the rotation succeeded.  If not, the mandible is not moved.
      */
     public boolean setLength(Muscle muscle, double length) {
+        double rotation = getLengthSolver(muscle).getRotation(length);
+        if (Double.isNaN(rotation)) {
+            return false;
+        }
+        beginUpdate();
+        try {
+            mandible.setRotation(rotation);
+        } finally {
+            commitUpdate();
+        }
+        return true;
+    }
+
+    /**
+     * @return the length solver for a muscle.  The A2 and A3 solvers are only
+     * created once, since the muscle origins and mandible shape don't change.
+     */
+    private MuscleLengthSolver getLengthSolver(Muscle muscle) {
+        if (muscle == a2) {
+            if (a2Solver == null) {
+                a2Solver = createLengthSolver(a2);
+            }
+            return a2Solver;
+        } else if (muscle == a3) {
+            if (a3Solver == null) {
+                a3Solver = createLengthSolver(a3);
+            }
+            return a3Solver;
+        }
+        return createLengthSolver(muscle);
+    }
+
+    private MuscleLengthSolver createLengthSolver(Muscle muscle) {
         Joint insertion = mandible.getInsertion(muscle);
         Joint origin = muscle.getOtherJoint(insertion);
-        boolean success = mandible.rotateJointTo(insertion, origin, length);
-
-        return success;
+        return mandible.createLengthSolver(insertion, origin);
     }
 
     /**
@@ -267,12 +389,7 @@ public class Specimen implements Serializable, Cloneable {
     public double getMuscleLength(Muscle muscle, double rotation) {
         Joint insertion = mandible.getInsertion(muscle);
         Joint origin = muscle.getOtherJoint(insertion);
-
-        AffineTransform transform = AffineTransform.getRotateInstance(rotation - mandible.getRotation());
-        Point2D newInsertion = new Point2D.Double();
-        transform.transform(insertion, newInsertion);
-
-        return origin.distance(newInsertion);
+        return mandible.getDistance(insertion, origin, rotation);
     }
 
     /**
@@ -280,7 +397,7 @@ public class Specimen implements Serializable, Cloneable {
      * @return muscle length at max jaw-open rotation
      */
     public double getMaxMuscleLength(Muscle muscle) {
-        return getMuscleLength(muscle, Mandible.getMaxRotation());
+        return getMuscleLength(muscle, mandible.getOpenRotation());
     }
 
     /**
@@ -335,7 +452,7 @@ public class Specimen implements Serializable, Cloneable {
 	public void setName(String name) {
         String oldName = getName();
 		this.name = name;
-        changeSupport.firePropertyChange("name", oldName, name);
+        firePropertyChange("name", oldName, name);
 	}
 
     public MandibLeverMuscle getA2() {
@@ -350,6 +467,28 @@ public class Specimen implements Serializable, Cloneable {
         return mandible;
     }
 
+    /**
+     * @return the parameters of the current simulation run, or null if this
+     * specimen uses the shared parameters
+     */
+    public SimulationParameters getSimulationParameters() {
+        return simulationParameters;
+    }
+
+    /**
+     * Gives this specimen its own muscle and jaw parameters, instead of the
+     * shared (static) ones.  This is what lets specimens with different
+     * parameters be simulated at the same time.
+     * @param simulationParameters the parameters, or null to go back to the
+     * shared parameters
+     */
+    public void setSimulationParameters(SimulationParameters simulationParameters) {
+        SimulationParameters oldValue = this.simulationParameters;
+        this.simulationParameters = simulationParameters;
+        mandible.setSimulationParameters(simulationParameters);
+        firePropertyChange("simulationParameters", oldValue, simulationParameters);
+    }
+
     public double getA2JointDist() {
         Joint insertion = mandible.getInsertion(a2);
         Joint origin = a2.getOtherJoint(insertion);
@@ -370,6 +509,84 @@ public class Specimen implements Serializable, Cloneable {
         changeSupport.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Begins an update of the specimen.  Until it is committed, change events
+     * from the specimen (and those it re-fires from the mandible and muscles)
+     * are held back, so an edit that moves the jaw, and with it the length,
+     * velocity and force of both muscles, doesn't have the listeners update
+     * once for each of them.  Updates can be nested; only committing the
+     * outermost one fires the events.
+     * <pre>
+     * specimen.beginUpdate();
+     * try {
+     *     ...
+     * } finally {
+     *     specimen.commitUpdate();
+     * }</pre>
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * Commits an update begun by {@link #beginUpdate()}.  If it's the
+     * outermost one, a single change event is fired for the whole update:
+     * the property's own event if only one property changed, or an
+     * {@link #UPDATE_PROPERTY} event if more than one did.  Properties that
+     * ended up back where they started don't count, so an update that puts
+     * everything back fires nothing.
+     * @throws IllegalStateException if there's no update to commit
+     */
+    public void commitUpdate() throws IllegalStateException {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("There's no update to commit.");
+        }
+        updateDepth--;
+        if (updateDepth > 0 || pendingChanges == null || pendingChanges.isEmpty()) {
+            return;
+        }
+
+        for (Iterator<PropertyChangeEvent> i = pendingChanges.values().iterator(); i.hasNext();) {
+            PropertyChangeEvent change = i.next();
+            if (change.getOldValue() != null && change.getOldValue().equals(change.getNewValue())) {
+                i.remove();
+            }
+        }
+        //clear the changes before firing, in case a listener begins an update
+        PropertyChangeEvent[] changes = pendingChanges.values().toArray(new PropertyChangeEvent[pendingChanges.size()]);
+        pendingChanges.clear();
+        if (changes.length == 1) {
+            changeSupport.firePropertyChange(changes[0]);
+        } else if (changes.length > 1) {
+            changeSupport.firePropertyChange(UPDATE_PROPERTY, null, null);
+        }
+    }
+
+    /**
+     * @return true if an update has begun and not been committed
+     */
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
+
+    /**
+     * Fires a change event, or holds it back until the update is committed.
+     */
+    private void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+        if (updateDepth == 0) {
+            changeSupport.firePropertyChange(propertyName, oldValue, newValue);
+            return;
+        }
+        if (pendingChanges == null) {
+            pendingChanges = new LinkedHashMap<String, PropertyChangeEvent>();
+        }
+        PropertyChangeEvent first = pendingChanges.get(propertyName);
+        if (first != null) {
+            oldValue = first.getOldValue();
+        }
+        pendingChanges.put(propertyName, new PropertyChangeEvent(this, propertyName, oldValue, newValue));
+    }
+
     /**
      * Creates a comma-separated string of summary statistics for the current
      * state of a muscle
@@ -400,16 +617,54 @@ public class Specimen implements Serializable, Cloneable {
     @Override
     public Object clone() throws CloneNotSupportedException {
         Specimen clone = (Specimen) super.clone();
+        clone.a2Solver = null;
+        clone.a3Solver = null;
+        clone.simulationMode = false;
+        clone.updateDepth = 0;
+        clone.pendingChanges = null;
 
         Mandible cloneMandible = (Mandible) mandible.clone();
+        cloneMandible.setSimulationMode(false);
         clone.setMandible(cloneMandible);
         clone.setA2(new A2Muscle(clone, cloneMandible.getA2Insertion(), getA2JointDist(), a2.getRestingLength(), a2.getMass()));
         clone.setA3(new A3Muscle(clone, cloneMandible.getA3Insertion(), getA3JointDist(), a3.getRestingLength(), a3.getTendonLength(), a3.getMass()));
         clone.changeSupport = new PropertyChangeSupport(clone);
+        clone.setSimulationMode(simulationMode);
 
         return clone;
     }
 
+    /**
+     * @return whether the specimen is in simulation mode
+     */
+    public boolean isSimulationMode() {
+        return simulationMode;
+    }
+
+    /**
+     * Turns simulation mode on or off for the mandible and both muscles.  In
+     * simulation mode moving the jaw fires no change events and the muscle
+     * forces and velocities are only calculated when asked for, so a
+     * simulation doesn't pay for events nobody is listening to.  The
+     * listeners that re-fire the muscle events are also detached, so a
+     * specimen cloned for a simulation run doesn't stay registered with the
+     * shared muscle parameter events.
+     * @param simulationMode whether to turn simulation mode on
+     */
+    public void setSimulationMode(boolean simulationMode) {
+        this.simulationMode = simulationMode;
+        mandible.setSimulationMode(simulationMode);
+        a2.setSimulationMode(simulationMode);
+        a3.setSimulationMode(simulationMode);
+        if (simulationMode) {
+            a2.removePropertyChangeListener(a2Listener);
+            a3.removePropertyChangeListener(a3Listener);
+        } else {
+            a2.addPropertyChangeListener(a2Listener);
+            a3.addPropertyChangeListener(a3Listener);
+        }
+    }
+
     public String getName(Joint j) {
         String name = null;
         if (mandible.getJoints().contains(j)) {
@@ -440,16 +695,20 @@ public class Specimen implements Serializable, Cloneable {
 
     /**
      * Sets the mandible.  Also attached a PropertyChangeListener to re-fire
-     * change events.  Does <strong>not</strong> currently check if this mandible is
-     * attached to the A2 and A3 muscles.
+     * change events, and gives it this specimen's simulation parameters.
+     * Does <strong>not</strong> currently check if this mandible is attached
+     * to the A2 and A3 muscles.
      * @param mandible the mandible
      */
     protected void setMandible(Mandible mandible) {
         this.mandible = mandible;
+        a2Solver = null;
+        a3Solver = null;
+        mandible.setSimulationParameters(simulationParameters);
 
         mandible.addPropertyChangeListener(new PropertyChangeListener() {
             public void propertyChange(PropertyChangeEvent evt) {
-                changeSupport.firePropertyChange("mandible." + evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
+                firePropertyChange("mandible." + evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
             }
         });
     }
@@ -462,13 +721,19 @@ public class Specimen implements Serializable, Cloneable {
      */
     protected void setA2(A2Muscle a2) {
         this.a2 = a2;
+        a2Solver = null;
 
         //attach a listener to re-fire change events to specimen listeners with "a2." appended
-        a2.addPropertyChangeListener(new PropertyChangeListener() {
+        a2Listener = new PropertyChangeListener() {
             public void propertyChange(PropertyChangeEvent evt) {
-                changeSupport.firePropertyChange("a2." + evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
+                firePropertyChange("a2." + evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
             }
-        });
+        };
+        if (!simulationMode) {
+            a2.addPropertyChangeListener(a2Listener);
+        } else {
+            a2.setSimulationMode(true);
+        }
     }
 
     /**
@@ -479,12 +744,18 @@ public class Specimen implements Serializable, Cloneable {
      */
     protected void setA3(A3Muscle a3) {
         this.a3 = a3;
+        a3Solver = null;
 
         //attach a listener to re-fire change events to specimen listeners with "a3." appended
-        a3.addPropertyChangeListener(new PropertyChangeListener() {
+        a3Listener = new PropertyChangeListener() {
             public void propertyChange(PropertyChangeEvent evt) {
-                changeSupport.firePropertyChange("a3." + evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
+                firePropertyChange("a3." + evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
             }
-        });
+        };
+        if (!simulationMode) {
+            a3.addPropertyChangeListener(a3Listener);
+        } else {
+            a3.setSimulationMode(true);
+        }
     }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import org.fieldmuseum.biosync.kinematics.Joint;
+
+/**
+ * Many specimens stored as columns of doubles, one array per value, instead
+ * of as {@link Specimen} objects.  Each row holds a specimen's 14
+ * measurements (columns 0 to 13, in the order of
+ * {@link Specimen#MEASUREMENT_NAMES}) and the geometry the simulation works
+ * from: the location of the QA joint, the distance and angle of each mandible
+ * joint from it with the jaw closed, and the muscle origins and resting
+ * lengths.  That's a few hundred bytes per specimen, against several
+ * kilobytes for a Specimen with its joints, muscles and listeners, so
+ * millions of specimens fit in memory, and a simulation can go through them
+ * a column at a time (see
+ * {@link org.fieldmuseum.biosync.mandibLever.model.sim.SimulationEngine#run(SpecimenBatch, org.fieldmuseum.biosync.mandibLever.model.sim.SimulationOutput)}).
+ * <p>
+ * The geometry is taken from a copy of a Specimen when the row is added (one
+ * is built from the measurements if needed, and then thrown away), the same
+ * copy {@link org.fieldmuseum.biosync.mandibLever.model.sim.SimulationEngine}
+ * would simulate, so the results are the same.
+ * @author kurie
+ */
+public class SpecimenBatch {
+    /** The number of measurement columns */
+    public static final int MEASUREMENTS = Specimen.MEASUREMENT_NAMES.length;
+
+    /* The geometry columns, after the measurements */
+    /** The QA joint location */
+    public static final int PIVOT_X = MEASUREMENTS;
+    public static final int PIVOT_Y = PIVOT_X + 1;
+    /** The distance and angle (in radians, jaw closed) of the A2 insertion from the QA joint */
+    public static final int A2_RADIUS = PIVOT_X + 2;
+    public static final int A2_ANGLE = PIVOT_X + 3;
+    /** The distance and angle of the A3 insertion from the QA joint */
+    public static final int A3_RADIUS = PIVOT_X + 4;
+    public static final int A3_ANGLE = PIVOT_X + 5;
+    /** The distance and angle of the interoperculomandibular ligament insertion from the QA joint */
+    public static final int IOM_RADIUS = PIVOT_X + 6;
+    public static final int IOM_ANGLE = PIVOT_X + 7;
+    /** The distance and angle of the anterior jaw tip from the QA joint */
+    public static final int TIP_RADIUS = PIVOT_X + 8;
+    public static final int TIP_ANGLE = PIVOT_X + 9;
+    /** The A2 origin location */
+    public static final int A2_ORIGIN_X = PIVOT_X + 10;
+    public static final int A2_ORIGIN_Y = PIVOT_X + 11;
+    /** The A3 origin location */
+    public static final int A3_ORIGIN_X = PIVOT_X + 12;
+    public static final int A3_ORIGIN_Y = PIVOT_X + 13;
+    /** The muscle lengths with the jaw closed */
+    public static final int A2_RESTING_LENGTH = PIVOT_X + 14;
+    public static final int A3_RESTING_LENGTH = PIVOT_X + 15;
+
+    /** The total number of columns */
+    public static final int COLUMN_COUNT = PIVOT_X + 16;
+
+    /* Measurement columns the simulation uses directly */
+    public static final int A3_TENDON_LENGTH = 6;
+    public static final int A2_MASS = 12;
+    public static final int A3_MASS = 13;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final double[][] columns = new double[COLUMN_COUNT][];
+    private String[] names;
+    private int size;
+
+    /**
+     * Creates an empty batch.
+     */
+    public SpecimenBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch with room for a number of specimens.  (It still
+     * grows if more are added.)
+     * @param capacity the number of specimens to make room for
+     */
+    public SpecimenBatch(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            columns[column] = new double[capacity];
+        }
+        names = new String[capacity];
+    }
+
+    /**
+     * Adds a specimen from its measurements.
+     * @param name the specimen name
+     * @param measurements the 14 measurements, in the order of
+     * {@link Specimen#MEASUREMENT_NAMES}
+     * @throws IllegalArgumentException if the measurements don't make a valid
+     * specimen, see {@link Specimen#Specimen(String, double[])}.  Nothing is
+     * added.
+     */
+    public void add(String name, double[] measurements) throws IllegalArgumentException {
+        Specimen specimen = new Specimen(name, measurements);
+        //detaches the muscles from the shared parameter events, so the specimen can be garbage collected
+        specimen.setSimulationMode(true);
+        add(specimen, measurements);
+    }
+
+    /**
+     * Adds a copy of a specimen.  Its current rotation doesn't matter, and the
+     * specimen isn't changed.
+     * @param specimen the specimen
+     */
+    public void add(Specimen specimen) {
+        add(specimen, specimen.getMeasurements());
+    }
+
+    private void add(Specimen specimen, double[] measurements) {
+        /*
+         * The simulation works on a copy, whose muscle origins are placed
+         * again from the measurements, so take the geometry from a copy too
+         */
+        try {
+            specimen = (Specimen) specimen.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e); //it's Cloneable
+        }
+        specimen.setSimulationMode(true);
+
+        if (size == names.length) {
+            grow();
+        }
+        int row = size;
+        for (int i = 0; i < MEASUREMENTS; i++) {
+            columns[i][row] = measurements[i];
+        }
+
+        //the kinematics at zero rotation, so the angles are the closed-jaw ones
+        Mandible mandible = specimen.getMandible();
+        MandibleKinematics kinematics = mandible.getKinematics().clone();
+        kinematics.setRotation(0);
+        columns[PIVOT_X][row] = kinematics.getX(MandibleKinematics.QA_JOINT);
+        columns[PIVOT_Y][row] = kinematics.getY(MandibleKinematics.QA_JOINT);
+        setJoint(row, kinematics, MandibleKinematics.A2_INSERTION, A2_RADIUS, A2_ANGLE);
+        setJoint(row, kinematics, MandibleKinematics.A3_INSERTION, A3_RADIUS, A3_ANGLE);
+        setJoint(row, kinematics, MandibleKinematics.IOM_LIGAMENT_INSERTION, IOM_RADIUS, IOM_ANGLE);
+        setJoint(row, kinematics, MandibleKinematics.ANTERIOR_JAW_TIP, TIP_RADIUS, TIP_ANGLE);
+
+        Joint a2Origin = specimen.getA2().getOtherJoint(mandible.getA2Insertion());
+        columns[A2_ORIGIN_X][row] = a2Origin.getX();
+        columns[A2_ORIGIN_Y][row] = a2Origin.getY();
+        Joint a3Origin = specimen.getA3().getOtherJoint(mandible.getA3Insertion());
+        columns[A3_ORIGIN_X][row] = a3Origin.getX();
+        columns[A3_ORIGIN_Y][row] = a3Origin.getY();
+        columns[A2_RESTING_LENGTH][row] = specimen.getA2().getRestingLength();
+        columns[A3_RESTING_LENGTH][row] = specimen.getA3().getRestingLength();
+
+        names[row] = specimen.getName();
+        size++;
+    }
+
+    private void setJoint(int row, MandibleKinematics kinematics, int joint, int radiusColumn, int angleColumn) {
+        columns[radiusColumn][row] = kinematics.getRadius(joint);
+        columns[angleColumn][row] = kinematics.getAngle(joint);
+    }
+
+    /**
+     * Doubles the capacity of every column.
+     */
+    private void grow() {
+        int capacity = names.length > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : 2 * names.length;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            double[] newColumn = new double[capacity];
+            System.arraycopy(columns[column], 0, newColumn, 0, size);
+            columns[column] = newColumn;
+        }
+        String[] newNames = new String[capacity];
+        System.arraycopy(names, 0, newNames, 0, size);
+        names = newNames;
+    }
+
+    /**
+     * @return the number of specimens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the specimen, from 0 to size() - 1
+     * @return the specimen's name
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * @param column the column, e.g. {@link #A2_RADIUS} or a measurement
+     * @param index the specimen, from 0 to size() - 1
+     * @return the value
+     */
+    public double get(int column, int index) {
+        checkIndex(index);
+        return getColumn(column)[index];
+    }
+
+    /**
+     * Gets a whole column, for going through every specimen quickly.
+     * @param column the column, e.g. {@link #A2_RADIUS} or a measurement
+     * @return the column itself, not a copy.  Only the first size() values
+     * are used, and the array is replaced when the batch grows, so it
+     * shouldn't be kept while specimens are being added.
+     */
+    public double[] getColumn(int column) {
+        if (column < 0 || column >= COLUMN_COUNT) {
+            throw new IndexOutOfBoundsException("No column " + column + ".");
+        }
+        return columns[column];
+    }
+
+    /**
+     * @param index the specimen, from 0 to size() - 1
+     * @return the specimen's measurements, in the order of
+     * {@link Specimen#MEASUREMENT_NAMES}
+     */
+    public double[] getMeasurements(int index) {
+        checkIndex(index);
+        double[] measurements = new double[MEASUREMENTS];
+        for (int i = 0; i < MEASUREMENTS; i++) {
+            measurements[i] = columns[i][index];
+        }
+        return measurements;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No specimen " + index + " (there are " + size + ").");
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A specimen data file, in the format of {@link Specimen#Specimen(String)}:
+ * one specimen per line, a name then 14 numbers separated by spaces (or
+ * tabs).  Lines can end with CR, LF or CR LF, and blank lines are skipped.
+ * <p>
+ * The file is read a block at a time and parsed straight from the bytes,
+ * with the measurements going into one array of doubles, so reading a large
+ * data set doesn't create a String for every line and number.  (It isn't
+ * memory-mapped, as a mapping can stop the file being overwritten until it's
+ * garbage collected.)  Lines that can't be
+ * parsed don't stop the rest of the file being read; they're collected as
+ * {@link LineError}s, along with the lines whose measurements don't make a
+ * valid specimen when {@link #createSpecimens(List)} (or
+ * {@link #createBatch(List)}) is called.
+ * @author kurie
+ */
+public class SpecimenFile {
+    /** The number of measurements on each line */
+    private static final int MEASUREMENTS = Specimen.MEASUREMENT_NAMES.length;
+
+    /** Exact powers of ten, for parsing */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** How much of the file is read at a time */
+    private static final int BLOCK_LENGTH = 1 << 16;
+
+    /** The largest mantissa that converts to a double exactly */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * An error on one line of a specimen file.
+     */
+    public static class LineError {
+        private final int line;
+        private final String message;
+
+        LineError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * @return the line number, from 1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return what was wrong with the line
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+
+    private final Charset charset;
+    private int count;
+    private String[] names = new String[64];
+    private int[] lines = new int[64];
+    private double[] values = new double[64 * MEASUREMENTS];
+    private final List<LineError> errors = new ArrayList<LineError>();
+
+    private SpecimenFile(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Reads a specimen file.  Names are decoded with the platform's default
+     * charset, like a FileReader does.
+     * @param file the file
+     * @return the specimens' names and measurements, and any lines that
+     * couldn't be parsed
+     * @throws IOException if the file can't be read
+     */
+    public static SpecimenFile read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return parse(channel, channel.size(), Charset.defaultCharset());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses specimen data.
+     * @param data the data, from its position to its limit.  Its position
+     * isn't changed.
+     * @param charset the charset of the names
+     * @return the specimens' names and measurements, and any lines that
+     * couldn't be parsed
+     */
+    public static SpecimenFile parse(ByteBuffer data, Charset charset) {
+        final ByteBuffer in = data.duplicate();
+        ReadableByteChannel channel = new ReadableByteChannel() {
+            public int read(ByteBuffer dst) {
+                if (!in.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(dst.remaining(), in.remaining());
+                ByteBuffer src = in.duplicate();
+                src.limit(src.position() + count);
+                dst.put(src);
+                in.position(in.position() + count);
+                return count;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            return parse(channel, in.remaining(), charset);
+        } catch (IOException e) {
+            throw new AssertionError(e); //reading a buffer can't fail
+        }
+    }
+
+    /**
+     * Parses specimen data from a channel.
+     * @param channel the data, read to the end
+     * @param size the expected size of the data, for sizing the block
+     * @param charset the charset of the names
+     */
+    private static SpecimenFile parse(ReadableByteChannel channel, long size, Charset charset) throws IOException {
+        SpecimenFile specimenFile = new SpecimenFile(charset);
+
+        /*
+         * The data is read a block at a time into an array, which is much
+         * quicker to scan than a ByteBuffer.  A line that runs over the end
+         * of a block is moved to the start of the array for the next block.
+         */
+        byte[] block = new byte[(int) Math.min(BLOCK_LENGTH, Math.max(size, 1))];
+        int filled = 0;
+        int line = 0;
+        boolean afterCR = false; //the last line ended with CR, so skip an LF
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.wrap(block, filled, block.length - filled);
+            boolean last = false;
+            while (buffer.hasRemaining() && !last) {
+                last = channel.read(buffer) < 0;
+            }
+            filled = buffer.position();
+
+            int position = 0;
+            while (position < filled) {
+                if (afterCR && block[position] == '\n') {
+                    position++;
+                    afterCR = false;
+                    continue;
+                }
+                int end = position;
+                while (end < filled && block[end] != '\n' && block[end] != '\r') {
+                    end++;
+                }
+                if (end == filled && !last) {
+                    break; //the rest of the line is in the next block
+                }
+                line++;
+                specimenFile.parseLine(block, position, end, line);
+                afterCR = end < filled && block[end] == '\r';
+                position = end + 1;
+            }
+            if (last) {
+                break;
+            }
+
+            //move the unfinished line to the start, making room if it's long
+            int remaining = filled - position;
+            byte[] next = remaining > block.length / 2 ? new byte[2 * block.length] : block;
+            System.arraycopy(block, position, next, 0, remaining);
+            block = next;
+            filled = remaining;
+        }
+        return specimenFile;
+    }
+
+    private void parseLine(byte[] data, int start, int end, int line) {
+        //the name
+        int position = skipSeparators(data, start, end);
+        if (position == end) {
+            return; //blank
+        }
+        int tokenEnd = findSeparator(data, position, end);
+        String name = decode(data, position, tokenEnd);
+
+        //the measurements
+        if (count == names.length) {
+            grow();
+        }
+        int offset = count * MEASUREMENTS;
+        for (int i = 0; i < MEASUREMENTS; i++) {
+            position = skipSeparators(data, tokenEnd, end);
+            if (position == end) {
+                errors.add(new LineError(line, "Specimen \"" + name + "\": expected " + MEASUREMENTS
+                        + " measurements, found " + i + "."));
+                return;
+            }
+            tokenEnd = findSeparator(data, position, end);
+            double value = parseDouble(data, position, tokenEnd);
+            if (Double.isNaN(value)) {
+                try {
+                    value = Double.parseDouble(decode(data, position, tokenEnd));
+                } catch (NumberFormatException e) {
+                    errors.add(new LineError(line, "Specimen \"" + name + "\": " + Specimen.MEASUREMENT_NAMES[i]
+                            + " \"" + decode(data, position, tokenEnd) + "\" is not a number."));
+                    return;
+                }
+            }
+            values[offset + i] = value;
+        }
+        //anything after the measurements is ignored, as by Specimen(String)
+
+        names[count] = name;
+        lines[count] = line;
+        count++;
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int skipSeparators(byte[] data, int position, int end) {
+        while (position < end && isSeparator(data[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int findSeparator(byte[] data, int position, int end) {
+        while (position < end && !isSeparator(data[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private String decode(byte[] data, int start, int end) {
+        //plain ASCII, the usual case, is the same in any charset we'd see
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            byte b = data[start + i];
+            if (b < 0) {
+                return charset.decode(ByteBuffer.wrap(data, start, end - start)).toString();
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses a plain decimal number, e.g. -12.034, straight from the bytes.
+     * The result is the same double as Double.parseDouble: the digits (as a
+     * long) and the power of ten are both exact, so the one division is
+     * correctly rounded.
+     * @return the number, or NaN if it isn't in that form or has too many
+     * digits (for Double.parseDouble to deal with)
+     */
+    static double parseDouble(byte[] data, int start, int end) {
+        int position = start;
+        boolean negative = false;
+        if (position < end && data[position] == '-') {
+            negative = true;
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1; //-1 until the decimal point
+        for (; position < end; position++) {
+            byte b = data[position];
+            if (b >= '0' && b <= '9') {
+                mantissa = 10 * mantissa + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (mantissa > MAX_EXACT_MANTISSA) {
+                    return Double.NaN;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.NaN;
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private void grow() {
+        String[] newNames = new String[2 * names.length];
+        System.arraycopy(names, 0, newNames, 0, count);
+        names = newNames;
+        int[] newLines = new int[2 * lines.length];
+        System.arraycopy(lines, 0, newLines, 0, count);
+        lines = newLines;
+        double[] newValues = new double[2 * values.length];
+        System.arraycopy(values, 0, newValues, 0, count * MEASUREMENTS);
+        values = newValues;
+    }
+
+    /**
+     * @return the number of lines that were parsed
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param index the specimen, from 0 to size() - 1
+     * @return the specimen's name
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * @param index the specimen, from 0 to size() - 1
+     * @return the number of the line the specimen was on, from 1
+     */
+    public int getLine(int index) {
+        checkIndex(index);
+        return lines[index];
+    }
+
+    /**
+     * @param index the specimen, from 0 to size() - 1
+     * @param measurement the measurement, see {@link Specimen#MEASUREMENT_NAMES}
+     * @return the value of the measurement
+     */
+    public double getMeasurement(int index, int measurement) {
+        checkIndex(index);
+        if (measurement < 0 || measurement >= MEASUREMENTS) {
+            throw new IndexOutOfBoundsException("No measurement " + measurement + ".");
+        }
+        return values[index * MEASUREMENTS + measurement];
+    }
+
+    /**
+     * @param index the specimen, from 0 to size() - 1
+     * @return the specimen's measurements, in the order of
+     * {@link Specimen#MEASUREMENT_NAMES}
+     */
+    public double[] getMeasurements(int index) {
+        checkIndex(index);
+        double[] measurements = new double[MEASUREMENTS];
+        System.arraycopy(values, index * MEASUREMENTS, measurements, 0, MEASUREMENTS);
+        return measurements;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("No specimen " + index + " (there are " + count + ").");
+        }
+    }
+
+    /**
+     * @return the lines that couldn't be parsed, in order
+     */
+    public List<LineError> getErrors() {
+        return new ArrayList<LineError>(errors);
+    }
+
+    /**
+     * Creates the specimens.
+     * @param errors if not null, every bad line is added to it, in order:
+     * those that couldn't be parsed, and those that don't make a valid
+     * specimen
+     * @return the valid specimens, in order
+     */
+    public List<Specimen> createSpecimens(List<LineError> errors) {
+        List<Specimen> specimens = new ArrayList<Specimen>(count);
+        create(specimens, null, errors);
+        return specimens;
+    }
+
+    /**
+     * Creates the specimens as a {@link SpecimenBatch}, for data sets too
+     * big to keep as Specimen objects.
+     * @param errors if not null, every bad line is added to it, in order:
+     * those that couldn't be parsed, and those that don't make a valid
+     * specimen
+     * @return the valid specimens, in order
+     */
+    public SpecimenBatch createBatch(List<LineError> errors) {
+        SpecimenBatch batch = new SpecimenBatch(count);
+        create(null, batch, errors);
+        return batch;
+    }
+
+    /**
+     * Adds the valid specimens to a list or a batch.
+     */
+    private void create(List<Specimen> specimens, SpecimenBatch batch, List<LineError> errors) {
+        int nextError = 0;
+        for (int i = 0; i < count; i++) {
+            //parse errors from before this line
+            while (nextError < this.errors.size() && this.errors.get(nextError).getLine() < lines[i]) {
+                if (errors != null) {
+                    errors.add(this.errors.get(nextError));
+                }
+                nextError++;
+            }
+            try {
+                if (batch != null) {
+                    batch.add(names[i], getMeasurements(i));
+                } else {
+                    specimens.add(new Specimen(names[i], getMeasurements(i)));
+                }
+            } catch (IllegalArgumentException e) {
+                if (errors != null) {
+                    errors.add(new LineError(lines[i], e.getMessage()));
+                }
+            }
+        }
+        if (errors != null) {
+            errors.addAll(this.errors.subList(nextError, this.errors.size()));
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.fieldmuseum.biosync.stats.QuantileEstimator;
+import org.fieldmuseum.biosync.stats.RunningStatistics;
+
+/**
+ * Accumulates statistics over the specimens of a simulation run as their
+ * results are written, so summaries of a data set don't have to be worked out
+ * from the output files afterwards.  For each group of specimens it keeps
+ * <ul>
+ * <li>running statistics and quartiles of the main summary values of each
+ * specimen (see the quantity constants), and
+ * <li>running statistics of every per-bin column of each muscle, bin by bin
+ * (a mean curve over the specimens).
+ * </ul>
+ * Every specimen is in the {@link #ALL} group.  If grouping by name is on,
+ * each specimen is also in the group named by {@link #getGroupName(String)},
+ * e.g. "Rgoby" for specimens Rgoby002, Rgoby003...
+ * <p>
+ * Nothing is kept of the individual results.  Not thread-safe;
+ * {@link SimulationEngine} only writes from one thread.
+ * @author kurie
+ */
+public class AggregateStatistics implements SimulationOutput, Serializable {
+    /** The name of the group of all specimens */
+    public static final String ALL = "All";
+
+    /** Gape at max-open, in cm */
+    public static final int OPEN_GAPE = 0;
+    /** Mechanical advantage of opening */
+    public static final int OPEN_MECHANICAL_ADVANTAGE = 1;
+    /** Velocity ratio of opening */
+    public static final int OPEN_VELOCITY_RATIO = 2;
+    /** Angular velocity of opening, in degrees/s */
+    public static final int OPEN_ANGULAR_VELOCITY = 3;
+    /** Jaw tip velocity of opening, in cm/s */
+    public static final int OPEN_TIP_VELOCITY = 4;
+    /** Total bilateral bite force with the jaw closed, in N */
+    public static final int TOTAL_BITE_FORCE = 5;
+    /** Maximum total bilateral bite force, in N */
+    public static final int MAX_BITE_FORCE = 6;
+    /** A2 mechanical advantage */
+    public static final int A2_MECHANICAL_ADVANTAGE = 7;
+    /** A3 mechanical advantage */
+    public static final int A3_MECHANICAL_ADVANTAGE = 8;
+    /** A2 mean force over the closing simulation, in N */
+    public static final int A2_MEAN_FORCE = 9;
+    /** A2 mean torque over the closing simulation, in N m */
+    public static final int A2_MEAN_TORQUE = 10;
+    /** A2 work, in J */
+    public static final int A2_WORK = 11;
+    /** A2 power per muscle mass, in W/kg */
+    public static final int A2_POWER_PER_KG = 12;
+    /** A3 mean force over the closing simulation, in N */
+    public static final int A3_MEAN_FORCE = 13;
+    /** A3 mean torque over the closing simulation, in N m */
+    public static final int A3_MEAN_TORQUE = 14;
+    /** A3 work, in J */
+    public static final int A3_WORK = 15;
+    /** A3 power per muscle mass, in W/kg */
+    public static final int A3_POWER_PER_KG = 16;
+
+    /** The number of quantities */
+    public static final int QUANTITY_COUNT = 17;
+
+    /** Names of the quantities, for output */
+    public static final String[] QUANTITY_NAMES = {
+        "Gape(cm)", "MAOpen", "VROpen", "AngV(\u00B0/s)", "VOpen(cm/s)", "TotBiteF(N)", "MaxBite(N)", "MAA2", "MAA3",
+        "xFA2(N)", "xTqA2(Nm)", "WkA2(J)", "PwA2(W/kg)", "xFA3(N)", "xTqA3(Nm)", "WkA3(J)", "PwA3(W/kg)"
+    };
+
+    private final boolean groupByName;
+    private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+
+    /**
+     * @param groupByName whether to also keep statistics for each group of
+     * specimens with the same name apart from a trailing number
+     */
+    public AggregateStatistics(boolean groupByName) {
+        this.groupByName = groupByName;
+        groups.put(ALL, new Group(ALL));
+    }
+
+    /**
+     * Adds the result of one specimen to its groups.
+     * @throws IllegalArgumentException if the result doesn't have the same
+     * number of bins as the earlier ones
+     */
+    public void write(SpecimenResult result) throws IllegalArgumentException {
+        groups.get(ALL).add(result);
+        if (groupByName) {
+            String name = getGroupName(result.getName());
+            Group group = groups.get(name);
+            if (group == null) {
+                group = new Group(name);
+                groups.put(name, group);
+            }
+            group.add(result);
+        }
+    }
+
+    /**
+     * @return the groups, {@link #ALL} first, then in the order their first
+     * specimen was written
+     */
+    public List<Group> getGroups() {
+        return new ArrayList<Group>(groups.values());
+    }
+
+    /**
+     * @param name the group name
+     * @return the group, or null if no specimen was in it
+     */
+    public Group getGroup(String name) {
+        return groups.get(name);
+    }
+
+    /**
+     * @param specimenName the name of a specimen
+     * @return the name without any trailing digits, or the whole name if it's
+     * all digits
+     */
+    public static String getGroupName(String specimenName) {
+        int end = specimenName.length();
+        while (end > 0 && Character.isDigit(specimenName.charAt(end - 1))) {
+            end--;
+        }
+        return end > 0 ? specimenName.substring(0, end) : specimenName;
+    }
+
+    /**
+     * The statistics of one group of specimens.
+     */
+    public static class Group implements Serializable {
+        private final String name;
+        private final RunningStatistics[] statistics = new RunningStatistics[QUANTITY_COUNT];
+        private final QuantileEstimator[][] quartiles = new QuantileEstimator[3][QUANTITY_COUNT];
+
+        /* [bin][column], created with the first result */
+        private RunningStatistics[][] a2Bins;
+        private RunningStatistics[][] a3Bins;
+
+        private final double[] values = new double[QUANTITY_COUNT];
+
+        /** Counted separately, since the statistics skip NaN values */
+        private long specimenCount;
+
+        Group(String name) {
+            this.name = name;
+            for (int q = 0; q < QUANTITY_COUNT; q++) {
+                statistics[q] = new RunningStatistics();
+                for (int i = 0; i < quartiles.length; i++) {
+                    quartiles[i][q] = new QuantileEstimator((i + 1) * 0.25);
+                }
+            }
+        }
+
+        void add(SpecimenResult result) throws IllegalArgumentException {
+            MuscleSimResult a2 = result.getA2();
+            MuscleSimResult a3 = result.getA3();
+            if (a2Bins == null) {
+                a2Bins = createBins(a2.getBins());
+                a3Bins = createBins(a3.getBins());
+            } else if (a2.getBins() != a2Bins.length || a3.getBins() != a3Bins.length) {
+                throw new IllegalArgumentException("Specimen " + result.getName() + " has " + a2.getBins()
+                        + " bins, but the earlier specimens have " + a2Bins.length + ".");
+            }
+
+            values[OPEN_GAPE] = result.getOpenGape();
+            values[OPEN_MECHANICAL_ADVANTAGE] = result.getOpenMechanicalAdvantage();
+            values[OPEN_VELOCITY_RATIO] = result.getOpenVelocityRatio();
+            values[OPEN_ANGULAR_VELOCITY] = result.getOpenAngularVelocity();
+            values[OPEN_TIP_VELOCITY] = result.getOpenTipVelocity();
+            values[TOTAL_BITE_FORCE] = result.getTotalBiteForce();
+            values[MAX_BITE_FORCE] = result.getMaxBiteForce();
+            values[A2_MECHANICAL_ADVANTAGE] = a2.getMechanicalAdvantage();
+            values[A3_MECHANICAL_ADVANTAGE] = a3.getMechanicalAdvantage();
+            values[A2_MEAN_FORCE] = a2.getMeanForce();
+            values[A2_MEAN_TORQUE] = a2.getMeanTorque();
+            values[A2_WORK] = a2.getTotalWork();
+            values[A2_POWER_PER_KG] = a2.getPowerPerKg();
+            values[A3_MEAN_FORCE] = a3.getMeanForce();
+            values[A3_MEAN_TORQUE] = a3.getMeanTorque();
+            values[A3_WORK] = a3.getTotalWork();
+            values[A3_POWER_PER_KG] = a3.getPowerPerKg();
+            for (int q = 0; q < QUANTITY_COUNT; q++) {
+                statistics[q].add(values[q]);
+                for (int i = 0; i < quartiles.length; i++) {
+                    quartiles[i][q].add(values[q]);
+                }
+            }
+
+            addBins(a2Bins, a2);
+            addBins(a3Bins, a3);
+            specimenCount++;
+        }
+
+        private static RunningStatistics[][] createBins(int bins) {
+            RunningStatistics[][] statistics = new RunningStatistics[bins][MuscleSimResult.COLUMN_COUNT];
+            for (int bin = 0; bin < bins; bin++) {
+                for (int column = 0; column < MuscleSimResult.COLUMN_COUNT; column++) {
+                    statistics[bin][column] = new RunningStatistics();
+                }
+            }
+            return statistics;
+        }
+
+        private static void addBins(RunningStatistics[][] statistics, MuscleSimResult result) {
+            for (int column = 0; column < MuscleSimResult.COLUMN_COUNT; column++) {
+                double[] values = result.getColumn(column);
+                for (int bin = 0; bin < values.length; bin++) {
+                    statistics[bin][column].add(values[bin]);
+                }
+            }
+        }
+
+        /**
+         * @return the group name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of specimens in the group
+         */
+        public long getSpecimenCount() {
+            return specimenCount;
+        }
+
+        /**
+         * @param quantity one of the quantity constants
+         * @return the statistics of the quantity over the specimens
+         */
+        public RunningStatistics getStatistics(int quantity) {
+            return statistics[quantity];
+        }
+
+        /**
+         * @param quartile 1, 2 (the median) or 3
+         * @param quantity one of the quantity constants
+         * @return the estimated quartile of the quantity over the specimens
+         */
+        public double getQuartile(int quartile, int quantity) {
+            return quartiles[quartile - 1][quantity].getQuantile();
+        }
+
+        /**
+         * @return the number of bins in the closing simulation, or 0 if there
+         * are no specimens
+         */
+        public int getBins() {
+            return a2Bins == null ? 0 : a2Bins.length;
+        }
+
+        /**
+         * @param bin the bin, from 0 to getBins() - 1
+         * @param column one of the {@link MuscleSimResult} column constants
+         * @return the statistics of the A2 column at the bin, over the specimens
+         */
+        public RunningStatistics getA2Statistics(int bin, int column) {
+            return a2Bins[bin][column];
+        }
+
+        /**
+         * @param bin the bin, from 0 to getBins() - 1
+         * @param column one of the {@link MuscleSimResult} column constants
+         * @return the statistics of the A3 column at the bin, over the specimens
+         */
+        public RunningStatistics getA3Statistics(int bin, int column) {
+            return a3Bins[bin][column];
+        }
+    }
+}
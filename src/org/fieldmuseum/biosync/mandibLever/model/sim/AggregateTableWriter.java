@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes {@link AggregateStatistics} of a simulation run to two tables:
+ * &lt;baseName&gt;.Aggregate.csv, with a row per group and summary quantity,
+ * and &lt;baseName&gt;.BinAggregate.csv, with a row per group, muscle, bin and
+ * column.  The statistics are accumulated as the results are written, and the
+ * tables are written when the writer is closed.
+ * @author kurie
+ */
+public class AggregateTableWriter implements SimulationOutput, Closeable {
+    /* ISO-8859-1 for Excel, same as SimulationCsvWriter */
+    private static final String ENCODING = "ISO-8859-1";
+
+    private final AggregateStatistics statistics;
+    private final Writer aggregate;
+    private final Writer binAggregate;
+
+    /**
+     * Creates the output files.  Existing files are overwritten.
+     * @param directory the output directory
+     * @param baseName the start of the file names
+     * @param groupByName whether to also write statistics for each group of
+     * specimens with the same name apart from a trailing number, see
+     * {@link AggregateStatistics#getGroupName(String)}
+     * @throws IOException if the files can't be created
+     */
+    public AggregateTableWriter(File directory, String baseName, boolean groupByName) throws IOException {
+        statistics = new AggregateStatistics(groupByName);
+        aggregate = createWriter(new File(directory, baseName + ".Aggregate.csv"));
+        try {
+            binAggregate = createWriter(new File(directory, baseName + ".BinAggregate.csv"));
+        } catch (IOException e) {
+            aggregate.close();
+            throw e;
+        }
+    }
+
+    private static Writer createWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), ENCODING));
+    }
+
+    /**
+     * Adds the result of one specimen to the statistics.
+     */
+    public void write(SpecimenResult result) {
+        statistics.write(result);
+    }
+
+    /**
+     * @return the statistics so far
+     */
+    public AggregateStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Writes the tables and closes the files.
+     * @throws IOException if the tables can't be written
+     */
+    public void close() throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder(SimulationCsvFormat.AGGREGATE_HEADER);
+            for (AggregateStatistics.Group group : statistics.getGroups()) {
+                SimulationCsvFormat.appendAggregateRows(sb, group);
+            }
+            aggregate.append(sb);
+
+            sb.setLength(0);
+            sb.append(SimulationCsvFormat.BIN_AGGREGATE_HEADER);
+            for (AggregateStatistics.Group group : statistics.getGroups()) {
+                SimulationCsvFormat.appendBinAggregateRows(sb, group);
+                binAggregate.append(sb);
+                sb.setLength(0);
+            }
+        } finally {
+            try {
+                aggregate.close();
+            } finally {
+                binAggregate.close();
+            }
+        }
+    }
+}
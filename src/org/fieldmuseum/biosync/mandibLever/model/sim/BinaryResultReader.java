@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a file written by {@link BinaryResultWriter}.  The data is
+ * memory-mapped, so opening even a large file is quick and columns are read
+ * straight from the mapping.
+ * <p>
+ * Specimens are numbered from 0 in the order they were written; muscles are
+ * {@link #A2} and {@link #A3}, and columns are the {@link MuscleSimResult}
+ * column constants.  Safe to use from several threads once opened.
+ * @author kurie
+ */
+public class BinaryResultReader implements Closeable {
+    /** The A2 muscle */
+    public static final int A2 = 0;
+    /** The A3 muscle */
+    public static final int A3 = 1;
+
+    /** The most data mapped in one piece (a whole number of specimen blocks) */
+    private static final long MAX_SEGMENT_LENGTH = 1 << 30;
+
+    private final FileInputStream in;
+    private final int bins;
+    private final int columnCount;
+    private final String[] columnNames;
+    private final int[] fishNums;
+    private final String[] names;
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    /** The data, a number of specimen blocks per segment */
+    private final DoubleBuffer[] segments;
+    private final int specimensPerSegment;
+
+    /**
+     * Opens a file and reads its header and specimen dictionary.
+     * @param file the file, usually &lt;baseName&gt;.Sim.bin
+     * @throws IOException if the file can't be read, isn't a binary result
+     * file, or wasn't closed properly when written
+     */
+    public BinaryResultReader(File file) throws IOException {
+        in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = read(channel, 0, BinaryResultWriter.FIXED_HEADER_LENGTH);
+            if (header.getInt() != BinaryResultWriter.MAGIC) {
+                throw new IOException(file + " is not a MandibLever binary result file.");
+            }
+            int version = header.getInt();
+            if (version != BinaryResultWriter.VERSION) {
+                throw new IOException(file + " is version " + version + " of the binary format; only version "
+                        + BinaryResultWriter.VERSION + " can be read.");
+            }
+            bins = header.getInt();
+            columnCount = header.getInt();
+            int muscles = header.getInt();
+            header.getInt(); //unused
+            long dataOffset = header.getLong();
+            long specimenCount = header.getLong();
+            long dictionaryOffset = header.getLong();
+            if (muscles != BinaryResultWriter.MUSCLES || dictionaryOffset == 0) {
+                throw new IOException(file + " is incomplete or corrupt.");
+            }
+
+            //column names
+            ByteBuffer names = read(channel, BinaryResultWriter.FIXED_HEADER_LENGTH, (int) dataOffset - BinaryResultWriter.FIXED_HEADER_LENGTH);
+            columnNames = new String[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                columnNames[column] = getString(names);
+            }
+
+            //specimen dictionary
+            ByteBuffer dictionary = read(channel, dictionaryOffset, (int) (channel.size() - dictionaryOffset));
+            this.fishNums = new int[(int) specimenCount];
+            this.names = new String[(int) specimenCount];
+            for (int i = 0; i < specimenCount; i++) {
+                fishNums[i] = dictionary.getInt();
+                this.names[i] = getString(dictionary);
+                if (!indexes.containsKey(this.names[i])) {
+                    indexes.put(this.names[i], i);
+                }
+            }
+
+            //map the data
+            long blockLength = (long) getBlockDoubles() * 8;
+            specimensPerSegment = (int) Math.max(1, MAX_SEGMENT_LENGTH / Math.max(blockLength, 1));
+            segments = new DoubleBuffer[(int) ((specimenCount + specimensPerSegment - 1) / specimensPerSegment)];
+            for (int segment = 0; segment < segments.length; segment++) {
+                long first = (long) segment * specimensPerSegment;
+                long count = Math.min(specimensPerSegment, specimenCount - first);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + first * blockLength, count * blockLength);
+                segments[segment] = mapped.asDoubleBuffer();
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        } catch (RuntimeException e) { //e.g. BufferUnderflowException from a truncated file
+            in.close();
+            IOException exception = new IOException(file + " is incomplete or corrupt.");
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private int getBlockDoubles() {
+        return BinaryResultWriter.MUSCLES * columnCount * bins;
+    }
+
+    /**
+     * @return the number of specimens
+     */
+    public int getSpecimenCount() {
+        return names.length;
+    }
+
+    /**
+     * @return the number of bins of each specimen
+     */
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * @return the names of the columns, in the order of the
+     * {@link MuscleSimResult} column constants
+     */
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * @param specimen the specimen, from 0 to getSpecimenCount() - 1
+     * @return the specimen's name
+     */
+    public String getName(int specimen) {
+        return names[specimen];
+    }
+
+    /**
+     * @param specimen the specimen, from 0 to getSpecimenCount() - 1
+     * @return the specimen's (1-based) position in its data set
+     */
+    public int getFishNum(int specimen) {
+        return fishNums[specimen];
+    }
+
+    /**
+     * @param name a specimen name
+     * @return the first specimen with the name, or -1 if there isn't one
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param specimen the specimen, from 0 to getSpecimenCount() - 1
+     * @param muscle {@link #A2} or {@link #A3}
+     * @param column one of the {@link MuscleSimResult} column constants
+     * @param bin the bin, from 0 to getBins() - 1
+     * @return the value
+     */
+    public double get(int specimen, int muscle, int column, int bin) {
+        if (bin < 0 || bin >= bins) {
+            throw new IndexOutOfBoundsException("No bin " + bin + ".");
+        }
+        return segments[specimen / specimensPerSegment].get(getOffset(specimen, muscle, column) + bin);
+    }
+
+    /**
+     * Returns a column without copying it.
+     * @param specimen the specimen, from 0 to getSpecimenCount() - 1
+     * @param muscle {@link #A2} or {@link #A3}
+     * @param column one of the {@link MuscleSimResult} column constants
+     * @return a read-only view of the column's values, one per bin
+     */
+    public DoubleBuffer getColumnBuffer(int specimen, int muscle, int column) {
+        DoubleBuffer view = segments[specimen / specimensPerSegment].duplicate();
+        int offset = getOffset(specimen, muscle, column);
+        view.limit(offset + bins).position(offset);
+        return view.slice();
+    }
+
+    /**
+     * @param specimen the specimen, from 0 to getSpecimenCount() - 1
+     * @param muscle {@link #A2} or {@link #A3}
+     * @param column one of the {@link MuscleSimResult} column constants
+     * @return a copy of the column's values, one per bin
+     */
+    public double[] getColumn(int specimen, int muscle, int column) {
+        double[] values = new double[bins];
+        getColumnBuffer(specimen, muscle, column).get(values);
+        return values;
+    }
+
+    /**
+     * @return the offset of a column in the specimen's segment, in doubles
+     */
+    private int getOffset(int specimen, int muscle, int column) {
+        if (specimen < 0 || specimen >= names.length || muscle < 0 || muscle >= BinaryResultWriter.MUSCLES
+                || column < 0 || column >= columnCount) {
+            throw new IndexOutOfBoundsException("No column " + column + " of muscle " + muscle + " of specimen " + specimen + ".");
+        }
+        int block = specimen % specimensPerSegment;
+        return (block * BinaryResultWriter.MUSCLES + muscle) * columnCount * bins + column * bins;
+    }
+
+    /**
+     * Closes the file.  The mapped data is released when it's garbage
+     * collected; don't use the reader (or its column buffers) after closing.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+
+/**
+ * Writes the per-bin results of a simulation run to a compact binary file,
+ * &lt;baseName&gt;.Sim.bin, which can be read back (or memory-mapped) with
+ * {@link BinaryResultReader} far faster than parsing the A2Sim/A3Sim files.
+ * <p>
+ * The file is big-endian, and made of
+ * <ul>
+ * <li>a header: the magic number {@link #MAGIC}, the format
+ * {@link #VERSION}, the number of bins, columns and muscles, and a zero to
+ * align the longs (6 ints), then the offset of the data, the number of
+ * specimens and the offset of the specimen dictionary (3 longs), 48 bytes in
+ * all; then the column names (each an unsigned short length and UTF-8
+ * bytes), padded with zeros to a multiple of 8 bytes;
+ * <li>the data: a block per specimen, each with a block per muscle (A2 then
+ * A3), each with every column (in {@link MuscleSimResult} order) as
+ * <code>bins</code> doubles.  Every block is the same size, so any column of
+ * any specimen can be found without reading the others;
+ * <li>the specimen dictionary: for each specimen, its fish number (int) and
+ * name (unsigned short length and UTF-8 bytes).
+ * </ul>
+ * The specimen count and dictionary offset are filled in when the writer is
+ * closed; until then they're 0.
+ * <p>
+ * Not thread-safe; {@link SimulationEngine} only writes from one thread.
+ * @author kurie
+ */
+public class BinaryResultWriter implements SimulationOutput, Closeable {
+    /** The first 4 bytes of the file, "MLSB" */
+    public static final int MAGIC = 0x4D4C5342;
+
+    /** The version of the file format */
+    public static final int VERSION = 1;
+
+    /** Number of muscles per specimen */
+    static final int MUSCLES = 2;
+
+    /** Offset of the specimen count in the header */
+    static final int SPECIMEN_COUNT_OFFSET = 32;
+
+    /** Length of the fixed part of the header, before the column names */
+    static final int FIXED_HEADER_LENGTH = 48;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int bins;
+
+    /** One specimen's data block, reused */
+    private final ByteBuffer block;
+
+    /** The dictionary, built up in memory as specimens are written */
+    private ByteBuffer dictionary = ByteBuffer.allocate(1024);
+
+    private long specimenCount;
+
+    /**
+     * Creates the output file and writes the header.  An existing file is
+     * overwritten.
+     * @param directory the output directory
+     * @param baseName the start of the file name
+     * @param bins the number of bins of the simulation, see
+     * {@link SimulationParameters#getBins()}
+     * @throws IOException if the file can't be created
+     */
+    public BinaryResultWriter(File directory, String baseName, int bins) throws IOException {
+        this.bins = bins;
+        block = ByteBuffer.allocate(MUSCLES * MuscleSimResult.COLUMN_COUNT * bins * 8);
+
+        File output = new File(directory, baseName + ".Sim.bin");
+        file = new RandomAccessFile(output, "rw");
+        try {
+            file.setLength(0);
+            channel = file.getChannel();
+            ByteBuffer header = createHeader();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer createHeader() throws IOException {
+        int length = FIXED_HEADER_LENGTH;
+        byte[][] names = new byte[MuscleSimResult.COLUMN_COUNT][];
+        for (int column = 0; column < names.length; column++) {
+            names[column] = MuscleSimResult.COLUMN_NAMES[column].getBytes("UTF-8");
+            length += 2 + names[column].length;
+        }
+        int dataOffset = (length + 7) & ~7;
+
+        ByteBuffer header = ByteBuffer.allocate(dataOffset);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(bins);
+        header.putInt(MuscleSimResult.COLUMN_COUNT);
+        header.putInt(MUSCLES);
+        header.putInt(0); //unused, aligns the longs
+        header.putLong(dataOffset);
+        header.putLong(0); //specimen count, filled in by close()
+        header.putLong(0); //dictionary offset, filled in by close()
+        for (byte[] name : names) {
+            header.putShort((short) name.length);
+            header.put(name);
+        }
+        header.position(0); //the rest is already zeros
+        return header;
+    }
+
+    /**
+     * Writes the per-bin results of one specimen.
+     * @throws IllegalArgumentException if the result doesn't have the number
+     * of bins the writer was created with
+     */
+    public void write(SpecimenResult result) throws IOException, IllegalArgumentException {
+        block.clear();
+        putMuscle(result.getName(), result.getA2());
+        putMuscle(result.getName(), result.getA3());
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+
+        byte[] name = result.getName().getBytes("UTF-8");
+        if (dictionary.remaining() < 6 + name.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * dictionary.capacity(), dictionary.position() + 6 + name.length));
+            dictionary.flip();
+            larger.put(dictionary);
+            dictionary = larger;
+        }
+        dictionary.putInt(result.getFishNum());
+        dictionary.putShort((short) name.length);
+        dictionary.put(name);
+        specimenCount++;
+    }
+
+    private void putMuscle(String name, MuscleSimResult result) throws IllegalArgumentException {
+        if (result.getBins() != bins) {
+            throw new IllegalArgumentException("Specimen " + name + " has " + result.getBins() + " bins, not " + bins + ".");
+        }
+        for (int column = 0; column < MuscleSimResult.COLUMN_COUNT; column++) {
+            for (double value : result.getColumn(column)) {
+                block.putDouble(value);
+            }
+        }
+    }
+
+    /**
+     * Writes the specimen dictionary, fills in the header and closes the
+     * file.
+     */
+    public void close() throws IOException {
+        try {
+            long dictionaryOffset = channel.position();
+            dictionary.flip();
+            while (dictionary.hasRemaining()) {
+                channel.write(dictionary);
+            }
+
+            ByteBuffer counts = ByteBuffer.allocate(16);
+            counts.putLong(specimenCount);
+            counts.putLong(dictionaryOffset);
+            counts.flip();
+            while (counts.hasRemaining()) {
+                channel.write(counts, SPECIMEN_COUNT_OFFSET + counts.position());
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
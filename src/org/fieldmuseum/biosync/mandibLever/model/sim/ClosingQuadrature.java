@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
+import org.fieldmuseum.biosync.mandibLever.model.LinearVelocityModel;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+
+/**
+ * Adaptive Simpson quadrature of a muscle's force and inverse velocity
+ * fraction over a range of muscle lengths, for the closing simulation's
+ * {@link SimulationParameters#getTolerance() tolerance} mode.  Both depend
+ * only on the muscle length (through LinearVelocityModel and the Hill
+ * equation), so no jaw geometry is needed between the ends of a bin.
+ * <p>
+ * A range is split in half until Simpson's rule on the halves agrees with
+ * Simpson's rule on the whole, for both integrands, so the steps are small
+ * where the velocity falls off near jaw closed (and the time per step grows
+ * quickly) and large elsewhere.
+ * <p>
+ * For {@link SimulationParameters#isExact() exact} integration the means come
+ * straight from the closed forms of {@link LinearVelocityModel} instead.
+ * <p>
+ * A quadrature keeps its results between calls, so it must only be used by
+ * one thread at a time.
+ * @author kurie
+ */
+class ClosingQuadrature {
+    /** How many times a range may be halved */
+    static final int MAX_DEPTH = 20;
+
+    private double tolerance;
+    private boolean exact;
+
+    /* the velocity model, see LinearVelocityModel */
+    private double v0, dvdl, len0;
+    private double maxVelocity, maxForce;
+
+    /* the integrands at the last length evaluated */
+    private double force, inverseVelocityFraction;
+
+    /* the integrals of the range being worked on */
+    private double forceIntegral, inverseVelocityFractionIntegral;
+
+    /* the results */
+    private double meanForce, meanInverseVelocityFraction;
+    private long evaluations;
+
+    /**
+     * Sets the muscle to integrate over.
+     * @param tolerance the relative error allowed in each integral
+     * @param exact whether to use the closed forms (the tolerance is then
+     * ignored)
+     * @param v0 the velocity at the starting length
+     * @param dvdl the slope of the length-velocity curve
+     * @param len0 the starting (max) length
+     * @param maxVelocity the maximum velocity of the muscle
+     * @param maxForce the maximum force of the muscle
+     */
+    void set(double tolerance, boolean exact, double v0, double dvdl, double len0, double maxVelocity, double maxForce) {
+        this.tolerance = tolerance;
+        this.exact = exact;
+        this.v0 = v0;
+        this.dvdl = dvdl;
+        this.len0 = len0;
+        this.maxVelocity = maxVelocity;
+        this.maxForce = maxForce;
+    }
+
+    /**
+     * Works out the mean force and mean inverse velocity fraction between two
+     * muscle lengths.
+     * @param from the length at the start of the range
+     * @param to the length at the end of the range
+     */
+    void integrate(double from, double to) {
+        if (exact) {
+            double x0 = LinearVelocityModel.getVelocity(v0, dvdl, len0, from) / maxVelocity;
+            double x1 = LinearVelocityModel.getVelocity(v0, dvdl, len0, to) / maxVelocity;
+            meanForce = LinearVelocityModel.getMeanForceFraction(x0, x1) * maxForce;
+            meanInverseVelocityFraction = LinearVelocityModel.getMeanInverseVelocityFraction(x0, x1);
+            evaluations++;
+            return;
+        }
+        evaluate(from);
+        double fa = force, ia = inverseVelocityFraction;
+        if (from == to) {
+            meanForce = fa;
+            meanInverseVelocityFraction = ia;
+            return;
+        }
+        double mid = (from + to) / 2;
+        evaluate(mid);
+        double fm = force, im = inverseVelocityFraction;
+        evaluate(to);
+        double fb = force, ib = inverseVelocityFraction;
+
+        double h = to - from;
+        double wholeForce = h / 6 * (fa + 4 * fm + fb);
+        double wholeInverse = h / 6 * (ia + 4 * im + ib);
+        forceIntegral = 0;
+        inverseVelocityFractionIntegral = 0;
+        refine(from, to, fa, fm, fb, ia, im, ib, wholeForce, wholeInverse,
+                tolerance * Math.abs(wholeForce), tolerance * Math.abs(wholeInverse), MAX_DEPTH);
+        meanForce = forceIntegral / h;
+        meanInverseVelocityFraction = inverseVelocityFractionIntegral / h;
+    }
+
+    /**
+     * Adds the integrals over a range to the running totals, halving it
+     * until the estimates agree to within the tolerances.
+     */
+    private void refine(double a, double b, double fa, double fm, double fb, double ia, double im, double ib,
+            double wholeForce, double wholeInverse, double forceTolerance, double inverseTolerance, int depth)
+    {
+        double m = (a + b) / 2;
+        double h = b - a;
+        evaluate((a + m) / 2);
+        double flm = force, ilm = inverseVelocityFraction;
+        evaluate((m + b) / 2);
+        double frm = force, irm = inverseVelocityFraction;
+
+        double leftForce = h / 12 * (fa + 4 * flm + fm);
+        double rightForce = h / 12 * (fm + 4 * frm + fb);
+        double leftInverse = h / 12 * (ia + 4 * ilm + im);
+        double rightInverse = h / 12 * (im + 4 * irm + ib);
+        double forceError = leftForce + rightForce - wholeForce;
+        double inverseError = leftInverse + rightInverse - wholeInverse;
+        if (depth <= 0 || (Math.abs(forceError) <= 15 * forceTolerance && Math.abs(inverseError) <= 15 * inverseTolerance)) {
+            //Richardson extrapolation
+            forceIntegral += leftForce + rightForce + forceError / 15;
+            inverseVelocityFractionIntegral += leftInverse + rightInverse + inverseError / 15;
+        } else {
+            refine(a, m, fa, flm, fm, ia, ilm, im, leftForce, leftInverse, forceTolerance / 2, inverseTolerance / 2, depth - 1);
+            refine(m, b, fm, frm, fb, im, irm, ib, rightForce, rightInverse, forceTolerance / 2, inverseTolerance / 2, depth - 1);
+        }
+    }
+
+    /**
+     * Works out the integrands at a length, with the limits of
+     * Muscle.setVelocity() and setForce().
+     */
+    private void evaluate(double length) {
+        evaluations++;
+        double velocity = LinearVelocityModel.getVelocity(v0, dvdl, len0, length);
+        double f = LinearVelocityModel.getForce(velocity, maxVelocity, maxForce);
+        force = f < 0 ? 0.0 : f > maxForce ? maxForce : f;
+        inverseVelocityFraction = 1 / Muscle.getVelocityFraction(velocity, maxVelocity);
+    }
+
+    /**
+     * @return the mean force over the last range integrated
+     */
+    double getMeanForce() {
+        return meanForce;
+    }
+
+    /**
+     * @return the mean of 1/(velocity fraction) over the last range
+     * integrated
+     */
+    double getMeanInverseVelocityFraction() {
+        return meanInverseVelocityFraction;
+    }
+
+    /**
+     * @return how many times the integrands have been worked out, in total
+     */
+    long getEvaluations() {
+        return evaluations;
+    }
+}
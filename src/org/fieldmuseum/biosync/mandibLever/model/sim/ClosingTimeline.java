@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.util.Arrays;
+import org.fieldmuseum.biosync.biomechanics.muscle.HillEquation;
+import org.fieldmuseum.biosync.kinematics.Joint;
+import org.fieldmuseum.biosync.mandibLever.model.MandibLeverMuscle;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.MandibleKinematics;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+
+/**
+ * The jaw closing of a specimen by one muscle, worked out ahead of time for
+ * playing back as an animation.  The closing is simulated once with a
+ * {@link SimulationEngine} (so it's the same as the "Run Sim" output), and
+ * the time, rotation, muscle length and force of each step, and where the
+ * joints are, are kept in plain arrays.  Getting a frame is then just a
+ * lookup and a linear interpolation between two steps, with no kinematics
+ * and nothing allocated.
+ * <p>
+ * Step 0 is the jaw at max-open, at time 0; step i is the end of bin i of
+ * the simulation.
+ * @author kurie
+ */
+public class ClosingTimeline {
+    /*
+     * The joints of a frame, in the order of getFrame().  The mandible joints
+     * have the same numbers as in MandibleKinematics.
+     */
+    public static final int QA_JOINT = MandibleKinematics.QA_JOINT;
+    public static final int A2_INSERTION = MandibleKinematics.A2_INSERTION;
+    public static final int A3_INSERTION = MandibleKinematics.A3_INSERTION;
+    public static final int IOM_LIGAMENT_INSERTION = MandibleKinematics.IOM_LIGAMENT_INSERTION;
+    public static final int ANTERIOR_JAW_TIP = MandibleKinematics.ANTERIOR_JAW_TIP;
+    public static final int A2_ORIGIN = MandibleKinematics.JOINT_COUNT;
+    public static final int A3_ORIGIN = MandibleKinematics.JOINT_COUNT + 1;
+    public static final int JOINT_COUNT = MandibleKinematics.JOINT_COUNT + 2;
+
+    private final int steps;
+
+    /* for each step */
+    private final double[] times;
+    private final double[] rotations;
+    private final double[] lengths;
+    private final double[] forces;
+    /** x and y of every joint, step by step */
+    private final double[] joints;
+
+    /**
+     * Simulates the closing of a specimen's jaw by one of its muscles.  The
+     * specimen isn't changed.
+     * @param specimen the specimen
+     * @param muscle the specimen's A2 or A3
+     * @param parameters the simulation parameters.  The number of bins is the
+     * number of steps after the first.
+     * @throws IllegalArgumentException if the muscle isn't the specimen's A2
+     * or A3
+     */
+    public ClosingTimeline(Specimen specimen, MandibLeverMuscle muscle, SimulationParameters parameters) throws IllegalArgumentException {
+        boolean isA2 = muscle == specimen.getA2();
+        if (!isA2 && muscle != specimen.getA3()) {
+            throw new IllegalArgumentException("The muscle isn't one of the specimen's.");
+        }
+        SpecimenResult specimenResult = new SimulationEngine(parameters).run(specimen, 1);
+        MuscleSimResult result = isA2 ? specimenResult.getA2() : specimenResult.getA3();
+
+        steps = result.getBins() + 1;
+        times = new double[steps];
+        rotations = new double[steps];
+        lengths = new double[steps];
+        forces = new double[steps];
+        joints = new double[steps * JOINT_COUNT * 2];
+
+        //max-open, with the velocity at its peak
+        Mandible mandible = specimen.getMandible();
+        MandibleKinematics kinematics = mandible.getKinematics();
+        Joint origin = muscle.getOtherJoint(mandible.getInsertion(muscle));
+        int insertion = isA2 ? MandibleKinematics.A2_INSERTION : MandibleKinematics.A3_INSERTION;
+        double forceFraction = Math.max(0, Math.min(1, HillEquation.getF(parameters.getPeakVMaxFraction())));
+        rotations[0] = parameters.getMaxRotation();
+        lengths[0] = kinematics.getDistance(insertion, origin.getX(), origin.getY(), rotations[0]);
+        forces[0] = forceFraction * result.getMaxForce();
+
+        for (int i = 1; i < steps; i++) {
+            times[i] = result.get(MuscleSimResult.TIME, i - 1) / 1000;
+            rotations[i] = -Math.toRadians(result.get(MuscleSimResult.JAW_ANGLE, i - 1));
+            lengths[i] = result.get(MuscleSimResult.LENGTH, i - 1);
+            forces[i] = result.get(MuscleSimResult.FORCE, i - 1);
+        }
+
+        Joint a2Origin = specimen.getA2().getOtherJoint(mandible.getA2Insertion());
+        Joint a3Origin = specimen.getA3().getOtherJoint(mandible.getA3Insertion());
+        for (int i = 0; i < steps; i++) {
+            int offset = i * JOINT_COUNT * 2;
+            for (int joint = 0; joint < MandibleKinematics.JOINT_COUNT; joint++) {
+                joints[offset + 2 * joint] = kinematics.getX(joint, rotations[i]);
+                joints[offset + 2 * joint + 1] = kinematics.getY(joint, rotations[i]);
+            }
+            joints[offset + 2 * A2_ORIGIN] = a2Origin.getX();
+            joints[offset + 2 * A2_ORIGIN + 1] = a2Origin.getY();
+            joints[offset + 2 * A3_ORIGIN] = a3Origin.getX();
+            joints[offset + 2 * A3_ORIGIN + 1] = a3Origin.getY();
+        }
+    }
+
+    /**
+     * @return the number of steps, including the max-open one
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the time the jaw takes to close, in s
+     */
+    public double getDuration() {
+        return times[steps - 1];
+    }
+
+    /**
+     * @return the time of a step, in s
+     */
+    public double getTime(int step) {
+        return times[step];
+    }
+
+    /**
+     * @return the jaw rotation of a step, in radians
+     */
+    public double getRotation(int step) {
+        return rotations[step];
+    }
+
+    /**
+     * @return the length of the closing muscle at a step
+     */
+    public double getLength(int step) {
+        return lengths[step];
+    }
+
+    /**
+     * @return the force of the closing muscle at a step, in N
+     */
+    public double getForce(int step) {
+        return forces[step];
+    }
+
+    /**
+     * Finds the step at or before a time.
+     * @param time the time, in s
+     * @return the step, from 0 to getSteps() - 1
+     */
+    public int getStep(double time) {
+        if (!(time > 0)) {
+            return 0;
+        }
+        int step = Arrays.binarySearch(times, time);
+        if (step < 0) {
+            step = -step - 2; //the one before the insertion point
+        }
+        return Math.min(step, steps - 1);
+    }
+
+    /**
+     * Gets the joint locations at a time, interpolated between the steps
+     * either side of it.  Times before 0 or after the end give the first or
+     * last step.
+     * @param time the time, in s
+     * @param frame where to put the x and y of each joint, in the order of
+     * {@link #QA_JOINT} to {@link #A3_ORIGIN}.  Must have room for
+     * 2 * {@link #JOINT_COUNT} values.
+     * @return the step at or before the time
+     */
+    public int getFrame(double time, double[] frame) {
+        int step = getStep(time);
+        int offset = step * JOINT_COUNT * 2;
+        if (step == steps - 1 || times[step + 1] == times[step]) {
+            System.arraycopy(joints, offset, frame, 0, JOINT_COUNT * 2);
+            return step;
+        }
+
+        double t = (time - times[step]) / (times[step + 1] - times[step]);
+        if (t < 0) {
+            t = 0;
+        }
+        int next = offset + JOINT_COUNT * 2;
+        for (int i = 0; i < JOINT_COUNT * 2; i++) {
+            frame[i] = joints[offset + i] + t * (joints[next + i] - joints[offset + i]);
+        }
+        return step;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Fast fixed-precision formatting of doubles, straight into a StringBuilder.
+ * The simulation output has a dozen numbers per bin, and formatting them with
+ * String.format (or a new DecimalFormat) took far longer than the simulation
+ * itself.
+ * <p>
+ * The output is the same as String.format(Locale.US, "%w.pf", value) and
+ * new DecimalFormat("0.00...", US symbols).format(value), so the decimal
+ * separator is always '.', whatever the default locale.  (A ',' would break
+ * the CSV columns.)  Values close enough to a rounding tie that the two
+ * rounding rules could disagree, very large values and NaN/infinity are
+ * passed to those formatters, so they come out the same too.
+ * @author kurie
+ */
+public abstract class FixedPointFormat {
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+        1000000000L, 10000000000L, 100000000000L, 1000000000000L
+    };
+
+    /**
+     * Above this the scaled value isn't precise enough to tell which way it
+     * rounds (and doesn't come up in simulation output)
+     */
+    private static final double MAX_SCALED = 1e12;
+
+    /** The largest precision supported */
+    public static final int MAX_PRECISION = 9;
+
+    /** The symbols of the values passed to DecimalFormat */
+    private static final DecimalFormatSymbols SYMBOLS = new DecimalFormatSymbols(Locale.US);
+
+    /**
+     * Appends a value like String.format(Locale.US, "%" + width + "." + precision + "f", value).
+     * (Rounding half up on the shortest decimal representation of the value.)
+     * @param sb where to append the value
+     * @param value the value
+     * @param width the minimum number of characters, padded with leading spaces
+     * @param precision the number of digits after the decimal point, at most
+     * {@link #MAX_PRECISION}
+     * @return sb
+     */
+    public static StringBuilder appendFormatted(StringBuilder sb, double value, int width, int precision) {
+        long digits = round(value, precision);
+        if (digits < 0) {
+            return sb.append(String.format(Locale.US, "%" + (width > 0 ? width : "") + "." + precision + "f", value));
+        }
+        return appendDigits(sb, isNegative(value), digits, width, precision);
+    }
+
+    /**
+     * Appends a value like new DecimalFormat("0.000").format(value) in the US
+     * locale, with as
+     * many zeros after the decimal point as the precision.  (Rounding half
+     * even on the exact binary value.)
+     * @param sb where to append the value
+     * @param value the value
+     * @param precision the number of digits after the decimal point, at most
+     * {@link #MAX_PRECISION}
+     * @return sb
+     */
+    public static StringBuilder appendDecimal(StringBuilder sb, double value, int precision) {
+        long digits = round(value, precision);
+        if (digits < 0) {
+            StringBuilder pattern = new StringBuilder("0");
+            if (precision > 0) {
+                pattern.append('.');
+                for (int i = 0; i < precision; i++) {
+                    pattern.append('0');
+                }
+            }
+            return sb.append(new DecimalFormat(pattern.toString(), SYMBOLS).format(value));
+        }
+        return appendDigits(sb, isNegative(value), digits, 0, precision);
+    }
+
+    /**
+     * Rounds the absolute value of a number to the given precision, scaled to
+     * an integer, e.g. 1.236 to precision 2 is 124.
+     * @return the rounded value, or -1 if it is too large, not finite, or too
+     * close to halfway between two rounded values to be sure which way the
+     * other formatters would round it
+     */
+    private static long round(double value, int precision) {
+        if (precision < 0 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be from 0 to " + MAX_PRECISION + ", not " + precision + ".");
+        }
+
+        double scaled = Math.abs(value) * POWERS_OF_TEN[precision];
+        if (!(scaled < MAX_SCALED)) { //also catches NaN
+            return -1;
+        }
+
+        long whole = (long) scaled;
+        double fraction = scaled - whole;
+
+        /*
+         * The scaled value can be off from the exact binary value (and from
+         * its shortest decimal representation, which Formatter rounds) by a
+         * couple of ulps.  Away from a tie, that can't change the result.
+         */
+        double tolerance = scaled * 1e-15 + 1e-9;
+        if (Math.abs(fraction - 0.5) <= tolerance) {
+            return -1;
+        }
+        return fraction > 0.5 ? whole + 1 : whole;
+    }
+
+    /**
+     * Appends a scaled, rounded value: sign, integer digits, then the
+     * decimal point and fraction digits, padded on the left to the width.
+     */
+    private static StringBuilder appendDigits(StringBuilder sb, boolean negative, long digits, int width, int precision) {
+        long scale = POWERS_OF_TEN[precision];
+        long integer = digits / scale;
+        long fraction = digits % scale;
+
+        int integerLength = 1;
+        while (integerLength < POWERS_OF_TEN.length && integer >= POWERS_OF_TEN[integerLength]) {
+            integerLength++;
+        }
+        int length = integerLength + (negative ? 1 : 0) + (precision > 0 ? precision + 1 : 0);
+        for (int i = length; i < width; i++) {
+            sb.append(' ');
+        }
+
+        if (negative) {
+            sb.append('-');
+        }
+        appendPadded(sb, integer, integerLength);
+        if (precision > 0) {
+            sb.append('.');
+            appendPadded(sb, fraction, precision);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a non-negative number with leading zeros, to the given number of digits.
+     */
+    private static void appendPadded(StringBuilder sb, long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            sb.append((char) ('0' + (value / POWERS_OF_TEN[i]) % 10));
+        }
+    }
+
+    /**
+     * Both formatters keep the minus sign of negative values that round to
+     * zero (and of -0.0)
+     */
+    private static boolean isNegative(double value) {
+        return value < 0 || (value == 0 && 1 / value < 0);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.Serializable;
+import org.fieldmuseum.biosync.stats.QuantileEstimator;
+import org.fieldmuseum.biosync.stats.RunningStatistics;
+
+/**
+ * The results of a {@link MonteCarloSimulation} of one specimen: for each of
+ * a few summary quantities, running statistics over the draws and the bounds
+ * of a confidence interval.  Nothing is kept of the individual draws.
+ * @author kurie
+ */
+public class MonteCarloResult implements Serializable {
+    /** Total bilateral bite force with the jaw closed, in N */
+    public static final int TOTAL_BITE_FORCE = 0;
+    /** Maximum total bilateral bite force, in N */
+    public static final int MAX_BITE_FORCE = 1;
+    /** A2 effective mechanical advantage, averaged over the closing simulation */
+    public static final int A2_EMA = 2;
+    /** A3 effective mechanical advantage, averaged over the closing simulation */
+    public static final int A3_EMA = 3;
+    /** A2 work, in J */
+    public static final int A2_WORK = 4;
+    /** A3 work, in J */
+    public static final int A3_WORK = 5;
+    /** A2 power per muscle mass, in W/kg */
+    public static final int A2_POWER_PER_KG = 6;
+    /** A3 power per muscle mass, in W/kg */
+    public static final int A3_POWER_PER_KG = 7;
+
+    /** The number of quantities */
+    public static final int QUANTITY_COUNT = 8;
+
+    /** Names of the quantities, for output */
+    public static final String[] QUANTITY_NAMES = {
+        "TotBiteF(N)", "MaxBite(N)", "EMAA2", "EMAA3", "WkA2(J)", "WkA3(J)", "PwA2(W/kg)", "PwA3(W/kg)"
+    };
+
+    private final int fishNum;
+    private final String name;
+    private final double confidence;
+    private long rejected;
+    private final RunningStatistics[] statistics = new RunningStatistics[QUANTITY_COUNT];
+    private final QuantileEstimator[] lowerBounds = new QuantileEstimator[QUANTITY_COUNT];
+    private final QuantileEstimator[] upperBounds = new QuantileEstimator[QUANTITY_COUNT];
+
+    /**
+     * @param fishNum the (1-based) position of the specimen in its data set
+     * @param name the specimen name
+     * @param confidence the confidence level of the intervals, e.g. 0.95
+     */
+    public MonteCarloResult(int fishNum, String name, double confidence) {
+        this.fishNum = fishNum;
+        this.name = name;
+        this.confidence = confidence;
+        for (int q = 0; q < QUANTITY_COUNT; q++) {
+            statistics[q] = new RunningStatistics();
+            lowerBounds[q] = new QuantileEstimator((1 - confidence) / 2);
+            upperBounds[q] = new QuantileEstimator(1 - (1 - confidence) / 2);
+        }
+    }
+
+    /**
+     * Adds the quantities of one draw.
+     * @param values {@link #QUANTITY_COUNT} values, starting at offset
+     */
+    void add(double[] values, int offset) {
+        for (int q = 0; q < QUANTITY_COUNT; q++) {
+            double value = values[offset + q];
+            statistics[q].add(value);
+            lowerBounds[q].add(value);
+            upperBounds[q].add(value);
+        }
+    }
+
+    /**
+     * Counts a draw that didn't make a valid specimen.
+     */
+    void addRejected() {
+        rejected++;
+    }
+
+    /**
+     * @return the (1-based) position of the specimen in its data set
+     */
+    public int getFishNum() {
+        return fishNum;
+    }
+
+    /**
+     * @return the specimen name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the confidence level of the intervals
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return the number of draws simulated
+     */
+    public long getDraws() {
+        return statistics[0].getCount();
+    }
+
+    /**
+     * @return the number of draws that didn't make a valid specimen, and so
+     * weren't simulated
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @param quantity one of the quantity constants
+     * @return the statistics of the quantity over the draws
+     */
+    public RunningStatistics getStatistics(int quantity) {
+        return statistics[quantity];
+    }
+
+    /**
+     * @param quantity one of the quantity constants
+     * @return the estimated lower bound of the confidence interval
+     */
+    public double getLowerBound(int quantity) {
+        return lowerBounds[quantity].getQuantile();
+    }
+
+    /**
+     * @param quantity one of the quantity constants
+     * @return the estimated upper bound of the confidence interval
+     */
+    public double getUpperBound(int quantity) {
+        return upperBounds[quantity].getQuantile();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+
+/**
+ * Propagates measurement error through the simulation.  Each specimen is
+ * rebuilt many times from randomly perturbed measurements (see
+ * {@link Specimen#getMeasurements()}) and simulated, and the spread of the
+ * results is summarized as a {@link MonteCarloResult}.
+ * <p>
+ * The error of a measurement is given as a standard deviation, relative to
+ * the measured value, absolute, or both (they're then combined as
+ * independent errors).  Draws with a negative measurement, or measurements
+ * that don't make a valid specimen, are counted and left out.
+ * <p>
+ * The draws are split into tasks run on a thread pool; each task has its own
+ * random number generator, seeded from the simulation's seed and the task's
+ * place in the run, so the results only depend on the seed (not on the
+ * number of threads).  A task's draws are simulated together as the lanes of
+ * a {@link SpecimenBatchKernel}, which only keeps the quantities summarized.
+ * The statistics are accumulated as the tasks finish, so only a window of
+ * draw summaries is ever held in memory.
+ * @author kurie
+ */
+public class MonteCarloSimulation {
+    /** How measurement errors are distributed */
+    public enum Distribution {
+        /** Normally distributed with the given standard deviation */
+        NORMAL,
+        /** Uniformly distributed, with the same standard deviation as NORMAL */
+        UNIFORM
+    }
+
+    /** The number of draws simulated by each task, one per kernel lane */
+    private static final int DRAWS_PER_TASK = SpecimenBatchKernel.BLOCK;
+
+    /** How many tasks per processor may be submitted ahead of the one being accumulated */
+    private static final int PENDING_PER_PROCESSOR = 4;
+
+    private final SimulationParameters parameters;
+    private final int draws;
+    private final long seed;
+    private final double[] relativeErrors = new double[Specimen.MEASUREMENT_NAMES.length];
+    private final double[] absoluteErrors = new double[Specimen.MEASUREMENT_NAMES.length];
+    private Distribution distribution = Distribution.NORMAL;
+    private double confidence = 0.95;
+
+    /**
+     * Creates a simulation with no measurement error; set the errors with the
+     * setters.
+     * @param parameters the parameters for every draw
+     * @param draws the number of draws per specimen
+     * @param seed the random number seed
+     * @throws IllegalArgumentException if draws is not positive
+     */
+    public MonteCarloSimulation(SimulationParameters parameters, int draws, long seed) throws IllegalArgumentException {
+        if (draws < 1) {
+            throw new IllegalArgumentException("The number of draws must be positive, not " + draws + ".");
+        }
+        this.parameters = parameters;
+        this.draws = draws;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the same relative error for every measurement.
+     * @param standardDeviation the standard deviation, as a fraction of the
+     * measured value
+     */
+    public void setRelativeError(double standardDeviation) {
+        for (int i = 0; i < relativeErrors.length; i++) {
+            relativeErrors[i] = standardDeviation;
+        }
+    }
+
+    /**
+     * @param measurement the index of the measurement, see
+     * {@link Specimen#MEASUREMENT_NAMES}
+     * @param standardDeviation the standard deviation, as a fraction of the
+     * measured value
+     */
+    public void setRelativeError(int measurement, double standardDeviation) {
+        relativeErrors[measurement] = standardDeviation;
+    }
+
+    /**
+     * @param measurement the index of the measurement, see
+     * {@link Specimen#MEASUREMENT_NAMES}
+     * @param standardDeviation the standard deviation, in the units of the
+     * measurement
+     */
+    public void setAbsoluteError(int measurement, double standardDeviation) {
+        absoluteErrors[measurement] = standardDeviation;
+    }
+
+    /**
+     * @param distribution how the measurement errors are distributed
+     */
+    public void setDistribution(Distribution distribution) {
+        this.distribution = distribution;
+    }
+
+    /**
+     * @param confidence the confidence level of the intervals, e.g. 0.95
+     * @throws IllegalArgumentException if the confidence isn't between 0 and 1
+     */
+    public void setConfidence(double confidence) throws IllegalArgumentException {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("The confidence level must be between 0 and 1, not " + confidence + ".");
+        }
+        this.confidence = confidence;
+    }
+
+    /**
+     * Runs the simulation with one thread per available processor.
+     * @param specimens the specimens
+     * @return one result per specimen, in the same order
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results
+     */
+    public List<MonteCarloResult> runParallel(List<Specimen> specimens) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return run(specimens, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs the simulation on the given executor.
+     * @param specimens the specimens
+     * @param executor the executor to run the draws on.  It is not shut down
+     * by this method.
+     * @return one result per specimen, in the same order
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     */
+    public List<MonteCarloResult> run(List<Specimen> specimens, ExecutorService executor) throws InterruptedException {
+        List<MonteCarloResult> results = new ArrayList<MonteCarloResult>();
+        int tasksPerSpecimen = (draws + DRAWS_PER_TASK - 1) / DRAWS_PER_TASK;
+        int maxPending = PENDING_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+
+        LinkedList<Future<double[]>> pending = new LinkedList<Future<double[]>>();
+        int submitted = 0; //tasks submitted, over all specimens
+        int accumulated = 0; //tasks accumulated
+        int totalTasks = tasksPerSpecimen * specimens.size();
+        try {
+            while (accumulated < totalTasks) {
+                while (submitted < totalTasks && pending.size() < maxPending) {
+                    int specimen = submitted / tasksPerSpecimen;
+                    int task = submitted % tasksPerSpecimen;
+                    int count = Math.min(DRAWS_PER_TASK, draws - task * DRAWS_PER_TASK);
+                    pending.add(submit(executor, specimens.get(specimen), specimen + 1, task, count));
+                    submitted++;
+                }
+
+                int specimen = accumulated / tasksPerSpecimen;
+                if (specimen == results.size()) {
+                    results.add(new MonteCarloResult(specimen + 1, specimens.get(specimen).getName(), confidence));
+                }
+                MonteCarloResult result = results.get(specimen);
+                double[] values = SimulationEngine.getResult(pending.removeFirst());
+                for (int offset = 0; offset < values.length; offset += MonteCarloResult.QUANTITY_COUNT) {
+                    if (Double.isNaN(values[offset])) {
+                        result.addRejected();
+                    } else {
+                        result.add(values, offset);
+                    }
+                }
+                accumulated++;
+            }
+        } finally {
+            //only does anything if we're leaving early
+            for (Future<double[]> future : pending) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private Future<double[]> submit(ExecutorService executor, final Specimen specimen, final int fishNum, final int task, final int count) {
+        final String name = specimen.getName();
+        final double[] measurements = specimen.getMeasurements();
+        return executor.submit(new Callable<double[]>() {
+            public double[] call() {
+                return simulateDraws(name, measurements, fishNum, task, count);
+            }
+        });
+    }
+
+    /**
+     * Simulates a block of draws of one specimen.
+     * @return {@link MonteCarloResult#QUANTITY_COUNT} values per draw, NaN
+     * for a rejected draw
+     */
+    private double[] simulateDraws(String name, double[] measurements, int fishNum, int task, int count) {
+        Random random = new Random(seed + 0x9E3779B97F4A7C15L * (((long) fishNum << 32) + task));
+        double[] standardDeviations = new double[measurements.length];
+        for (int i = 0; i < measurements.length; i++) {
+            double relative = relativeErrors[i] * measurements[i];
+            standardDeviations[i] = Math.sqrt(relative * relative + absoluteErrors[i] * absoluteErrors[i]);
+        }
+
+        //the valid draws, as the rows of a batch
+        double[] drawn = new double[measurements.length];
+        SpecimenBatch batch = new SpecimenBatch(count);
+        boolean[] rejected = new boolean[count];
+        for (int draw = 0; draw < count; draw++) {
+            boolean valid = true;
+            for (int i = 0; i < measurements.length; i++) {
+                drawn[i] = measurements[i] + standardDeviations[i] * nextError(random);
+                valid &= drawn[i] >= 0;
+            }
+            if (valid) {
+                try {
+                    batch.add(name, drawn);
+                } catch (IllegalArgumentException e) {
+                    valid = false; //not a valid specimen
+                }
+            }
+            rejected[draw] = !valid;
+        }
+
+        double[] summaries = new double[batch.size() * MonteCarloResult.QUANTITY_COUNT];
+        if (batch.size() > 0) {
+            SpecimenBatchKernel kernel = new SpecimenBatchKernel(batch.size());
+            for (int row = 0; row < batch.size(); row++) {
+                kernel.setLane(row, row, parameters);
+            }
+            kernel.runSummaries(batch, batch.size(), summaries);
+        }
+
+        double[] values = new double[count * MonteCarloResult.QUANTITY_COUNT];
+        int row = 0;
+        for (int draw = 0; draw < count; draw++) {
+            int offset = draw * MonteCarloResult.QUANTITY_COUNT;
+            if (rejected[draw]) {
+                values[offset] = Double.NaN;
+            } else {
+                System.arraycopy(summaries, row * MonteCarloResult.QUANTITY_COUNT, values, offset, MonteCarloResult.QUANTITY_COUNT);
+                row++;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return a random error with a standard deviation of 1
+     */
+    private double nextError(Random random) {
+        if (distribution == Distribution.UNIFORM) {
+            return Math.sqrt(3) * (2 * random.nextDouble() - 1);
+        }
+        return random.nextGaussian();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the results of a {@link MonteCarloSimulation} to one table,
+ * &lt;baseName&gt;.MonteCarlo.csv, with a row per specimen and quantity.
+ * @author kurie
+ */
+public class MonteCarloTableWriter implements Closeable {
+    /* ISO-8859-1 for Excel, same as SimulationCsvWriter */
+    private static final String ENCODING = "ISO-8859-1";
+
+    private final Writer out;
+
+    /** Reused for formatting each specimen's rows */
+    private final StringBuilder sb = new StringBuilder();
+
+    /**
+     * Creates the output file and writes the header.  An existing file is
+     * overwritten.
+     * @param directory the output directory
+     * @param baseName the start of the file name
+     * @throws IOException if the file can't be created
+     */
+    public MonteCarloTableWriter(File directory, String baseName) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, baseName + ".MonteCarlo.csv")), ENCODING));
+        try {
+            out.write(SimulationCsvFormat.MONTE_CARLO_HEADER);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the rows of one specimen.
+     */
+    public void write(MonteCarloResult result) throws IOException {
+        out.append(SimulationCsvFormat.appendMonteCarloRows(sb, result));
+        sb.setLength(0);
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.Serializable;
+
+/**
+ * The results of the closing simulation of one muscle (A2 or A3) of one
+ * specimen.  The per-bin values are stored as a table of columns (in the same
+ * order and units as the A2Sim/A3Sim output files), indexed by bin from 0
+ * (first step after max-open) to bins - 1 (jaw closed).  The closed-jaw
+ * summary values for the muscle are stored as plain fields.
+ * @author kurie
+ */
+public class MuscleSimResult implements Serializable {
+    /** Lower jaw angle, in degrees open */
+    public static final int JAW_ANGLE = 0;
+    /** Gape, in cm */
+    public static final int GAPE = 1;
+    /** Bite force contributed by this muscle, in N */
+    public static final int BITE_FORCE = 2;
+    /** Total bilateral bite force (A2 + A3, both sides), in N */
+    public static final int TOTAL_BITE_FORCE = 3;
+    /** Velocity as a fraction of vMax */
+    public static final int VELOCITY_FRACTION = 4;
+    /** Force as a fraction of fMax */
+    public static final int FORCE_FRACTION = 5;
+    /** Time since max-open, in ms */
+    public static final int TIME = 6;
+    /** Muscle length, in cm */
+    public static final int LENGTH = 7;
+    /** Contraction, in percent */
+    public static final int CONTRACTION = 8;
+    /** Muscle force acting, in N */
+    public static final int FORCE = 9;
+    /** Torque, in N m */
+    public static final int TORQUE = 10;
+    /** Effective mechanical advantage */
+    public static final int EMA = 11;
+    /** Angular velocity of the jaw, in degrees/ms */
+    public static final int ANGULAR_VELOCITY = 12;
+    /** Velocity of the jaw tip, in cm/ms */
+    public static final int GAPE_VELOCITY = 13;
+    /** Work done during this bin, in J */
+    public static final int WORK = 14;
+    /** Power during this bin, in W */
+    public static final int POWER = 15;
+    /** Power during this bin per muscle mass, in W/kg */
+    public static final int POWER_PER_KG = 16;
+
+    /** The number of per-bin columns */
+    public static final int COLUMN_COUNT = 17;
+
+    /** Names of the per-bin columns, for output (without the muscle name) */
+    public static final String[] COLUMN_NAMES = {
+        "LJangle(\u00B0)", "Gape(cm)", "BiteF(N)", "TotBilatBiteF(N)", "VVmax", "FFmax", "Time(ms)", "Length(cm)", "Cont%",
+        "Fact(N)", "Torque(Nm)", "EMA", "AngVel(\u00B0/ms)", "GapeVel(cm/ms)", "Work(J)", "Power(W)", "Power(W/kg)"
+    };
+
+    private final double[][] columns;
+
+    /* sums over all bins */
+    private double totalForce;
+    private double totalTorque;
+    private double totalTime;
+
+    /* closed-jaw summary */
+    private double closedBiteForce;
+    private double mechanicalAdvantage;
+    private double crossSectionArea;
+    private double maxForce;
+    private double totalWork;
+    private double powerPerKg;
+
+    /**
+     * Creates an empty result table.
+     * @param bins the number of bins in the simulation
+     */
+    public MuscleSimResult(int bins) {
+        columns = new double[COLUMN_COUNT][bins];
+    }
+
+    /**
+     * @return the number of bins
+     */
+    public int getBins() {
+        return columns[0].length;
+    }
+
+    /**
+     * @param column one of the column constants, e.g. {@link #FORCE}
+     * @param bin the bin, from 0 to getBins() - 1
+     * @return the value of the column at that bin
+     */
+    public double get(int column, int bin) {
+        return columns[column][bin];
+    }
+
+    /**
+     * @param column one of the column constants, e.g. {@link #FORCE}
+     * @return the whole column.  (Not a copy, so don't modify it.)
+     */
+    public double[] getColumn(int column) {
+        return columns[column];
+    }
+
+    void set(int column, int bin, double value) {
+        columns[column][bin] = value;
+    }
+
+    /**
+     * @return the muscle force acting, in N, summed over bins
+     */
+    public double getTotalForce() {
+        return totalForce;
+    }
+
+    /**
+     * @return the mean muscle force acting over the closing simulation, in N
+     */
+    public double getMeanForce() {
+        return totalForce / getBins();
+    }
+
+    /**
+     * @return the torque, in N m, summed over bins
+     */
+    public double getTotalTorque() {
+        return totalTorque;
+    }
+
+    /**
+     * @return the mean torque over the closing simulation, in N m
+     */
+    public double getMeanTorque() {
+        return totalTorque / getBins();
+    }
+
+    /**
+     * @return the time taken to close the jaw, in seconds
+     */
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    void setTotals(double totalForce, double totalTorque, double totalTime) {
+        this.totalForce = totalForce;
+        this.totalTorque = totalTorque;
+        this.totalTime = totalTime;
+    }
+
+    /**
+     * @return the bite force contributed by this muscle with the jaw closed, in N
+     */
+    public double getClosedBiteForce() {
+        return closedBiteForce;
+    }
+
+    /**
+     * @return the lever mechanical advantage of this muscle
+     */
+    public double getMechanicalAdvantage() {
+        return mechanicalAdvantage;
+    }
+
+    /**
+     * @return the muscle cross-sectional area, in cm^2
+     */
+    public double getCrossSectionArea() {
+        return crossSectionArea;
+    }
+
+    /**
+     * @return the maximum force of the muscle, in N
+     */
+    public double getMaxForce() {
+        return maxForce;
+    }
+
+    /**
+     * @return the work done over the whole closing simulation, in J
+     */
+    public double getTotalWork() {
+        return totalWork;
+    }
+
+    /**
+     * @return the mean power over the whole closing simulation per muscle
+     * mass, in W/kg
+     */
+    public double getPowerPerKg() {
+        return powerPerKg;
+    }
+
+    void setClosedSummary(double closedBiteForce, double mechanicalAdvantage, double crossSectionArea, double maxForce, double totalWork, double powerPerKg) {
+        this.closedBiteForce = closedBiteForce;
+        this.mechanicalAdvantage = mechanicalAdvantage;
+        this.crossSectionArea = crossSectionArea;
+        this.maxForce = maxForce;
+        this.totalWork = totalWork;
+        this.powerPerKg = powerPerKg;
+    }
+}
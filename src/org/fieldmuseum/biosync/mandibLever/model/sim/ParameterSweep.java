@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+
+/**
+ * Runs a data set once for every combination of a grid of max rotations,
+ * fMax, vMax and velocity fractions.  Every value not given a list of its own
+ * comes from the base parameters.
+ * <p>
+ * The specimens are held as a {@link SpecimenBatch}, and the runs (a
+ * specimen with a parameter combination) are simulated a block at a time, so
+ * each specimen's geometry is only worked out once, and the runs of a block
+ * go through the closing simulation side by side.  The results go to a
+ * {@link SimulationOutput} (e.g. a {@link SweepTableWriter}) specimen by
+ * specimen, in input order, and in grid order for each specimen; each result
+ * knows the parameters it was run with.
+ * @author kurie
+ */
+public class ParameterSweep {
+    private final SimulationParameters base;
+    private double[] maxRotations;
+    private double[] forcePerAreaMaxes;
+    private double[] velocityPerLengthMaxes;
+    private double[] peakVMaxFractions;
+    private double[] minVMaxFractions;
+
+    /**
+     * Creates a sweep of just the base parameters.  Set the lists of values to
+     * sweep over with the setters.
+     * @param base the number of bins, open duration and pennation angles, and
+     * any sweep values that aren't set
+     */
+    public ParameterSweep(SimulationParameters base) {
+        this.base = base;
+        maxRotations = new double[] {base.getMaxRotation()};
+        forcePerAreaMaxes = new double[] {base.getForcePerAreaMax()};
+        velocityPerLengthMaxes = new double[] {base.getVelocityPerLengthMax()};
+        peakVMaxFractions = new double[] {base.getPeakVMaxFraction()};
+        minVMaxFractions = new double[] {base.getMinVMaxFraction()};
+    }
+
+    /**
+     * Evenly spaced values, for the setters.
+     * @param first the first value
+     * @param last the last value
+     * @param count the number of values
+     * @return the values
+     * @throws IllegalArgumentException if count is not positive
+     */
+    public static double[] range(double first, double last, int count) throws IllegalArgumentException {
+        if (count < 1) {
+            throw new IllegalArgumentException("The number of values must be positive, not " + count + ".");
+        }
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = count == 1 ? first : first + (last - first) * i / (count - 1);
+        }
+        return values;
+    }
+
+    /**
+     * @param maxRotations the max jaw-open rotations to sweep over, in radians
+     */
+    public void setMaxRotations(double... maxRotations) {
+        this.maxRotations = checkValues(maxRotations);
+    }
+
+    /**
+     * @param forcePerAreaMaxes the fMax values to sweep over, in kPa
+     */
+    public void setForcePerAreaMaxes(double... forcePerAreaMaxes) {
+        this.forcePerAreaMaxes = checkValues(forcePerAreaMaxes);
+    }
+
+    /**
+     * @param velocityPerLengthMaxes the vMax values to sweep over, in muscle lengths/s
+     */
+    public void setVelocityPerLengthMaxes(double... velocityPerLengthMaxes) {
+        this.velocityPerLengthMaxes = checkValues(velocityPerLengthMaxes);
+    }
+
+    /**
+     * @param peakVMaxFractions the muscle velocities at max jaw-open to sweep
+     * over, as fractions of the max velocity
+     */
+    public void setPeakVMaxFractions(double... peakVMaxFractions) {
+        this.peakVMaxFractions = checkValues(peakVMaxFractions);
+    }
+
+    /**
+     * @param minVMaxFractions the muscle velocities at jaw closed to sweep
+     * over, as fractions of the max velocity
+     */
+    public void setMinVMaxFractions(double... minVMaxFractions) {
+        this.minVMaxFractions = checkValues(minVMaxFractions);
+    }
+
+    private static double[] checkValues(double[] values) throws IllegalArgumentException {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("A sweep needs at least one value for each parameter.");
+        }
+        return values.clone();
+    }
+
+    /**
+     * @return every combination of the sweep values, with the max rotation
+     * changing slowest and the min velocity fraction fastest
+     */
+    public List<SimulationParameters> getParameterSets() {
+        List<SimulationParameters> parameterSets = new ArrayList<SimulationParameters>();
+        for (double maxRotation : maxRotations) {
+            for (double forcePerAreaMax : forcePerAreaMaxes) {
+                for (double velocityPerLengthMax : velocityPerLengthMaxes) {
+                    for (double peakVMaxFraction : peakVMaxFractions) {
+                        for (double minVMaxFraction : minVMaxFractions) {
+                            parameterSets.add(base.withMaxRotation(maxRotation)
+                                    .withForcePerAreaMax(forcePerAreaMax)
+                                    .withVelocityPerLengthMax(velocityPerLengthMax)
+                                    .withVMaxFractions(peakVMaxFraction, minVMaxFraction));
+                        }
+                    }
+                }
+            }
+        }
+        return parameterSets;
+    }
+
+    /**
+     * Runs the sweep with one thread per available processor.
+     * @param specimens the specimens
+     * @param output where to write the results
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results
+     * @throws IOException if the output fails
+     */
+    public void runParallel(List<Specimen> specimens, SimulationOutput output) throws InterruptedException, IOException {
+        runParallel(toBatch(specimens), output);
+    }
+
+    /**
+     * Runs the sweep with one thread per available processor.
+     * @param batch the specimens
+     * @param output where to write the results
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results
+     * @throws IOException if the output fails
+     */
+    public void runParallel(SpecimenBatch batch, SimulationOutput output) throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            run(batch, executor, output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs the sweep on the given executor, and writes the results to an
+     * output in order.
+     * @param specimens the specimens
+     * @param executor the executor to run the tasks on.  It is not shut down
+     * by this method.
+     * @param output where to write the results.  Only called from the calling
+     * thread.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     * @throws IOException if the output fails.  Any tasks not yet finished are
+     * cancelled.
+     */
+    public void run(List<Specimen> specimens, ExecutorService executor, SimulationOutput output) throws InterruptedException, IOException {
+        run(toBatch(specimens), executor, output);
+    }
+
+    /**
+     * Runs the sweep on the given executor, and writes the results to an
+     * output in order.  Each task simulates a block of runs together, see
+     * {@link SpecimenBatchKernel}; the blocks are small enough to keep every
+     * processor busy, even with only a few runs.
+     * @param batch the specimens
+     * @param executor the executor to run the tasks on.  It is not shut down
+     * by this method.
+     * @param output where to write the results.  Only called from the calling
+     * thread.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     * @throws IOException if the output fails.  Any tasks not yet finished are
+     * cancelled.
+     */
+    public void run(SpecimenBatch batch, ExecutorService executor, SimulationOutput output) throws InterruptedException, IOException {
+        SpecimenBatchKernel.run(batch, getParameterSets(), executor, output);
+    }
+
+    private static SpecimenBatch toBatch(List<Specimen> specimens) {
+        SpecimenBatch batch = new SpecimenBatch(specimens.size());
+        for (Specimen specimen : specimens) {
+            batch.add(specimen);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import org.fieldmuseum.biosync.biomechanics.muscle.HillEquation;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.stats.RunningStatistics;
+
+/**
+ * Formats simulation results as rows of the MandibLever output files
+ * (OpenSum, CloseSum, A2Sim, A3Sim, Sweep, MonteCarlo, Aggregate and
+ * BinAggregate).  Each row ends with a newline.
+ * @author kurie
+ */
+public class SimulationCsvFormat {
+    public static final String OPEN_HEADER = ",Fish,Spec,JawAng(\u00B0),Gape(cm),OpenDur(ms),MAOpen,VROpen,AngV(\u00B0/s),VOpen(cm/s)\n";
+    public static final String CLOSED_HEADER = ",Fish,Spec,JawAng(\u00B0),BiteFA2(N),BiteFA3(N),TotBiteF(N),MaxBite(N),MAA2,MAA3,MusF(kPa),A2csa(cm2),FmaxA2(N),xFA2(N),xTqA2(Nm),WkA2(J),PwA2(W),A3csa(cm2),FmaxA3(N),xFA3(N),xTqA3(Nm),WkA3(J),PwA3(W),Vmax(l/s),HiVVmax(%),LoVVmax(%),HiFFmax(%),LoFFmax(%)\n";
+    public static final String A2_HEADER = "A2HillSim,Fish,Spec,\"LJangle(\u00B0)\",Gape(cm),BiteFA2(N),TotBilatBiteF(N),VVmaxA2,FFmaxA2,TimeA2(ms),A2c(cm),A2cont%,A2Fact(N),Torque(Nm),EMA,AngVel(\u00B0/ms),GapeVel(cm/ms),A2Work(J),A2Power(W),A2Power(W/kg)\n";
+    public static final String A3_HEADER = "A3HillSim,Fish,Spec,\"LJangle(\u00B0)\",Gape(cm),BiteFA3(N),TotBilatBiteF(N),VVmaxA3,FFmaxA3,TimeA3(ms),A3c(cm),A3cont%,A3Fact(N),Torque(Nm),EMA,AngVel(\u00B0/ms),GapeVel(cm/ms),A3Work(J),A3Power(W),A3Power(W/kg)\n";
+    public static final String SWEEP_HEADER = ",JawAng(\u00B0),MusF(kPa),Vmax(l/s),HiVVmax(%),LoVVmax(%),Fish,Spec,Gape(cm),MAOpen,VROpen,AngV(\u00B0/s),VOpen(cm/s),TotBiteF(N),MaxBite(N),MAA2,MAA3,FmaxA2(N),xFA2(N),xTqA2(Nm),WkA2(J),PwA2(W),FmaxA3(N),xFA3(N),xTqA3(Nm),WkA3(J),PwA3(W)\n";
+    public static final String MONTE_CARLO_HEADER = ",Fish,Spec,Quantity,N,Rejected,Mean,SD,Min,Max,Lower,Upper\n";
+    public static final String AGGREGATE_HEADER = ",Group,Quantity,N,Mean,SD,Min,Q1,Median,Q3,Max\n";
+    public static final String BIN_AGGREGATE_HEADER = ",Group,Muscle,Bin,Quantity,N,Mean,SD,Min,Max\n";
+
+    /**
+     * Appends the OpenSum row of a specimen.
+     * @return ,Fish,Spec,JawAng(°),Gape(cm),OpenDur(ms),MAOpen,VROpen,AngV(°/s),VOpen(cm/s)
+     */
+    public static StringBuilder appendOpenRow(StringBuilder sb, SpecimenResult result) {
+        sb.append(",").append(result.getFishNum());
+        sb.append(",").append(result.getName());
+        appendFormatted(sb, result.getOpenJawAngle(), 8, 0);
+        appendFormatted(sb, result.getOpenGape(), 8, 2);
+        appendFormatted(sb, result.getOpenDuration(), 8, 2);
+        appendFormatted(sb, result.getOpenMechanicalAdvantage(), 8, 2);
+        appendFormatted(sb, result.getOpenVelocityRatio(), 8, 2);
+        appendFormatted(sb, result.getOpenAngularVelocity(), 8, 2);
+        appendFormatted(sb, result.getOpenTipVelocity(), 8, 4);
+        return sb.append('\n');
+    }
+
+    /**
+     * Appends the CloseSum row of a specimen.
+     * @return ,Fish,Spec,JawAng(°),BiteFA2(N),BiteFA3(N),TotBiteF(N),MaxBite(N),MAA2,MAA3,MusF(kPa),A2csa(cm2),FmaxA2(N),xFA2(N),xTqA2(Nm),WkA2(J),PwA2(W),A3csa(cm2),FmaxA3(N),xFA3(N),xTqA3(Nm),WkA3(J),PwA3(W),Vmax(l/s),HiVVmax(%),LoVVmax(%),HiFFmax(%),LoFFmax(%)
+     */
+    public static StringBuilder appendClosedRow(StringBuilder sb, SpecimenResult result) {
+        MuscleSimResult a2 = result.getA2();
+        MuscleSimResult a3 = result.getA3();
+        SimulationParameters parameters = result.getParameters();
+
+        sb.append(",").append(result.getFishNum());
+        sb.append(",").append(result.getName());
+        appendFormatted(sb, result.getClosedJawAngle(), 8, 0);
+        appendDecimal(sb, a2.getClosedBiteForce(), 6);
+        appendDecimal(sb, a3.getClosedBiteForce(), 6);
+        appendDecimal(sb, result.getTotalBiteForce(), 6);
+        appendDecimal(sb, result.getMaxBiteForce(), 6); //max total bite
+        appendDecimal(sb, a2.getMechanicalAdvantage(), 2);
+        appendDecimal(sb, a3.getMechanicalAdvantage(), 2);
+        sb.append(",").append(parameters.getForcePerAreaMax());
+        appendDecimal(sb, a2.getCrossSectionArea(), 6);
+        appendDecimal(sb, a2.getMaxForce(), 6);
+        appendDecimal(sb, a2.getMeanForce(), 6); //xFA2(N) mean force
+        appendDecimal(sb, a2.getMeanTorque(), 8); //xTqA2(Nm) mean torque
+        appendDecimal(sb, a2.getTotalWork(), 8); //WkA2(J)
+        appendDecimal(sb, a2.getPowerPerKg(), 2); //PwA2(W)
+        appendDecimal(sb, a3.getCrossSectionArea(), 6);
+        appendDecimal(sb, a3.getMaxForce(), 6);
+        appendDecimal(sb, a3.getMeanForce(), 6); //xFA3(N) mean force
+        appendDecimal(sb, a3.getMeanTorque(), 8); //xTqA3(Nm) mean torque
+        appendDecimal(sb, a3.getTotalWork(), 8); //WkA3(J)
+        appendDecimal(sb, a3.getPowerPerKg(), 2); //PwA3(W)
+        sb.append(",").append(parameters.getVelocityPerLengthMax()); //Vmax(l/s)
+        sb.append(",").append(parameters.getPeakVMaxFraction()); //HiVVmax(%)
+        sb.append(",").append(parameters.getMinVMaxFraction()); //LoVVmax(%)
+        sb.append(",").append(HillEquation.getF(parameters.getMinVMaxFraction())); //HiFFmax(%)
+        sb.append(",").append(HillEquation.getF(parameters.getPeakVMaxFraction())); //LoFFmax(%)
+        return sb.append('\n');
+    }
+
+    /**
+     * Appends the row of a specimen in a parameter sweep table: the swept
+     * parameters, then the main open and closed summary values.
+     * @return ,JawAng(°),MusF(kPa),Vmax(l/s),HiVVmax(%),LoVVmax(%),Fish,Spec,Gape(cm),MAOpen,VROpen,AngV(°/s),VOpen(cm/s),TotBiteF(N),MaxBite(N),MAA2,MAA3,FmaxA2(N),xFA2(N),xTqA2(Nm),WkA2(J),PwA2(W),FmaxA3(N),xFA3(N),xTqA3(Nm),WkA3(J),PwA3(W)
+     */
+    public static StringBuilder appendSweepRow(StringBuilder sb, SpecimenResult result) {
+        MuscleSimResult a2 = result.getA2();
+        MuscleSimResult a3 = result.getA3();
+        SimulationParameters parameters = result.getParameters();
+
+        appendDecimal(sb, result.getOpenJawAngle(), 2);
+        sb.append(",").append(parameters.getForcePerAreaMax());
+        sb.append(",").append(parameters.getVelocityPerLengthMax());
+        sb.append(",").append(parameters.getPeakVMaxFraction());
+        sb.append(",").append(parameters.getMinVMaxFraction());
+        sb.append(",").append(result.getFishNum());
+        sb.append(",").append(result.getName());
+        appendDecimal(sb, result.getOpenGape(), 4);
+        appendDecimal(sb, result.getOpenMechanicalAdvantage(), 4);
+        appendDecimal(sb, result.getOpenVelocityRatio(), 4);
+        appendDecimal(sb, result.getOpenAngularVelocity(), 2);
+        appendDecimal(sb, result.getOpenTipVelocity(), 4);
+        appendDecimal(sb, result.getTotalBiteForce(), 6);
+        appendDecimal(sb, result.getMaxBiteForce(), 6);
+        appendDecimal(sb, a2.getMechanicalAdvantage(), 4);
+        appendDecimal(sb, a3.getMechanicalAdvantage(), 4);
+        appendDecimal(sb, a2.getMaxForce(), 6);
+        appendDecimal(sb, a2.getMeanForce(), 6);
+        appendDecimal(sb, a2.getMeanTorque(), 8);
+        appendDecimal(sb, a2.getTotalWork(), 8);
+        appendDecimal(sb, a2.getPowerPerKg(), 2);
+        appendDecimal(sb, a3.getMaxForce(), 6);
+        appendDecimal(sb, a3.getMeanForce(), 6);
+        appendDecimal(sb, a3.getMeanTorque(), 8);
+        appendDecimal(sb, a3.getTotalWork(), 8);
+        appendDecimal(sb, a3.getPowerPerKg(), 2);
+        return sb.append('\n');
+    }
+
+    /**
+     * Appends one row per quantity of a specimen's Monte Carlo result.
+     * @return ,Fish,Spec,Quantity,N,Rejected,Mean,SD,Min,Max,Lower,Upper
+     */
+    public static StringBuilder appendMonteCarloRows(StringBuilder sb, MonteCarloResult result) {
+        for (int quantity = 0; quantity < MonteCarloResult.QUANTITY_COUNT; quantity++) {
+            RunningStatistics statistics = result.getStatistics(quantity);
+            sb.append(",").append(result.getFishNum());
+            sb.append(",").append(result.getName());
+            sb.append(",").append(MonteCarloResult.QUANTITY_NAMES[quantity]);
+            sb.append(",").append(statistics.getCount());
+            sb.append(",").append(result.getRejected());
+            appendStatistic(sb, statistics.getMean(), 8);
+            appendStatistic(sb, statistics.getStandardDeviation(), 8);
+            appendStatistic(sb, statistics.getMin(), 8);
+            appendStatistic(sb, statistics.getMax(), 8);
+            appendStatistic(sb, result.getLowerBound(quantity), 8);
+            appendStatistic(sb, result.getUpperBound(quantity), 8);
+            sb.append('\n');
+        }
+        return sb;
+    }
+
+    /**
+     * Appends one row per quantity of a group of specimens' summary statistics.
+     * @return ,Group,Quantity,N,Mean,SD,Min,Q1,Median,Q3,Max
+     */
+    public static StringBuilder appendAggregateRows(StringBuilder sb, AggregateStatistics.Group group) {
+        for (int quantity = 0; quantity < AggregateStatistics.QUANTITY_COUNT; quantity++) {
+            RunningStatistics statistics = group.getStatistics(quantity);
+            sb.append(",").append(group.getName());
+            sb.append(",").append(AggregateStatistics.QUANTITY_NAMES[quantity]);
+            sb.append(",").append(statistics.getCount());
+            appendStatistic(sb, statistics.getMean(), 8);
+            appendStatistic(sb, statistics.getStandardDeviation(), 8);
+            appendStatistic(sb, statistics.getMin(), 8);
+            appendStatistic(sb, group.getQuartile(1, quantity), 8);
+            appendStatistic(sb, group.getQuartile(2, quantity), 8);
+            appendStatistic(sb, group.getQuartile(3, quantity), 8);
+            appendStatistic(sb, statistics.getMax(), 8);
+            sb.append('\n');
+        }
+        return sb;
+    }
+
+    /**
+     * Appends one row per muscle, bin and column of a group of specimens'
+     * per-bin statistics.  Bins are numbered from 1.
+     * @return ,Group,Muscle,Bin,Quantity,N,Mean,SD,Min,Max
+     */
+    public static StringBuilder appendBinAggregateRows(StringBuilder sb, AggregateStatistics.Group group) {
+        for (int muscle = 0; muscle < 2; muscle++) {
+            for (int bin = 0; bin < group.getBins(); bin++) {
+                for (int column = 0; column < MuscleSimResult.COLUMN_COUNT; column++) {
+                    RunningStatistics statistics = muscle == 0 ? group.getA2Statistics(bin, column) : group.getA3Statistics(bin, column);
+                    sb.append(",").append(group.getName());
+                    sb.append(muscle == 0 ? ",A2" : ",A3");
+                    sb.append(",").append(bin + 1);
+                    sb.append(",").append(MuscleSimResult.COLUMN_NAMES[column]);
+                    sb.append(",").append(statistics.getCount());
+                    appendStatistic(sb, statistics.getMean(), 9);
+                    appendStatistic(sb, statistics.getStandardDeviation(), 9);
+                    appendStatistic(sb, statistics.getMin(), 9);
+                    appendStatistic(sb, statistics.getMax(), 9);
+                    sb.append('\n');
+                }
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a header line and one row per bin of a muscle's closing
+     * simulation, in the format of the A2Sim/A3Sim files.
+     * @param header {@link #A2_HEADER} or {@link #A3_HEADER}
+     */
+    public static StringBuilder appendMuscleRows(StringBuilder sb, String header, SpecimenResult specimen, MuscleSimResult result) {
+        sb.append(header);
+        for (int bin = 0; bin < result.getBins(); bin++) {
+            sb.append(",").append(specimen.getFishNum());
+            sb.append(",").append(specimen.getName());
+            appendFormatted(sb, result.get(MuscleSimResult.JAW_ANGLE, bin), 8, 2);
+            appendFormatted(sb, result.get(MuscleSimResult.GAPE, bin), 10, 3);
+            appendFormatted(sb, result.get(MuscleSimResult.BITE_FORCE, bin), 12, 6);
+            appendFormatted(sb, result.get(MuscleSimResult.TOTAL_BITE_FORCE, bin), 12, 6);
+            appendFormatted(sb, result.get(MuscleSimResult.VELOCITY_FRACTION, bin), 8, 2);
+            appendFormatted(sb, result.get(MuscleSimResult.FORCE_FRACTION, bin), 12, 6);
+            appendFormatted(sb, result.get(MuscleSimResult.TIME, bin), 8, 2);
+            appendFormatted(sb, result.get(MuscleSimResult.LENGTH, bin), 8, 4);
+            appendFormatted(sb, result.get(MuscleSimResult.CONTRACTION, bin), 8, 2);
+            appendFormatted(sb, result.get(MuscleSimResult.FORCE, bin), 12, 6);
+            appendFormatted(sb, result.get(MuscleSimResult.TORQUE, bin), 12, 8);
+            appendFormatted(sb, result.get(MuscleSimResult.EMA, bin), 8, 3);
+            appendFormatted(sb, result.get(MuscleSimResult.ANGULAR_VELOCITY, bin), 8, 3);
+            appendFormatted(sb, result.get(MuscleSimResult.GAPE_VELOCITY, bin), 8, 4);
+            appendFormatted(sb, result.get(MuscleSimResult.WORK, bin), 14, 9);
+            appendFormatted(sb, result.get(MuscleSimResult.POWER, bin), 10, 6);
+            appendFormatted(sb, result.get(MuscleSimResult.POWER_PER_KG, bin), 8, 2);
+            sb.append('\n');
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a comma and a value, like String.format("%width.precisionf")
+     */
+    private static void appendFormatted(StringBuilder sb, double value, int width, int precision) {
+        FixedPointFormat.appendFormatted(sb.append(','), value, width, precision);
+    }
+
+    /**
+     * Appends a comma and a value, like new DecimalFormat("0.00...")
+     */
+    private static void appendDecimal(StringBuilder sb, double value, int precision) {
+        FixedPointFormat.appendDecimal(sb.append(','), value, precision);
+    }
+
+    /**
+     * Appends a comma and a statistic like {@link #appendDecimal}, or just
+     * the comma if it is undefined (e.g. the SD of one value)
+     */
+    private static void appendStatistic(StringBuilder sb, double value, int precision) {
+        if (Double.isNaN(value)) {
+            sb.append(',');
+        } else {
+            appendDecimal(sb, value, precision);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes simulation results to the four MandibLever output files
+ * (OpenSum, CloseSum, A2Sim and A3Sim) as each specimen finishes, so the
+ * whole data set never has to be held in memory.  The files are flushed after
+ * every specimen, so they can be read while the run is still going.
+ * <p>
+ * Not thread-safe; {@link SimulationEngine} only writes from one thread.
+ * @author kurie
+ */
+public class SimulationCsvWriter implements SimulationOutput, Closeable {
+    /*
+     * Using ISO-8859-1 here because Excel refuses to treat UTF-8 output as
+     * UTF-8 (on win XP), so the degree symbols get an extra character added.
+     */
+    private static final String ENCODING = "ISO-8859-1";
+
+    private final Writer open;
+    private final Writer closed;
+    private final Writer a2Out;
+    private final Writer a3Out;
+
+    /** Reused for formatting the rows of each specimen */
+    private final StringBuilder sb = new StringBuilder();
+
+    /**
+     * Creates the output files &lt;baseName&gt;.OpenSum.csv,
+     * &lt;baseName&gt;.CloseSum.csv, &lt;baseName&gt;.A2Sim.csv and
+     * &lt;baseName&gt;.A3Sim.csv in a directory, and writes the summary
+     * headers.  Existing files are overwritten.
+     * @param directory the output directory
+     * @param baseName the start of the file names
+     * @throws IOException if any of the files can't be created
+     */
+    public SimulationCsvWriter(File directory, String baseName) throws IOException {
+        Writer openWriter = null, closedWriter = null, a2Writer = null, a3Writer = null;
+        try {
+            openWriter = createWriter(new File(directory, baseName + ".OpenSum.csv"));
+            closedWriter = createWriter(new File(directory, baseName + ".CloseSum.csv"));
+            a2Writer = createWriter(new File(directory, baseName + ".A2Sim.csv"));
+            a3Writer = createWriter(new File(directory, baseName + ".A3Sim.csv"));
+        } catch (IOException e) {
+            closeQuietly(openWriter);
+            closeQuietly(closedWriter);
+            closeQuietly(a2Writer);
+            throw e;
+        }
+        open = openWriter;
+        closed = closedWriter;
+        a2Out = a2Writer;
+        a3Out = a3Writer;
+
+        open.write(SimulationCsvFormat.OPEN_HEADER);
+        closed.write(SimulationCsvFormat.CLOSED_HEADER);
+    }
+
+    /**
+     * Writes the rows of one specimen to each file.
+     */
+    public void write(SpecimenResult result) throws IOException {
+        write(open, SimulationCsvFormat.appendOpenRow(sb, result));
+        write(a2Out, SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A2_HEADER, result, result.getA2()));
+        write(a3Out, SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A3_HEADER, result, result.getA3()));
+        write(closed, SimulationCsvFormat.appendClosedRow(sb, result));
+    }
+
+    /**
+     * Closes all of the files, even if closing one of them fails.
+     * @throws IOException the first exception thrown while closing
+     */
+    public void close() throws IOException {
+        IOException exception = null;
+        for (Writer writer : new Writer[] {open, closed, a2Out, a3Out}) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Writes and clears the formatted rows, then flushes the file so the rows
+     * are visible to readers.
+     */
+    private void write(Writer writer, StringBuilder rows) throws IOException {
+        writer.append(rows);
+        writer.flush();
+        rows.setLength(0);
+    }
+
+    private static Writer createWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), ENCODING));
+    }
+
+    private static void closeQuietly(Writer writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                //already failing, the original exception is more useful
+            }
+        }
+    }
+}
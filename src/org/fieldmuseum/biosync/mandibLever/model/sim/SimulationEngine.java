@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.fieldmuseum.biosync.mandibLever.model.LinearVelocityModel;
+import org.fieldmuseum.biosync.mandibLever.model.MandibLeverMuscle;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+
+/**
+ * Runs the MandibLever simulation on specimens, without any GUI.  The jaw of
+ * each specimen is opened to the max rotation, then closed by each muscle in
+ * turn (in equal muscle-length steps), and the closed jaw is summarized.
+ * <p>
+ * The specimens passed in are not modified; each one is cloned first (so the
+ * GUI doesn't get events from it, which would slow the simulation down a lot).
+ * Since every specimen works on its own clone, specimens can also be
+ * simulated in parallel, see {@link #run(List, ExecutorService)}.  Large data
+ * sets can be streamed to a {@link SimulationOutput} instead of being collected
+ * in a list, and very large ones can be held as a {@link SpecimenBatch}
+ * instead of as Specimen objects.
+ * @author kurie
+ */
+public class SimulationEngine {
+    /**
+     * How many specimens per processor may be submitted ahead of the result
+     * being written, when running in parallel.
+     */
+    private static final int PENDING_PER_PROCESSOR = 4;
+
+    private final SimulationParameters parameters;
+
+    /**
+     * @param parameters the parameters to use for every run of this engine
+     */
+    public SimulationEngine(SimulationParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the parameters
+     */
+    public SimulationParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Simulates a list of specimens.
+     * @param specimens the specimens
+     * @return the results, in the same order as the specimens
+     */
+    public List<SpecimenResult> run(List<Specimen> specimens) {
+        List<SpecimenResult> results = new ArrayList<SpecimenResult>(specimens.size());
+        int fishNum = 0;
+        for (Specimen specimen : specimens) {
+            fishNum++;
+            results.add(run(specimen, fishNum));
+        }
+        return results;
+    }
+
+    /**
+     * Simulates a list of specimens in parallel, on a thread pool with one
+     * thread per available processor.
+     * @param specimens the specimens
+     * @return the results, in the same order as the specimens
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results
+     */
+    public List<SpecimenResult> runParallel(List<Specimen> specimens) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return run(specimens, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Simulates a list of specimens, one task per specimen on the given
+     * executor.  The results are collected back in input order, so they are
+     * the same as the results of {@link #run(List)}.
+     * @param specimens the specimens
+     * @param executor the executor to run the specimens on.  It is not shut
+     * down by this method.
+     * @return the results, in the same order as the specimens
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     */
+    public List<SpecimenResult> run(List<Specimen> specimens, ExecutorService executor) throws InterruptedException {
+        final List<SpecimenResult> results = new ArrayList<SpecimenResult>(specimens.size());
+        try {
+            run(specimens, executor, new SimulationOutput() {
+                public void write(SpecimenResult result) {
+                    results.add(result);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //not thrown by the output above
+        }
+        return results;
+    }
+
+    /**
+     * Simulates a list of specimens in parallel, on a thread pool with one
+     * thread per available processor, and writes each result to an output as
+     * soon as it (and every result before it) is finished.
+     * @param specimens the specimens
+     * @param output where to write the results
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results
+     * @throws IOException if the output fails
+     */
+    public void runParallel(List<Specimen> specimens, SimulationOutput output) throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            run(specimens, executor, output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Simulates a list of specimens, one task per specimen on the given
+     * executor, and writes the results to an output in input order.  Only a
+     * limited number of specimens are submitted ahead of the one being
+     * written, so memory use doesn't grow with the size of the data set.
+     * @param specimens the specimens
+     * @param executor the executor to run the specimens on.  It is not shut
+     * down by this method.
+     * @param output where to write the results.  Only called from the calling
+     * thread.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     * @throws IOException if the output fails.  Any tasks not yet finished are
+     * cancelled.
+     */
+    public void run(List<Specimen> specimens, ExecutorService executor, SimulationOutput output) throws InterruptedException, IOException {
+        int maxPending = PENDING_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        LinkedList<Future<SpecimenResult>> pending = new LinkedList<Future<SpecimenResult>>();
+        Iterator<Specimen> iterator = specimens.iterator();
+        int fishNum = 0;
+        try {
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < maxPending) {
+                    fishNum++;
+                    pending.add(submit(executor, iterator.next(), fishNum));
+                }
+                output.write(getResult(pending.removeFirst()));
+            }
+        } finally {
+            //only does anything if we're leaving early
+            for (Future<SpecimenResult> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Simulates a batch of specimens.
+     * @param batch the specimens
+     * @return the results, in the same order as the specimens
+     */
+    public List<SpecimenResult> run(SpecimenBatch batch) {
+        final List<SpecimenResult> results = new ArrayList<SpecimenResult>(batch.size());
+        try {
+            run(batch, new SimulationOutput() {
+                public void write(SpecimenResult result) {
+                    results.add(result);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //not thrown by the output above
+        }
+        return results;
+    }
+
+    /**
+     * Simulates a batch of specimens, a block at a time, and writes the
+     * results to an output in order.  The results are the same as simulating
+     * the specimens one by one (see {@link SpecimenBatchKernel}).
+     * @param batch the specimens
+     * @param output where to write the results
+     * @throws IOException if the output fails
+     */
+    public void run(SpecimenBatch batch, SimulationOutput output) throws IOException {
+        SpecimenBatchKernel.run(batch, Collections.singletonList(parameters), output);
+    }
+
+    /**
+     * Simulates a batch of specimens in parallel, on a thread pool with one
+     * thread per available processor, and writes the results to an output in
+     * order.
+     * @param batch the specimens
+     * @param output where to write the results
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results
+     * @throws IOException if the output fails
+     */
+    public void runParallel(SpecimenBatch batch, SimulationOutput output) throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            run(batch, executor, output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Simulates a batch of specimens, one task per block of specimens on the
+     * given executor, and writes the results to an output in order.  As with
+     * {@link #run(List, ExecutorService, SimulationOutput)}, only a limited
+     * number of blocks are submitted ahead of the one being written.
+     * @param batch the specimens
+     * @param executor the executor to run the blocks on.  It is not shut down
+     * by this method.
+     * @param output where to write the results.  Only called from the calling
+     * thread.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     * @throws IOException if the output fails.  Any tasks not yet finished are
+     * cancelled.
+     */
+    public void run(SpecimenBatch batch, ExecutorService executor, SimulationOutput output) throws InterruptedException, IOException {
+        SpecimenBatchKernel.run(batch, Collections.singletonList(parameters), executor, output);
+    }
+
+    private Future<SpecimenResult> submit(ExecutorService executor, final Specimen specimen, final int fishNum) {
+        return executor.submit(new Callable<SpecimenResult>() {
+            public SpecimenResult call() {
+                return run(specimen, fishNum);
+            }
+        });
+    }
+
+    /**
+     * Waits for a result, rethrowing anything thrown by the simulation.
+     */
+    static <T> T getResult(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Simulates a single specimen.
+     * @param specimen the specimen
+     * @param fishNum the (1-based) position of the specimen in its data set
+     * @return the results
+     */
+    public SpecimenResult run(Specimen specimen, int fishNum) {
+        return runPrepared(prepare(specimen), fishNum);
+    }
+
+    /**
+     * Makes a copy of a specimen to simulate, in simulation mode.  (A copy so
+     * the GUI doesn't get events from it, which would slow the simulation down
+     * a lot.)  The copy can be simulated any number of times, with different
+     * engines, by {@link #runPrepared(Specimen, int)}; anything it works out
+     * from the geometry alone is kept between runs.
+     * @param specimen the specimen
+     * @return the copy
+     */
+    static Specimen prepare(Specimen specimen) {
+        try {
+            specimen = (Specimen) specimen.clone();
+        } catch (CloneNotSupportedException ex) {
+            Logger.getLogger(SimulationEngine.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        specimen.setSimulationMode(true);
+        return specimen;
+    }
+
+    /**
+     * Simulates a specimen made by {@link #prepare(Specimen)}.
+     * @param specimen the prepared specimen.  Its simulation parameters are
+     * replaced with this engine's.
+     * @param fishNum the (1-based) position of the specimen in its data set
+     * @return the results
+     */
+    SpecimenResult runPrepared(Specimen specimen, int fishNum) {
+        specimen.setSimulationParameters(parameters);
+
+        SpecimenResult result = new SpecimenResult(fishNum, specimen.getName(), parameters);
+        Mandible mandible = specimen.getMandible();
+
+        //open summary
+        mandible.setRotation(parameters.getMaxRotation());
+        double maOpen = mandible.getMechanicalAdvantage(mandible.getIomLigamentInsertion()); //open lever mechanical advantage
+        result.setOpenSummary(Math.toDegrees(-parameters.getMaxRotation()), mandible.getGape(), parameters.getOpenDuration(), maOpen);
+
+        result.setA2(simulateClosing(specimen, specimen.getA2()));
+        result.setA3(simulateClosing(specimen, specimen.getA3()));
+
+        //closed summary
+        mandible.setRotation(0);
+        closedSummary(specimen, specimen.getA2(), result.getA2());
+        closedSummary(specimen, specimen.getA3(), result.getA3());
+        double maxTotalBite = 2 * (specimen.getMaximumOutputForce(specimen.getA2()) + specimen.getMaximumOutputForce(specimen.getA3()));
+        result.setClosedSummary(Math.toDegrees(-parameters.getMaxRotation()), 2 * specimen.getBiteForceHalf(), maxTotalBite);
+
+        return result;
+    }
+
+    /**
+     * Closes the jaw from max-open with a muscle, in equal muscle-length steps.
+     * With a tolerance or exact integration, each step's time and work come
+     * from the mean velocity and force over the step, rather than the ones at
+     * its end.
+     */
+    private MuscleSimResult simulateClosing(Specimen specimen, MandibLeverMuscle muscle) {
+        int bins = parameters.getBins();
+        Mandible mandible = specimen.getMandible();
+        MuscleSimResult result = new MuscleSimResult(bins);
+
+        mandible.setRotation(parameters.getMaxRotation());
+        double maxLength = specimen.getMaxMuscleLength(muscle);
+        double inc = (specimen.getMinMuscleLength(muscle) - maxLength) / bins;
+        double totalForce = 0;
+        double totalTorque = 0;
+        double inputdist = mandible.getMaxDistanceMoved(muscle);
+        double time = 0;
+        ClosingQuadrature quadrature = null;
+        if (parameters.getTolerance() > 0 || parameters.isExact()) {
+            //the same velocity model as LinearVelocityModel
+            double maxVelocity = muscle.getMaxVelocity();
+            double v0 = parameters.getPeakVMaxFraction() * maxVelocity;
+            double v1 = parameters.getMinVMaxFraction() * maxVelocity;
+            double dvdl = LinearVelocityModel.getSlope(v0, v1, maxLength, specimen.getMinMuscleLength(muscle));
+            quadrature = new ClosingQuadrature();
+            quadrature.set(parameters.getTolerance(), parameters.isExact(), v0, dvdl, maxLength, maxVelocity, muscle.getMaxForce());
+        }
+        for (int bin = 1; bin <= bins; bin++) {
+            double prevRot = mandible.getRotation();
+
+            double len = maxLength + inc * bin;
+            specimen.setLength(muscle, len);
+
+            double dAngle = mandible.getRotation() - prevRot;
+            double work, dt;
+            if (quadrature == null) {
+                totalForce += muscle.getForce();
+                work = muscle.getForce() * (inputdist/bins)/100; //nearly verbatim copy of mark's calc
+                dt = specimen.getMaxContraction(muscle)/(bins * muscle.getVelocityFraction() * muscle.getMaxVelocityPerLength());
+            } else {
+                quadrature.integrate(maxLength + inc * (bin - 1), len);
+                totalForce += quadrature.getMeanForce();
+                work = quadrature.getMeanForce() * (inputdist/bins)/100;
+                dt = specimen.getMaxContraction(muscle)/(bins * muscle.getMaxVelocityPerLength()) * quadrature.getMeanInverseVelocityFraction();
+            }
+            totalTorque += mandible.getTorque(muscle) / 100;
+            double power = work/dt;
+            time += dt;
+            double angV = dAngle/dt;
+
+            int i = bin - 1;
+            result.set(MuscleSimResult.JAW_ANGLE, i, Math.toDegrees(-mandible.getRotation()));
+            result.set(MuscleSimResult.GAPE, i, mandible.getGape()); //Gape is calculated here as the distance from the current tip location to its closed location.  (Slightly different from Mark's calc)
+            result.set(MuscleSimResult.BITE_FORCE, i, specimen.getOutputForce(muscle));
+            result.set(MuscleSimResult.TOTAL_BITE_FORCE, i, 2 * specimen.getBiteForceHalf()); //Note to self: (Ask mark) mark seems to be adding forces from A2 and A3 from different times, so there is a small discrepancy on this output.
+            result.set(MuscleSimResult.VELOCITY_FRACTION, i, muscle.getVelocityFraction());
+            result.set(MuscleSimResult.FORCE_FRACTION, i, muscle.getForceFraction());
+            result.set(MuscleSimResult.TIME, i, time * 1000); //replaced the analytical time with mark's numerical approx. of time
+            result.set(MuscleSimResult.LENGTH, i, muscle.getLength());
+            result.set(MuscleSimResult.CONTRACTION, i, 100 * specimen.getContraction(muscle));
+            result.set(MuscleSimResult.FORCE, i, muscle.getForce());
+            result.set(MuscleSimResult.TORQUE, i, mandible.getTorque(muscle) / 100); //conversion to Nm
+            result.set(MuscleSimResult.EMA, i, mandible.getEffectiveMechanicalAdvantage(muscle));
+            result.set(MuscleSimResult.ANGULAR_VELOCITY, i, Math.toDegrees(angV) / 1000); //conversion to degrees/ms
+            result.set(MuscleSimResult.GAPE_VELOCITY, i, angV * mandible.getOutLever() / 1000); // conversion to cm/ms
+            result.set(MuscleSimResult.WORK, i, work);
+            result.set(MuscleSimResult.POWER, i, power);
+            result.set(MuscleSimResult.POWER_PER_KG, i, power/(muscle.getMass()/1000));
+        }
+        result.setTotals(totalForce, totalTorque, time);
+
+        return result;
+    }
+
+    /**
+     * Fills in the closed-jaw summary of a muscle.  The jaw must be closed.
+     */
+    private void closedSummary(Specimen specimen, MandibLeverMuscle muscle, MuscleSimResult result) {
+        Mandible mandible = specimen.getMandible();
+        double inputdist = mandible.getMaxDistanceMoved(muscle);
+        double totalWork = result.getMeanForce() * inputdist / 100;
+        double totalPowerPerKg = totalWork / (result.getTotalTime() * (muscle.getMass() / 1000));
+
+        result.setClosedSummary(specimen.getOutputForce(muscle), mandible.getMechanicalAdvantage(muscle),
+                muscle.getCrossSectionArea(), muscle.getMaxForce(), totalWork, totalPowerPerKg);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of a simulation run one specimen at a time, as they
+ * finish.  See {@link SimulationEngine#run(java.util.List, java.util.concurrent.ExecutorService, SimulationOutput)}.
+ * @author kurie
+ */
+public interface SimulationOutput {
+
+    /**
+     * Handles the result of one specimen.  Results are always written in the
+     * order of the specimens, from a single thread.
+     * @param result the result
+     * @throws IOException if the result can't be written
+     */
+    void write(SpecimenResult result) throws IOException;
+}
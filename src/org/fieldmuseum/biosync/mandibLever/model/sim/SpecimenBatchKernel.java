@@ -0,0 +1,714 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
+import org.fieldmuseum.biosync.mandibLever.model.LinearVelocityModel;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.MandibleKinematics;
+import org.fieldmuseum.biosync.mandibLever.model.MuscleLengthSolver;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+
+/**
+ * The simulation of {@link SimulationEngine}, for the specimens of a
+ * {@link SpecimenBatch}.  Up to {@link #BLOCK} runs are simulated together,
+ * one per lane, where a run is a specimen with a set of parameters: a block
+ * of specimens with the same parameters, or one specimen with a block of a
+ * {@link ParameterSweep}'s parameter sets, or any mix.  Each step of the
+ * closing simulation is worked out for every lane before going on to the
+ * next step, in loops over plain arrays with one element per lane.  Nothing
+ * is allocated once the steps start.
+ * <p>
+ * Each value is worked out once per step, straight from the geometry.  The
+ * object model instead looks up the muscle's insertion, moves every Joint and
+ * fires property change events each time the jaw moves, and works out the
+ * muscle angle again for every value it reports; that, not the arithmetic, is
+ * most of what the kernel saves.
+ * <p>
+ * The formulas are the static ones that Specimen, Mandible,
+ * MandibleKinematics, MuscleLengthSolver, Muscle and LinearVelocityModel use
+ * themselves, so the results are the same as the object model's.
+ * <p>
+ * A kernel keeps the lanes' values between calls, so it must only be used by
+ * one thread at a time.
+ * @author kurie
+ */
+class SpecimenBatchKernel {
+    /** The most runs simulated together */
+    static final int BLOCK = 256;
+
+    /**
+     * How many tasks per processor a parallel run is split into (unless the
+     * blocks would be full anyway), and how many of them may be submitted
+     * ahead of the results being written.
+     */
+    private static final int TASKS_PER_PROCESSOR = 4;
+
+    /**
+     * The values of one muscle, for each lane
+     */
+    private static class MuscleLanes {
+        /* geometry */
+        final double[] radius;
+        final double[] angle;
+        final double[] originX;
+        final double[] originY;
+        final double[] restingLength;
+        final double[] tendonLength;
+        final double[] mass;
+
+        /* worked out from the geometry and the parameters */
+        final MuscleLengthSolver[] solver;
+        final double[] maxLength;
+        final double[] minLength;
+        final double[] lengthStep;
+        final double[] crossSectionArea;
+        final double[] maxForce;
+        final double[] maxVelocity;
+        final double[] v0;
+        final double[] dvdl;
+        final double[] maxContraction;
+        final double[] inputDistance;
+
+        /* at the current rotation */
+        final double[] x;
+        final double[] y;
+        final double[] length;
+        final double[] velocityFraction;
+        final double[] forceFraction;
+        final double[] force;
+        final double[] sinMuscleAngle;
+        final double[] inLever;
+        final double[] ema;
+        final double[] torque;
+        final double[] outputForce;
+
+        /* closing simulation totals */
+        final double[] totalForce;
+        final double[] totalTorque;
+        final double[] totalEma;
+        final double[] time;
+
+        MuscleLanes(int capacity) {
+            radius = new double[capacity];
+            angle = new double[capacity];
+            originX = new double[capacity];
+            originY = new double[capacity];
+            restingLength = new double[capacity];
+            tendonLength = new double[capacity];
+            mass = new double[capacity];
+            solver = new MuscleLengthSolver[capacity];
+            maxLength = new double[capacity];
+            minLength = new double[capacity];
+            lengthStep = new double[capacity];
+            crossSectionArea = new double[capacity];
+            maxForce = new double[capacity];
+            maxVelocity = new double[capacity];
+            v0 = new double[capacity];
+            dvdl = new double[capacity];
+            maxContraction = new double[capacity];
+            inputDistance = new double[capacity];
+            x = new double[capacity];
+            y = new double[capacity];
+            length = new double[capacity];
+            velocityFraction = new double[capacity];
+            forceFraction = new double[capacity];
+            force = new double[capacity];
+            sinMuscleAngle = new double[capacity];
+            inLever = new double[capacity];
+            ema = new double[capacity];
+            torque = new double[capacity];
+            outputForce = new double[capacity];
+            totalForce = new double[capacity];
+            totalTorque = new double[capacity];
+            totalEma = new double[capacity];
+            time = new double[capacity];
+        }
+    }
+
+    private final int capacity;
+
+    /* the run in each lane */
+    private final int[] rows;
+    private final SimulationParameters[] parameters;
+
+    /* the parameters, for each lane */
+    private final double[] maxRotation;
+    private final double[] velocityPerLengthMax;
+    private final double[] tolerance;
+    private final boolean[] exact;
+
+    /* mandible geometry */
+    private final double[] pivotX;
+    private final double[] pivotY;
+    private final double[] tipRadius;
+    private final double[] tipAngle;
+    private final double[] iomRadius;
+    private final double[] iomAngle;
+
+    private final MuscleLanes a2;
+    private final MuscleLanes a3;
+
+    /* at the current rotation */
+    private final double[] rotation;
+    private final double[] dAngle;
+    private final double[] outLever;
+
+    /** for the lanes with a tolerance or exact integration */
+    private final ClosingQuadrature quadrature = new ClosingQuadrature();
+
+    /**
+     * @param capacity the most lanes that will be simulated at once, at most
+     * {@link #BLOCK}
+     */
+    SpecimenBatchKernel(int capacity) {
+        if (capacity < 1 || capacity > BLOCK) {
+            throw new IllegalArgumentException("A kernel can't have " + capacity + " lanes.");
+        }
+        this.capacity = capacity;
+        rows = new int[capacity];
+        parameters = new SimulationParameters[capacity];
+        maxRotation = new double[capacity];
+        velocityPerLengthMax = new double[capacity];
+        tolerance = new double[capacity];
+        exact = new boolean[capacity];
+        pivotX = new double[capacity];
+        pivotY = new double[capacity];
+        tipRadius = new double[capacity];
+        tipAngle = new double[capacity];
+        iomRadius = new double[capacity];
+        iomAngle = new double[capacity];
+        a2 = new MuscleLanes(capacity);
+        a3 = new MuscleLanes(capacity);
+        rotation = new double[capacity];
+        dAngle = new double[capacity];
+        outLever = new double[capacity];
+    }
+
+    /**
+     * Simulates every specimen of a batch with every one of a list of
+     * parameter sets, a block of runs at a time, and writes the results to an
+     * output: specimen by specimen, in batch order, and in list order for
+     * each specimen.
+     * @param batch the specimens
+     * @param parameterSets the parameter sets.  They must all have the same
+     * number of bins.
+     * @param output where to write the results
+     * @throws IOException if the output fails
+     */
+    static void run(SpecimenBatch batch, List<SimulationParameters> parameterSets, SimulationOutput output) throws IOException {
+        SimulationParameters[] sets = parameterSets.toArray(new SimulationParameters[parameterSets.size()]);
+        long runs = (long) batch.size() * sets.length;
+        SpecimenBatchKernel kernel = new SpecimenBatchKernel((int) Math.max(1, Math.min(BLOCK, runs)));
+        SpecimenResult[] results = new SpecimenResult[kernel.getCapacity()];
+        for (long start = 0; start < runs; start += kernel.getCapacity()) {
+            int lanes = (int) Math.min(kernel.getCapacity(), runs - start);
+            kernel.setLanes(start, lanes, sets);
+            kernel.run(batch, lanes, results);
+            for (int i = 0; i < lanes; i++) {
+                output.write(results[i]);
+            }
+        }
+    }
+
+    /**
+     * Does the same as {@link #run(SpecimenBatch, List, SimulationOutput)},
+     * one task per block of runs on an executor.  The blocks are made smaller
+     * when there are too few runs to keep every processor busy.  Only a
+     * limited number of blocks are submitted ahead of the one being written,
+     * so memory use doesn't grow with the size of the batch.
+     * @param batch the specimens
+     * @param parameterSets the parameter sets.  They must all have the same
+     * number of bins.
+     * @param executor the executor to run the blocks on.  It is not shut down
+     * by this method.
+     * @param output where to write the results.  Only called from the calling
+     * thread.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the results.  Any tasks not yet finished are cancelled.
+     * @throws IOException if the output fails.  Any tasks not yet finished are
+     * cancelled.
+     */
+    static void run(SpecimenBatch batch, List<SimulationParameters> parameterSets, ExecutorService executor, SimulationOutput output) throws InterruptedException, IOException {
+        SimulationParameters[] sets = parameterSets.toArray(new SimulationParameters[parameterSets.size()]);
+        long runs = (long) batch.size() * sets.length;
+        int maxPending = TASKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        int blockSize = (int) Math.max(1, Math.min(BLOCK, (runs + maxPending - 1) / maxPending));
+
+        LinkedList<Future<SpecimenResult[]>> pending = new LinkedList<Future<SpecimenResult[]>>();
+        long start = 0;
+        try {
+            while (start < runs || !pending.isEmpty()) {
+                while (start < runs && pending.size() < maxPending) {
+                    int lanes = (int) Math.min(blockSize, runs - start);
+                    pending.add(submit(executor, batch, sets, start, lanes));
+                    start += lanes;
+                }
+                for (SpecimenResult result : SimulationEngine.getResult(pending.removeFirst())) {
+                    output.write(result);
+                }
+            }
+        } finally {
+            //only does anything if we're leaving early
+            for (Future<SpecimenResult[]> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Future<SpecimenResult[]> submit(ExecutorService executor, final SpecimenBatch batch, final SimulationParameters[] sets, final long start, final int lanes) {
+        return executor.submit(new Callable<SpecimenResult[]>() {
+            public SpecimenResult[] call() {
+                SpecimenBatchKernel kernel = new SpecimenBatchKernel(lanes);
+                SpecimenResult[] results = new SpecimenResult[lanes];
+                kernel.setLanes(start, lanes, sets);
+                kernel.run(batch, lanes, results);
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Sets the lanes to a range of runs, numbering the runs specimen by
+     * specimen and parameter set by parameter set.
+     * @param start the first run
+     * @param lanes the number of runs
+     * @param sets the parameter sets
+     */
+    private void setLanes(long start, int lanes, SimulationParameters[] sets) {
+        for (int i = 0; i < lanes; i++) {
+            long run = start + i;
+            setLane(i, (int) (run / sets.length), sets[(int) (run % sets.length)]);
+        }
+    }
+
+    /**
+     * @return the most lanes that can be simulated at once
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the run in a lane.  Every lane up to the number of lanes passed to
+     * {@link #run(SpecimenBatch, int, SpecimenResult[])} must be set, and
+     * they must all have the same number of bins.
+     * @param lane the lane
+     * @param row the specimen's position in the batch.  Its fish number is
+     * one more.
+     * @param parameters the parameters to simulate it with
+     */
+    void setLane(int lane, int row, SimulationParameters parameters) {
+        rows[lane] = row;
+        this.parameters[lane] = parameters;
+    }
+
+    /**
+     * Simulates the runs in the lanes.
+     * @param batch the specimens
+     * @param lanes the number of lanes to simulate, from 0
+     * @param results where to put the results, from index 0
+     * @throws IllegalArgumentException if the lanes don't all have the same
+     * number of bins
+     */
+    void run(SpecimenBatch batch, int lanes, SpecimenResult[] results) throws IllegalArgumentException {
+        int bins = setUp(lanes);
+        if (lanes == 0) {
+            return;
+        }
+        for (int i = 0; i < lanes; i++) {
+            results[i] = new SpecimenResult(rows[i] + 1, batch.getName(rows[i]), parameters[i]);
+            results[i].setA2(new MuscleSimResult(bins));
+            results[i].setA3(new MuscleSimResult(bins));
+        }
+        load(batch, lanes);
+        prepare(a2, lanes);
+        prepare(a3, lanes);
+
+        //open summary
+        System.arraycopy(maxRotation, 0, rotation, 0, lanes);
+        updateOutLever(lanes);
+        for (int i = 0; i < lanes; i++) {
+            double maOpen = leverLength(iomRadius[i], iomAngle[i], i) / outLever[i];
+            results[i].setOpenSummary(Math.toDegrees(-maxRotation[i]), gape(i), parameters[i].getOpenDuration(), maOpen);
+        }
+
+        simulateClosing(a2, bins, lanes, results);
+        simulateClosing(a3, bins, lanes, results);
+
+        //closed summary
+        closeJaw(lanes);
+        closedSummary(a2, bins, lanes, results);
+        closedSummary(a3, bins, lanes, results);
+        for (int i = 0; i < lanes; i++) {
+            results[i].setClosedSummary(Math.toDegrees(-maxRotation[i]), totalBiteForce(i), maxBiteForce(i));
+        }
+    }
+
+    /**
+     * Simulates the runs in the lanes like
+     * {@link #run(SpecimenBatch, int, SpecimenResult[])}, but only keeps the
+     * {@link MonteCarloResult} quantities of each run, so nothing is
+     * allocated for the bins.
+     * @param batch the specimens
+     * @param lanes the number of lanes to simulate, from 0
+     * @param values where to put the quantities, {@link MonteCarloResult#QUANTITY_COUNT}
+     * per lane from index 0
+     * @throws IllegalArgumentException if the lanes don't all have the same
+     * number of bins
+     */
+    void runSummaries(SpecimenBatch batch, int lanes, double[] values) throws IllegalArgumentException {
+        int bins = setUp(lanes);
+        if (lanes == 0) {
+            return;
+        }
+        load(batch, lanes);
+        prepare(a2, lanes);
+        prepare(a3, lanes);
+        simulateClosing(a2, bins, lanes, null);
+        simulateClosing(a3, bins, lanes, null);
+        closeJaw(lanes);
+        for (int i = 0; i < lanes; i++) {
+            int offset = i * MonteCarloResult.QUANTITY_COUNT;
+            values[offset + MonteCarloResult.TOTAL_BITE_FORCE] = totalBiteForce(i);
+            values[offset + MonteCarloResult.MAX_BITE_FORCE] = maxBiteForce(i);
+            values[offset + MonteCarloResult.A2_EMA] = a2.totalEma[i] / bins;
+            values[offset + MonteCarloResult.A3_EMA] = a3.totalEma[i] / bins;
+            values[offset + MonteCarloResult.A2_WORK] = totalWork(a2, bins, i);
+            values[offset + MonteCarloResult.A3_WORK] = totalWork(a3, bins, i);
+            values[offset + MonteCarloResult.A2_POWER_PER_KG] = powerPerKg(a2, bins, i);
+            values[offset + MonteCarloResult.A3_POWER_PER_KG] = powerPerKg(a3, bins, i);
+        }
+    }
+
+    /**
+     * Copies the lanes' parameters into the lanes' arrays.
+     * @return the number of bins
+     * @throws IllegalArgumentException if there are too many lanes, or they
+     * don't all have the same number of bins
+     */
+    private int setUp(int lanes) throws IllegalArgumentException {
+        if (lanes < 0 || lanes > capacity) {
+            throw new IllegalArgumentException("Can't simulate " + lanes + " lanes at once.");
+        }
+        if (lanes == 0) {
+            return 0;
+        }
+        int bins = parameters[0].getBins();
+        for (int i = 0; i < lanes; i++) {
+            if (parameters[i].getBins() != bins) {
+                throw new IllegalArgumentException("The runs simulated together must have the same number of bins.");
+            }
+            maxRotation[i] = parameters[i].getMaxRotation();
+            velocityPerLengthMax[i] = parameters[i].getVelocityPerLengthMax();
+            tolerance[i] = parameters[i].getTolerance();
+            exact[i] = parameters[i].isExact();
+        }
+        return bins;
+    }
+
+    /**
+     * Copies the lanes' geometry out of the batch.
+     */
+    private void load(SpecimenBatch batch, int lanes) {
+        gather(batch, SpecimenBatch.PIVOT_X, pivotX, lanes);
+        gather(batch, SpecimenBatch.PIVOT_Y, pivotY, lanes);
+        gather(batch, SpecimenBatch.TIP_RADIUS, tipRadius, lanes);
+        gather(batch, SpecimenBatch.TIP_ANGLE, tipAngle, lanes);
+        gather(batch, SpecimenBatch.IOM_RADIUS, iomRadius, lanes);
+        gather(batch, SpecimenBatch.IOM_ANGLE, iomAngle, lanes);
+
+        gather(batch, SpecimenBatch.A2_RADIUS, a2.radius, lanes);
+        gather(batch, SpecimenBatch.A2_ANGLE, a2.angle, lanes);
+        gather(batch, SpecimenBatch.A2_ORIGIN_X, a2.originX, lanes);
+        gather(batch, SpecimenBatch.A2_ORIGIN_Y, a2.originY, lanes);
+        gather(batch, SpecimenBatch.A2_RESTING_LENGTH, a2.restingLength, lanes);
+        fill(a2.tendonLength, lanes, 0); //A2 tendon is not used in MandibLever
+        gather(batch, SpecimenBatch.A2_MASS, a2.mass, lanes);
+
+        gather(batch, SpecimenBatch.A3_RADIUS, a3.radius, lanes);
+        gather(batch, SpecimenBatch.A3_ANGLE, a3.angle, lanes);
+        gather(batch, SpecimenBatch.A3_ORIGIN_X, a3.originX, lanes);
+        gather(batch, SpecimenBatch.A3_ORIGIN_Y, a3.originY, lanes);
+        gather(batch, SpecimenBatch.A3_RESTING_LENGTH, a3.restingLength, lanes);
+        gather(batch, SpecimenBatch.A3_TENDON_LENGTH, a3.tendonLength, lanes);
+        gather(batch, SpecimenBatch.A3_MASS, a3.mass, lanes);
+    }
+
+    private void gather(SpecimenBatch batch, int column, double[] lane, int lanes) {
+        double[] values = batch.getColumn(column);
+        for (int i = 0; i < lanes; i++) {
+            lane[i] = values[rows[i]];
+        }
+    }
+
+    /**
+     * Works out the values that don't depend on the rotation, as Specimen,
+     * Muscle and LinearVelocityModel do.
+     */
+    private void prepare(MuscleLanes m, int lanes) {
+        boolean isA2 = m == a2;
+        int bins = parameters[0].getBins();
+        for (int i = 0; i < lanes; i++) {
+            SimulationParameters p = parameters[i];
+
+            m.solver[i] = new MuscleLengthSolver(pivotX[i], pivotY[i], m.radius[i], m.angle[i], m.originX[i], m.originY[i]);
+            m.maxLength[i] = muscleLength(m, i, maxRotation[i]);
+            m.minLength[i] = muscleLength(m, i, 0);
+            m.lengthStep[i] = (m.minLength[i] - m.maxLength[i]) / bins;
+
+            double pennationAngle = isA2 ? p.getA2PennationAngle() : p.getA3PennationAngle();
+            double fiberLength = Muscle.getFiberLength(pennationAngle, m.restingLength[i], m.tendonLength[i]);
+            m.crossSectionArea[i] = Muscle.getCrossSectionArea(m.mass[i], fiberLength);
+            m.maxForce[i] = Muscle.getMaxForce(p.getForcePerAreaMax(), m.crossSectionArea[i]);
+            m.maxVelocity[i] = velocityPerLengthMax[i] * fiberLength;
+
+            m.v0[i] = p.getPeakVMaxFraction() * m.maxVelocity[i];
+            double v1 = p.getMinVMaxFraction() * m.maxVelocity[i];
+            m.dvdl[i] = LinearVelocityModel.getSlope(m.v0[i], v1, m.maxLength[i], m.minLength[i]);
+
+            m.maxContraction[i] = Specimen.getContraction(m.maxLength[i], m.restingLength[i], m.tendonLength[i]);
+            m.inputDistance[i] = MandibleKinematics.getDistanceMoved(m.radius[i], maxRotation[i], 0);
+        }
+    }
+
+    /**
+     * @return the length of a muscle at a rotation
+     */
+    private double muscleLength(MuscleLanes m, int i, double rotation) {
+        return MandibleKinematics.getDistance(pivotX[i], pivotY[i], m.radius[i], m.angle[i], m.originX[i], m.originY[i], rotation);
+    }
+
+    /**
+     * @return the distance from the QA joint to a joint of a lane at its
+     * current rotation, as the Joints' distance() works it out
+     */
+    private double leverLength(double radius, double angle, int i) {
+        double x = MandibleKinematics.getX(pivotX[i], radius, angle, rotation[i]);
+        double y = MandibleKinematics.getY(pivotY[i], radius, angle, rotation[i]);
+        return Point2D.distance(x, y, pivotX[i], pivotY[i]);
+    }
+
+    /**
+     * Closes the jaw from max-open with a muscle, in equal muscle-length
+     * steps, as SimulationEngine.simulateClosing() does.  The lanes with a
+     * tolerance or exact integration integrate each step with a {@link ClosingQuadrature}, one
+     * lane at a time.
+     * @param results where to put the bins and totals, or null to only keep
+     * the totals in the muscle's lanes
+     */
+    private void simulateClosing(MuscleLanes m, int bins, int lanes, SpecimenResult[] results) {
+        boolean isA2 = m == a2;
+        System.arraycopy(maxRotation, 0, rotation, 0, lanes);
+        fill(m.totalForce, lanes, 0);
+        fill(m.totalTorque, lanes, 0);
+        fill(m.totalEma, lanes, 0);
+        fill(m.time, lanes, 0);
+        for (int bin = 1; bin <= bins; bin++) {
+            int b = bin - 1;
+
+            //the jaw stays put if the length can't be reached, as in Specimen.setLength()
+            for (int i = 0; i < lanes; i++) {
+                double rot = m.solver[i].getRotation(m.maxLength[i] + m.lengthStep[i] * bin);
+                if (Double.isNaN(rot)) {
+                    rot = rotation[i];
+                }
+                dAngle[i] = rot - rotation[i];
+                rotation[i] = rot;
+            }
+
+            updateOutLever(lanes);
+            evaluate(a2, lanes);
+            evaluate(a3, lanes);
+
+            for (int i = 0; i < lanes; i++) {
+                double force = m.force[i];
+                double work, dt;
+                if (tolerance[i] == 0 && !exact[i]) {
+                    m.totalForce[i] += force;
+                    work = force * (m.inputDistance[i] / bins) / 100;
+                    dt = m.maxContraction[i] / (bins * m.velocityFraction[i] * velocityPerLengthMax[i]);
+                } else {
+                    quadrature.set(tolerance[i], exact[i], m.v0[i], m.dvdl[i], m.maxLength[i], m.maxVelocity[i], m.maxForce[i]);
+                    quadrature.integrate(m.maxLength[i] + m.lengthStep[i] * (bin - 1), m.maxLength[i] + m.lengthStep[i] * bin);
+                    m.totalForce[i] += quadrature.getMeanForce();
+                    work = quadrature.getMeanForce() * (m.inputDistance[i] / bins) / 100;
+                    dt = m.maxContraction[i] / (bins * velocityPerLengthMax[i]) * quadrature.getMeanInverseVelocityFraction();
+                }
+                m.totalTorque[i] += m.torque[i] / 100;
+                m.totalEma[i] += m.ema[i];
+                double power = work / dt;
+                m.time[i] += dt;
+                double angV = dAngle[i] / dt;
+                if (results == null) {
+                    continue;
+                }
+
+                MuscleSimResult result = isA2 ? results[i].getA2() : results[i].getA3();
+                result.set(MuscleSimResult.JAW_ANGLE, b, Math.toDegrees(-rotation[i]));
+                result.set(MuscleSimResult.GAPE, b, gape(i));
+                result.set(MuscleSimResult.BITE_FORCE, b, m.outputForce[i]);
+                result.set(MuscleSimResult.TOTAL_BITE_FORCE, b, 2 * (a2.outputForce[i] + a3.outputForce[i]));
+                result.set(MuscleSimResult.VELOCITY_FRACTION, b, m.velocityFraction[i]);
+                result.set(MuscleSimResult.FORCE_FRACTION, b, m.forceFraction[i]);
+                result.set(MuscleSimResult.TIME, b, m.time[i] * 1000);
+                result.set(MuscleSimResult.LENGTH, b, m.length[i]);
+                result.set(MuscleSimResult.CONTRACTION, b, 100 * Specimen.getContraction(m.maxLength[i], m.length[i], m.tendonLength[i]));
+                result.set(MuscleSimResult.FORCE, b, force);
+                result.set(MuscleSimResult.TORQUE, b, m.torque[i] / 100);
+                result.set(MuscleSimResult.EMA, b, m.ema[i]);
+                result.set(MuscleSimResult.ANGULAR_VELOCITY, b, Math.toDegrees(angV) / 1000);
+                result.set(MuscleSimResult.GAPE_VELOCITY, b, angV * outLever[i] / 1000);
+                result.set(MuscleSimResult.WORK, b, work);
+                result.set(MuscleSimResult.POWER, b, power);
+                result.set(MuscleSimResult.POWER_PER_KG, b, power / (m.mass[i] / 1000));
+            }
+        }
+        if (results == null) {
+            return;
+        }
+        for (int i = 0; i < lanes; i++) {
+            MuscleSimResult result = isA2 ? results[i].getA2() : results[i].getA3();
+            result.setTotals(m.totalForce[i], m.totalTorque[i], m.time[i]);
+        }
+    }
+
+    /**
+     * Closes the jaw of every lane, and evaluates the muscles there.
+     */
+    private void closeJaw(int lanes) {
+        fill(rotation, lanes, 0);
+        updateOutLever(lanes);
+        evaluate(a2, lanes);
+        evaluate(a3, lanes);
+    }
+
+    /**
+     * Fills in the closed-jaw summary of a muscle.  The muscles must have
+     * been evaluated with the jaw closed.
+     */
+    private void closedSummary(MuscleLanes m, int bins, int lanes, SpecimenResult[] results) {
+        boolean isA2 = m == a2;
+        for (int i = 0; i < lanes; i++) {
+            MuscleSimResult result = isA2 ? results[i].getA2() : results[i].getA3();
+            result.setClosedSummary(m.outputForce[i], m.inLever[i] / outLever[i],
+                    m.crossSectionArea[i], m.maxForce[i], totalWork(m, bins, i), powerPerKg(m, bins, i));
+        }
+    }
+
+    /**
+     * @return the bite force of a lane (both sides, both muscles).  The
+     * muscles must have been evaluated with the jaw closed.
+     */
+    private double totalBiteForce(int i) {
+        return 2 * (a2.outputForce[i] + a3.outputForce[i]);
+    }
+
+    /**
+     * @return the bite force of a lane with both muscles at their max force.
+     * The muscles must have been evaluated with the jaw closed.
+     */
+    private double maxBiteForce(int i) {
+        return 2 * (a2.maxForce[i] * a2.ema[i] + a3.maxForce[i] * a3.ema[i]);
+    }
+
+    /**
+     * @return the work done by a muscle closing the jaw of a lane, from the
+     * mean force of the closing simulation
+     */
+    private static double totalWork(MuscleLanes m, int bins, int i) {
+        return m.totalForce[i] / bins * m.inputDistance[i] / 100;
+    }
+
+    /**
+     * @return the mean power per kg of a muscle closing the jaw of a lane
+     */
+    private static double powerPerKg(MuscleLanes m, int bins, int i) {
+        return totalWork(m, bins, i) / (m.time[i] * (m.mass[i] / 1000));
+    }
+
+    /**
+     * Works out the out lever (the QA joint to jaw tip distance) at the
+     * current rotations, as Mandible.getOutLever() does from the moved joints.
+     */
+    private void updateOutLever(int lanes) {
+        for (int i = 0; i < lanes; i++) {
+            outLever[i] = leverLength(tipRadius[i], tipAngle[i], i);
+        }
+    }
+
+    /**
+     * Works out a muscle's length, force and leverage at the current
+     * rotations.  The out lever must be up to date.
+     */
+    private void evaluate(MuscleLanes m, int lanes) {
+        //where the insertion has moved to
+        for (int i = 0; i < lanes; i++) {
+            m.x[i] = MandibleKinematics.getX(pivotX[i], m.radius[i], m.angle[i], rotation[i]);
+            m.y[i] = MandibleKinematics.getY(pivotY[i], m.radius[i], m.angle[i], rotation[i]);
+        }
+
+        //LinearVelocityModel, with the limits of Muscle.setVelocity() and setForce()
+        for (int i = 0; i < lanes; i++) {
+            double length = Point2D.distance(m.x[i], m.y[i], m.originX[i], m.originY[i]);
+            double velocity = LinearVelocityModel.getVelocity(m.v0[i], m.dvdl[i], m.maxLength[i], length);
+            double force = LinearVelocityModel.getForce(velocity, m.maxVelocity[i], m.maxForce[i]);
+            m.length[i] = length;
+            m.velocityFraction[i] = Muscle.getVelocityFraction(velocity, m.maxVelocity[i]);
+            m.forceFraction[i] = Muscle.getForceFraction(force, m.maxForce[i]);
+            m.force[i] = m.forceFraction[i] * m.maxForce[i];
+        }
+
+        for (int i = 0; i < lanes; i++) {
+            m.sinMuscleAngle[i] = Math.sin(Mandible.getMuscleAngle(pivotX[i], pivotY[i], m.x[i], m.y[i], m.originX[i], m.originY[i]));
+        }
+
+        //Mandible.getEffectiveMechanicalAdvantage() and getTorque(), Specimen.getOutputForce()
+        for (int i = 0; i < lanes; i++) {
+            double inLever = Point2D.distance(m.x[i], m.y[i], pivotX[i], pivotY[i]);
+            double sin = m.sinMuscleAngle[i];
+            double ema = sin * (inLever / outLever[i]);
+            m.inLever[i] = inLever;
+            m.ema[i] = ema;
+            m.torque[i] = m.force[i] * sin * inLever;
+            m.outputForce[i] = m.force[i] * ema;
+        }
+    }
+
+    /**
+     * @return the gape of a lane at its current rotation, as
+     * MandibleKinematics.getGape() works it out
+     */
+    private double gape(int i) {
+        return MandibleKinematics.getDistanceMoved(tipRadius[i], 0, rotation[i]);
+    }
+
+    private static void fill(double[] lanes, int count, double value) {
+        for (int i = 0; i < count; i++) {
+            lanes[i] = value;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.Serializable;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+
+/**
+ * The results of simulating one specimen: the jaw-opening summary, the
+ * closing simulation of each muscle and the closed-jaw summary.
+ * @author kurie
+ */
+public class SpecimenResult implements Serializable {
+    private final int fishNum;
+    private final String name;
+    private final SimulationParameters parameters;
+
+    /* open summary */
+    private double openJawAngle;
+    private double openGape;
+    private double openDuration;
+    private double openMechanicalAdvantage;
+    private double openVelocityRatio;
+    private double openAngularVelocity;
+    private double openTipVelocity;
+
+    /* closed summary */
+    private double closedJawAngle;
+    private double totalBiteForce;
+    private double maxBiteForce;
+
+    private MuscleSimResult a2;
+    private MuscleSimResult a3;
+
+    /**
+     * @param fishNum the (1-based) position of the specimen in the data set
+     * @param name the specimen name
+     * @param parameters the parameters the specimen was simulated with
+     */
+    public SpecimenResult(int fishNum, String name, SimulationParameters parameters) {
+        this.fishNum = fishNum;
+        this.name = name;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the parameters the specimen was simulated with
+     */
+    public SimulationParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return the (1-based) position of the specimen in the data set
+     */
+    public int getFishNum() {
+        return fishNum;
+    }
+
+    /**
+     * @return the specimen name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the max-open jaw angle, in degrees
+     */
+    public double getOpenJawAngle() {
+        return openJawAngle;
+    }
+
+    /**
+     * @return the gape at max-open, in cm
+     */
+    public double getOpenGape() {
+        return openGape;
+    }
+
+    /**
+     * @return the jaw opening duration, in ms
+     */
+    public double getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @return the mechanical advantage of the opening lever
+     */
+    public double getOpenMechanicalAdvantage() {
+        return openMechanicalAdvantage;
+    }
+
+    /**
+     * @return the velocity ratio of the opening lever
+     */
+    public double getOpenVelocityRatio() {
+        return openVelocityRatio;
+    }
+
+    /**
+     * @return the mean angular velocity of jaw opening, in degrees/ms
+     */
+    public double getOpenAngularVelocity() {
+        return openAngularVelocity;
+    }
+
+    /**
+     * @return the mean jaw tip velocity during opening, in cm/ms
+     */
+    public double getOpenTipVelocity() {
+        return openTipVelocity;
+    }
+
+    void setOpenSummary(double jawAngle, double gape, double openDuration, double mechanicalAdvantage) {
+        this.openJawAngle = jawAngle;
+        this.openGape = gape;
+        this.openDuration = openDuration;
+        this.openMechanicalAdvantage = mechanicalAdvantage;
+        this.openVelocityRatio = 1/mechanicalAdvantage;
+        this.openAngularVelocity = jawAngle/openDuration;
+        this.openTipVelocity = gape/openDuration;
+    }
+
+    /**
+     * @return the jaw angle the closing simulation started from, in degrees
+     */
+    public double getClosedJawAngle() {
+        return closedJawAngle;
+    }
+
+    /**
+     * @return the bilateral bite force (A2 + A3) with the jaw closed, in N
+     */
+    public double getTotalBiteForce() {
+        return totalBiteForce;
+    }
+
+    /**
+     * @return the maximum static bilateral bite force (A2 + A3), in N
+     */
+    public double getMaxBiteForce() {
+        return maxBiteForce;
+    }
+
+    void setClosedSummary(double jawAngle, double totalBiteForce, double maxBiteForce) {
+        this.closedJawAngle = jawAngle;
+        this.totalBiteForce = totalBiteForce;
+        this.maxBiteForce = maxBiteForce;
+    }
+
+    /**
+     * @return the closing simulation of the A2 muscle
+     */
+    public MuscleSimResult getA2() {
+        return a2;
+    }
+
+    void setA2(MuscleSimResult a2) {
+        this.a2 = a2;
+    }
+
+    /**
+     * @return the closing simulation of the A3 muscle
+     */
+    public MuscleSimResult getA3() {
+        return a3;
+    }
+
+    void setA3(MuscleSimResult a3) {
+        this.a3 = a3;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
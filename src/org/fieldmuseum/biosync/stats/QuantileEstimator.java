@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.stats;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Estimates a quantile (e.g. the median, or the 2.5th percentile) of a stream
+ * of values without keeping the values, using the P-squared algorithm of
+ * Jain and Chlamtac (1985).  Five markers follow the minimum, the maximum,
+ * the quantile and two points either side of it; their heights are adjusted
+ * with a parabolic fit as values are added.  Up to five values the quantile
+ * is exact.
+ * @author kurie
+ */
+public class QuantileEstimator implements Serializable {
+    private final double probability;
+    private long count;
+
+    /** Marker heights */
+    private final double[] heights = new double[5];
+
+    /** Marker positions (1-based ranks) */
+    private final long[] positions = new long[5];
+
+    /** Desired marker positions */
+    private final double[] desired = new double[5];
+
+    /** Increments of the desired marker positions per value */
+    private final double[] increments;
+
+    /**
+     * @param probability the quantile to estimate, between 0 and 1 (e.g. 0.5
+     * for the median)
+     * @throws IllegalArgumentException if the probability isn't between 0 and 1
+     */
+    public QuantileEstimator(double probability) throws IllegalArgumentException {
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("The probability must be between 0 and 1, not " + probability + ".");
+        }
+        this.probability = probability;
+        increments = new double[] {0, probability / 2, probability, (1 + probability) / 2, 1};
+    }
+
+    /**
+     * @return the quantile being estimated
+     */
+    public double getProbability() {
+        return probability;
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Adds a value.  NaN values are ignored.
+     * @param value the value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        //the first five values are just stored
+        if (count < 5) {
+            heights[(int) count++] = value;
+            if (count == 5) {
+                Arrays.sort(heights);
+                for (int i = 0; i < 5; i++) {
+                    positions[i] = i + 1;
+                }
+                desired[0] = 1;
+                desired[1] = 1 + 2 * probability;
+                desired[2] = 1 + 4 * probability;
+                desired[3] = 3 + 2 * probability;
+                desired[4] = 5;
+            }
+            return;
+        }
+        count++;
+
+        //find the cell the value falls in, extending the extremes if needed
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[4]) {
+            heights[4] = Math.max(heights[4], value);
+            cell = 3;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+        for (int i = cell + 1; i < 5; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            desired[i] += increments[i];
+        }
+
+        //move the middle markers towards their desired positions
+        for (int i = 1; i < 4; i++) {
+            double offset = desired[i] - positions[i];
+            if ((offset >= 1 && positions[i + 1] - positions[i] > 1)
+                    || (offset <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = offset > 0 ? 1 : -1;
+                double height = parabolic(i, step);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] = linear(i, step);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+
+    private double parabolic(int i, int step) {
+        double below = positions[i] - positions[i - 1];
+        double above = positions[i + 1] - positions[i];
+        return heights[i] + step / (double) (positions[i + 1] - positions[i - 1])
+                * ((below + step) * (heights[i + 1] - heights[i]) / above
+                + (above - step) * (heights[i] - heights[i - 1]) / below);
+    }
+
+    private double linear(int i, int step) {
+        return heights[i] + step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+    }
+
+    /**
+     * @return the estimated quantile, or NaN if there are no values
+     */
+    public double getQuantile() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count <= 5) {
+            //exact, interpolated between the sorted values
+            double[] sorted = new double[(int) count];
+            System.arraycopy(heights, 0, sorted, 0, sorted.length);
+            Arrays.sort(sorted);
+            double rank = probability * (count - 1);
+            int lower = (int) Math.floor(rank);
+            int upper = Math.min(lower + 1, (int) count - 1);
+            return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+        }
+        return heights[2];
+    }
+}
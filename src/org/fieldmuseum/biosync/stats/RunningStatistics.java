@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.stats;
+
+import java.io.Serializable;
+
+/**
+ * Count, mean, variance, minimum and maximum of a stream of values, updated
+ * one value at a time (Welford's method) without keeping the values.  Two
+ * sets of statistics can be merged, e.g. when parts of a stream are
+ * accumulated on different threads.
+ * @author kurie
+ */
+public class RunningStatistics implements Serializable {
+    private long count;
+    private double mean;
+    private double sumSquaredDeviations;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Adds a value.  NaN values are ignored.
+     * @param value the value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        double deviation = value - mean;
+        mean += deviation / count;
+        sumSquaredDeviations += deviation * (value - mean);
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds all of the values of another set of statistics, as if they had been
+     * added to this one.
+     * @param other the other statistics.  It isn't changed.
+     */
+    public void merge(RunningStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            sumSquaredDeviations = other.sumSquaredDeviations;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+
+        long total = count + other.count;
+        double deviation = other.mean - mean;
+        mean += deviation * other.count / total;
+        sumSquaredDeviations += other.sumSquaredDeviations + deviation * deviation * count * other.count / total;
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean, or NaN if there are no values
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return the sample variance, or NaN if there are fewer than two values
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : sumSquaredDeviations / (count - 1);
+    }
+
+    /**
+     * @return the sample standard deviation, or NaN if there are fewer than
+     * two values
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the smallest value, or NaN if there are no values
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return the largest value, or NaN if there are no values
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + ", mean=" + getMean() + ", sd=" + getStandardDeviation() + ", min=" + getMin() + ", max=" + getMax();
+    }
+}
@@ -37,4 +37,22 @@ public class HillEquationTest {
 		}
 	}
 
+	/**
+	 * Tests HillEquation.getIntegral() against the trapezoid rule
+	 */
+	@Test
+	public void testGetIntegral() {
+		int steps = 100000;
+		double v0 = 0.05;
+		double v1 = 0.8;
+		double h = (v1 - v0) / steps;
+		double sum = (HillEquation.getF(v0) + HillEquation.getF(v1)) / 2;
+		for (int i = 1; i < steps; i++) {
+			sum += HillEquation.getF(v0 + i * h);
+		}
+		assertEquals(sum * h, HillEquation.getIntegral(v0, v1), 1e-9);
+		assertEquals(-sum * h, HillEquation.getIntegral(v1, v0), 1e-9);
+		assertEquals(0.0, HillEquation.getIntegral(v0, v0), 0.0);
+	}
+
 }
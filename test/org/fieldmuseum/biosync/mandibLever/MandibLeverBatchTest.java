@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import org.fieldmuseum.biosync.mandibLever.model.sim.AggregateStatistics;
+import org.fieldmuseum.biosync.mandibLever.model.sim.MonteCarloResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class MandibLeverBatchTest {
+    private static final String SPECIMEN = "Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2";
+
+    private File dir;
+    private ByteArrayOutputStream err;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("MandibLever", "");
+        dir.delete();
+        dir.mkdir();
+        err = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private File writeSpecimenFile(String... lines) throws IOException {
+        File file = new File(dir, "specimens.txt");
+        FileWriter out = new FileWriter(file);
+        for (String line : lines) {
+            out.write(line);
+            out.write("\n");
+        }
+        out.close();
+        return file;
+    }
+
+    private int run(String... args) {
+        return MandibLeverBatch.run(args, new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+    }
+
+    @Test
+    public void testRun() throws IOException {
+        System.out.println("run");
+        File file = writeSpecimenFile(SPECIMEN, "", SPECIMEN.replace("Testdat1", "Testdat2"));
+        assertEquals(MandibLeverBatch.EXIT_OK, run("-bins", "10", "-angle", "25", "-fMax", "150", file.getPath()));
+        for (String suffix : new String[] {"OpenSum", "CloseSum", "A2Sim", "A3Sim"}) {
+            assertTrue(suffix, new File(dir, "specimens." + suffix + ".csv").length() > 0);
+        }
+    }
+
+    @Test
+    public void testBadSpecimen() throws IOException {
+        System.out.println("run (bad specimen)");
+        File file = writeSpecimenFile(SPECIMEN, "Testdat2 0.598 0.510");
+        File out = new File(dir, "out");
+        assertEquals(MandibLeverBatch.EXIT_BAD_SPECIMENS, run("-out", out.getPath(), "-name", "batch", file.getPath()));
+        assertTrue(err.toString().contains("line 2"));
+        assertTrue(new File(out, "batch.A3Sim.csv").length() > 0);
+        for (File file2 : out.listFiles()) {
+            file2.delete();
+        }
+        out.delete();
+    }
+
+    @Test
+    public void testSweep() throws IOException {
+        System.out.println("run (sweep)");
+        File file = writeSpecimenFile(SPECIMEN, SPECIMEN.replace("Testdat1", "Testdat2"));
+        assertEquals(MandibLeverBatch.EXIT_OK, run("-bins", "10", "-angle", "20,30", "-fMax", "150:250:3", file.getPath()));
+        File table = new File(dir, "specimens.Sweep.csv");
+        BufferedReader in = new BufferedReader(new FileReader(table));
+        int lines = 0;
+        while (in.readLine() != null) {
+            lines++;
+        }
+        in.close();
+        assertEquals(1 + 2 * 2 * 3, lines);
+        assertFalse(new File(dir, "specimens.A2Sim.csv").exists());
+    }
+
+    @Test
+    public void testAggregate() throws IOException {
+        System.out.println("run (aggregate)");
+        File file = writeSpecimenFile(SPECIMEN, SPECIMEN.replace("Testdat1", "Testdat2"), SPECIMEN.replace("Testdat1", "Other1"));
+        assertEquals(MandibLeverBatch.EXIT_OK, run("-bins", "10", "-output", "aggregate", "-group", "name", file.getPath()));
+        BufferedReader in = new BufferedReader(new FileReader(new File(dir, "specimens.Aggregate.csv")));
+        int lines = 0;
+        while (in.readLine() != null) {
+            lines++;
+        }
+        in.close();
+        assertEquals(1 + 3 * AggregateStatistics.QUANTITY_COUNT, lines); //All, Testdat and Other
+        assertTrue(new File(dir, "specimens.BinAggregate.csv").length() > 0);
+        assertFalse(new File(dir, "specimens.A2Sim.csv").exists());
+    }
+
+    @Test
+    public void testMonteCarlo() throws IOException {
+        System.out.println("run (Monte Carlo)");
+        File file = writeSpecimenFile(SPECIMEN);
+        assertEquals(MandibLeverBatch.EXIT_OK, run("-bins", "10", "-monteCarlo", "50", "-error", "0.01", "-seed", "7", file.getPath()));
+        BufferedReader in = new BufferedReader(new FileReader(new File(dir, "specimens.MonteCarlo.csv")));
+        int lines = 0;
+        while (in.readLine() != null) {
+            lines++;
+        }
+        in.close();
+        assertEquals(1 + MonteCarloResult.QUANTITY_COUNT, lines);
+        assertFalse(new File(dir, "specimens.A2Sim.csv").exists());
+    }
+
+    @Test
+    public void testUsage() throws IOException {
+        System.out.println("run (bad arguments)");
+        File file = writeSpecimenFile(SPECIMEN);
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run());
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run("-bins", "x", file.getPath()));
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run("-bins", "0", file.getPath()));
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run("-unknown", "1", file.getPath()));
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run(file.getPath(), "-bins"));
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run("-fMax", "1:2", file.getPath()));
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run("-monteCarlo", "10", "-fMax", "100,200", file.getPath()));
+        assertEquals(MandibLeverBatch.EXIT_USAGE, run("-output", "sim,summary", file.getPath()));
+        assertEquals(MandibLeverBatch.EXIT_ERROR, run(new File(dir, "missing.txt").getPath()));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import org.fieldmuseum.biosync.biomechanics.muscle.HillEquation;
+import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class LinearVelocityModelTest {
+    final double precision = 0.0000005;
+
+    /**
+     * The velocity with the values worked out from scratch.
+     */
+    private static double expectedV(Specimen specimen, MandibLeverMuscle muscle, double peakFraction, double minFraction) {
+        double v0 = peakFraction * muscle.getMaxVelocity();
+        double v1 = minFraction * muscle.getMaxVelocity();
+        double len0 = specimen.getMaxMuscleLength(muscle);
+        double len1 = specimen.getMinMuscleLength(muscle);
+        return v0 + (v1 - v0) / (len1 - len0) * (muscle.getLength() - len0);
+    }
+
+    @Test
+    public void testSharedParameterChange() {
+        System.out.println("getV (shared parameters changed)");
+        Mandible.setMaxRotation(-Math.PI/6);
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        MandibLeverMuscle muscle = specimen.getA2();
+        specimen.getMandible().setRotation(-Math.PI/12);
+
+        double oldVMax = Muscle.getVelocityPerLengthMax();
+        double oldPeak = MandibLeverMuscle.getPeakVMaxFraction();
+        try {
+            double v = muscle.velocityModel.getV();
+            assertEquals(expectedV(specimen, muscle, oldPeak, MandibLeverMuscle.getMinVMaxFraction()), v, precision);
+
+            MandibLeverMuscle.setVMax(2 * oldVMax);
+            MandibLeverMuscle.setPeakVMaxFraction(0.9);
+            assertEquals(expectedV(specimen, muscle, 0.9, MandibLeverMuscle.getMinVMaxFraction()), muscle.velocityModel.getV(), precision);
+
+            Mandible.setMaxRotation(-Math.PI/4);
+            assertEquals(expectedV(specimen, muscle, 0.9, MandibLeverMuscle.getMinVMaxFraction()), muscle.velocityModel.getV(), precision);
+        } finally {
+            MandibLeverMuscle.setVMax(oldVMax);
+            MandibLeverMuscle.setPeakVMaxFraction(oldPeak);
+            Mandible.setMaxRotation(-Math.PI/6);
+        }
+    }
+
+    @Test
+    public void testMuscleParameterChange() {
+        System.out.println("getV, getF (vMax and fMax set through Muscle)");
+        Mandible.setMaxRotation(-Math.PI/6);
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        MandibLeverMuscle muscle = specimen.getA2();
+        specimen.getMandible().setRotation(-Math.PI/12);
+
+        double oldVMax = Muscle.getVelocityPerLengthMax();
+        double oldFMax = Muscle.getForcePerAreaMax();
+        double peak = MandibLeverMuscle.getPeakVMaxFraction();
+        double min = MandibLeverMuscle.getMinVMaxFraction();
+        try {
+            double v = muscle.velocityModel.getV();
+            double f = muscle.velocityModel.getF();
+
+            Muscle.setVelocityPerLengthMax(2 * oldVMax);
+            assertEquals(2 * v, muscle.velocityModel.getV(), precision);
+            assertEquals(expectedV(specimen, muscle, peak, min), muscle.velocityModel.getV(), precision);
+
+            Muscle.setForcePerAreaMax(2 * oldFMax);
+            double expectedF = HillEquation.getF(expectedV(specimen, muscle, peak, min) / muscle.getMaxVelocity()) * muscle.getMaxForce();
+            assertEquals(expectedF, muscle.velocityModel.getF(), precision);
+            assertEquals(2 * f, muscle.velocityModel.getF(), precision);
+        } finally {
+            Muscle.setVelocityPerLengthMax(oldVMax);
+            Muscle.setForcePerAreaMax(oldFMax);
+        }
+    }
+
+    @Test
+    public void testSimulationParametersChange() {
+        System.out.println("getV (simulation parameters changed)");
+        Mandible.setMaxRotation(-Math.PI/6);
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        MandibLeverMuscle muscle = specimen.getA3();
+        specimen.getMandible().setRotation(-Math.PI/12);
+        double v = muscle.velocityModel.getV();
+
+        SimulationParameters parameters = new SimulationParameters().withVMaxFractions(0.6, 0.1);
+        specimen.setSimulationParameters(parameters);
+        assertEquals(expectedV(specimen, muscle, 0.6, 0.1), muscle.velocityModel.getV(), precision);
+
+        specimen.setSimulationParameters(null);
+        assertEquals(v, muscle.velocityModel.getV(), precision);
+    }
+
+    @Test
+    public void testGetTimeAndWork() {
+        System.out.println("getTime, getWork");
+        Mandible.setMaxRotation(-Math.PI/6);
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        MandibLeverMuscle muscle = specimen.getA2();
+        LinearVelocityModel model = muscle.velocityModel;
+        double len0 = specimen.getMaxMuscleLength(muscle);
+        specimen.getMandible().setRotation(-Math.PI/12);
+        double len = muscle.getLength();
+
+        //the time agrees with getT()
+        assertEquals(model.getT(), model.getTime(len0, len), precision * model.getT());
+
+        //the work agrees with lots of small steps
+        int steps = 100000;
+        double step = (len - len0) / steps;
+        double work = 0;
+        for (int i = 0; i < steps; i++) {
+            specimen.setLength(muscle, len0 + (i + 0.5) * step);
+            work += Math.abs(muscle.getForce() * step);
+        }
+        specimen.setLength(muscle, len);
+        assertEquals(work, model.getWork(len0, len), precision * work);
+        assertEquals(model.getWork(len0, len), model.getTotalWork(), precision * work);
+        assertEquals(model.getWork(len0, len) / model.getTime(len0, len), model.getPower(len, len0), precision);
+    }
+
+    @Test
+    public void testMeanFractions() {
+        System.out.println("getMeanForceFraction, getMeanInverseVelocityFraction");
+        //inside the limits
+        assertEquals(Math.log(0.8 / 0.05) / 0.75, LinearVelocityModel.getMeanInverseVelocityFraction(0.8, 0.05), precision);
+        assertEquals(LinearVelocityModel.getMeanInverseVelocityFraction(0.05, 0.8), LinearVelocityModel.getMeanInverseVelocityFraction(0.8, 0.05), 0.0);
+        assertEquals(2.0, LinearVelocityModel.getMeanInverseVelocityFraction(0.5, 0.5), 0.0);
+
+        //above the max velocity the velocity fraction is 1 and the force 0
+        assertEquals(1.0, LinearVelocityModel.getMeanInverseVelocityFraction(1.5, 2), precision);
+        assertEquals(0.0, LinearVelocityModel.getMeanForceFraction(1.5, 2), 0.0);
+        assertEquals(HillEquation.getIntegral(0.5, 1) / 1.5, LinearVelocityModel.getMeanForceFraction(0.5, 2), precision);
+
+        //below 0 the force is the max, and the muscle never gets there
+        assertEquals(1.0, LinearVelocityModel.getMeanForceFraction(-1, -0.5), 0.0);
+        assertEquals((0.5 + HillEquation.getIntegral(0, 1)) / 1.5, LinearVelocityModel.getMeanForceFraction(-0.5, 1), precision);
+        assertTrue(Double.isInfinite(LinearVelocityModel.getMeanInverseVelocityFraction(0.5, 0)));
+    }
+}
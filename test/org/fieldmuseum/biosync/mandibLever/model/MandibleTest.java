@@ -16,7 +16,9 @@
  */
 package org.fieldmuseum.biosync.mandibLever.model;
 
+import java.awt.geom.Point2D;
 import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
+import org.fieldmuseum.biosync.kinematics.ImmobileJoint;
 import org.fieldmuseum.biosync.kinematics.Joint;
 import org.fieldmuseum.biosync.kinematics.TriangleCalc;
 import org.junit.After;
@@ -322,4 +324,40 @@ public class MandibleTest {
         mandible.rotate(Math.PI/18);
         assertEquals(0.0, mandible.getRotation(), precision);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRotateAroundQaJoint() {
+        //a mandible whose QA joint is not at the origin
+        Point2D qa = new Point2D.Double(1, 2);
+        Mandible mandible = new Mandible(qa, new Point2D.Double(1.5, 2.3), new Point2D.Double(1.4, 2.1),
+                new Point2D.Double(1.2, 1.8), new Point2D.Double(3, 2));
+        double tipDistance = qa.distance(mandible.getAnteriorJawTip());
+
+        mandible.setRotation(-Math.PI/6);
+        assertJointsEqual(new ImmobileJoint(qa), mandible.getQaJoint());
+        assertEquals(tipDistance, qa.distance(mandible.getAnteriorJawTip()), precision);
+        assertEquals(-Math.PI/6, TriangleCalc.getAngle(mandible.getQaJoint(), mandible.getAnteriorJawTip()), precision);
+        assertEquals(2 * tipDistance * Math.sin(Math.PI/12), mandible.getGape(), precision);
+    }
+
+    @Test
+    public void testGetDistance() {
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        Mandible mandible = specimen.getMandible();
+        Joint a2Insertion = mandible.getA2Insertion();
+        Joint a2Origin = specimen.getA2().getOtherJoint(a2Insertion);
+        Point2D closed = (Point2D) a2Insertion.clone();
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+
+        double distance = mandible.getDistance(a2Insertion, a2Origin, -Math.PI/6);
+        double moved = mandible.getMaxDistanceMoved(specimen.getA2());
+
+        //the mandible shouldn't have moved
+        assertEquals(0.0, mandible.getRotation(), 0.0);
+
+        mandible.setRotation(-Math.PI/6);
+        assertEquals(a2Origin.distance(a2Insertion), distance, precision);
+        assertEquals(closed.distance(a2Insertion), moved, precision);
+        assertEquals(moved, mandible.getDistanceMoved(specimen.getA2()), precision);
+    }
+}
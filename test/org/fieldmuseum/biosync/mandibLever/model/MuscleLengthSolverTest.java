@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import org.fieldmuseum.biosync.kinematics.Joint;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class MuscleLengthSolverTest {
+    final double precision = 0.0000005;
+
+    @Test
+    public void testGetRotation() {
+        System.out.println("getRotation");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        Mandible mandible = specimen.getMandible();
+
+        for (MandibLeverMuscle muscle : new MandibLeverMuscle[] {specimen.getA2(), specimen.getA3()}) {
+            Joint insertion = mandible.getInsertion(muscle);
+            Joint origin = muscle.getOtherJoint(insertion);
+            MuscleLengthSolver solver = mandible.createLengthSolver(insertion, origin);
+
+            //the closed length gives zero rotation
+            assertEquals(0.0, solver.getRotation(muscle.getLength()), precision);
+
+            //opening the jaw stretches the muscle (up to where the insertion passes the
+            //origin-to-QA line), and the solver finds the same rotation again
+            for (double rotation = 0; rotation >= -Math.PI/4; rotation -= Math.PI/36) {
+                double length = specimen.getMuscleLength(muscle, rotation);
+                assertEquals(length, solver.getLength(rotation), precision);
+                assertEquals(rotation, solver.getRotation(length), precision);
+
+                mandible.setRotation(solver.getRotation(length));
+                assertEquals(length, muscle.getLength(), precision);
+            }
+            mandible.setRotation(0);
+        }
+    }
+
+    @Test
+    public void testImpossibleLength() {
+        System.out.println("getRotation (impossible length)");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        Mandible mandible = specimen.getMandible();
+        Joint insertion = mandible.getA2Insertion();
+        Joint origin = specimen.getA2().getOtherJoint(insertion);
+        MuscleLengthSolver solver = mandible.createLengthSolver(insertion, origin);
+
+        //longer than origin-to-QA plus QA-to-insertion
+        double tooLong = 1.01 * (origin.distance(mandible.getQaJoint()) + insertion.distance(mandible.getQaJoint()));
+        assertTrue(Double.isNaN(solver.getRotation(tooLong)));
+        assertFalse(specimen.setLength(specimen.getA2(), tooLong));
+        assertEquals(0.0, mandible.getRotation(), 0.0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class SpecimenBatchTest {
+    private static final double[] MEASUREMENTS = {0.598, 0.510, 0.246, 1.509, 1.085, 2.180, 0.60, 0.689, 1.796, 0.420, 1.051, 1.695, 0.12, 0.2};
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        SpecimenBatch batch = new SpecimenBatch(1);
+        for (int i = 0; i < 100; i++) {
+            double[] measurements = MEASUREMENTS.clone();
+            measurements[13] += i / 100.0;
+            batch.add("Fish" + i, measurements);
+        }
+        assertEquals(100, batch.size());
+        assertEquals("Fish42", batch.getName(42));
+        assertEquals(0.2 + 42 / 100.0, batch.get(SpecimenBatch.A3_MASS, 42), 0);
+        assertArrayEquals(MEASUREMENTS, batch.getMeasurements(0), 0);
+
+        //the geometry is the specimen's
+        Specimen specimen = new Specimen("Fish0", MEASUREMENTS);
+        MandibleKinematics kinematics = specimen.getMandible().getKinematics();
+        assertEquals(0.0, batch.get(SpecimenBatch.PIVOT_X, 0), 0);
+        assertEquals(0.0, batch.get(SpecimenBatch.PIVOT_Y, 0), 0);
+        assertEquals(kinematics.getRadius(MandibleKinematics.ANTERIOR_JAW_TIP), batch.get(SpecimenBatch.TIP_RADIUS, 0), 0);
+        assertEquals(kinematics.getAngle(MandibleKinematics.A3_INSERTION), batch.get(SpecimenBatch.A3_ANGLE, 0), 0);
+        assertEquals(specimen.getA2().getRestingLength(), batch.get(SpecimenBatch.A2_RESTING_LENGTH, 0), 1e-12);
+        assertEquals(specimen.getA3JointDist(), Math.hypot(batch.get(SpecimenBatch.A3_ORIGIN_X, 0), batch.get(SpecimenBatch.A3_ORIGIN_Y, 0)), 1e-12);
+    }
+
+    @Test
+    public void testAddRotatedSpecimen() {
+        System.out.println("add (rotated specimen)");
+        Specimen specimen = new Specimen("Fish", MEASUREMENTS);
+        SpecimenBatch closed = new SpecimenBatch();
+        closed.add(specimen);
+        specimen.getMandible().setRotation(-0.4);
+        SpecimenBatch open = new SpecimenBatch();
+        open.add(specimen);
+
+        //the mandible geometry is the closed-jaw geometry, whatever the rotation, and the specimen isn't moved
+        for (int column = SpecimenBatch.PIVOT_X; column <= SpecimenBatch.TIP_ANGLE; column++) {
+            assertEquals(closed.get(column, 0), open.get(column, 0), 0);
+        }
+        assertEquals(-0.4, specimen.getMandible().getRotation(), 0);
+    }
+
+    @Test
+    public void testAddInvalid() {
+        System.out.println("add (not a valid specimen)");
+        SpecimenBatch batch = new SpecimenBatch();
+        double[] measurements = MEASUREMENTS.clone();
+        measurements[7] = 0.311; //A2JointDist, not a valid triangle
+        try {
+            batch.add("Bad", measurements);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals(0, batch.size());
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testGetName() {
+        SpecimenBatch batch = new SpecimenBatch();
+        batch.add("Fish", MEASUREMENTS);
+        batch.getName(1);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class SpecimenFileTest {
+    private static final String MEASUREMENTS = " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2";
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    private static SpecimenFile parse(String data) {
+        return SpecimenFile.parse(ByteBuffer.wrap(data.getBytes()), CHARSET);
+    }
+
+    private static double parseDouble(String number) {
+        return SpecimenFile.parseDouble(number.getBytes(), 0, number.length());
+    }
+
+    @Test
+    public void testParseDouble() {
+        System.out.println("parseDouble");
+        assertEquals(0.598, parseDouble("0.598"), 0);
+        assertEquals(-12, parseDouble("-12"), 0);
+        assertEquals(0.5, parseDouble(".5"), 0);
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(parseDouble("-0.0")));
+        assertTrue(Double.isNaN(parseDouble("1e-3"))); //left to Double.parseDouble
+        assertTrue(Double.isNaN(parseDouble("1.2.3")));
+        assertTrue(Double.isNaN(parseDouble("-")));
+
+        //must be exactly the same double
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            String number = Long.toString(random.nextLong() >>> random.nextInt(64));
+            int point = random.nextInt(number.length() + 1);
+            number = number.substring(0, point) + "." + number.substring(point);
+            double value = parseDouble(number);
+            if (!Double.isNaN(value)) {
+                assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)), Double.doubleToLongBits(value));
+            }
+        }
+    }
+
+    @Test
+    public void testParse() {
+        System.out.println("parse");
+        SpecimenFile file = parse("Fish1" + MEASUREMENTS + "\r\n\r\n  \tFish2\t" + MEASUREMENTS.replace("0.2", "2e-1") + " extra\rFish3 1 2\nFish4" + MEASUREMENTS.replace("0.12", "x"));
+        assertEquals(2, file.size());
+        assertEquals("Fish1", file.getName(0));
+        assertEquals(1, file.getLine(0));
+        assertEquals("Fish2", file.getName(1));
+        assertEquals(3, file.getLine(1));
+        assertEquals(0.2, file.getMeasurement(1, 13), 0);
+        assertArrayEquals(new Specimen("Fish1" + MEASUREMENTS).getMeasurements(), file.getMeasurements(0), 1e-12);
+
+        List<SpecimenFile.LineError> errors = file.getErrors();
+        assertEquals(2, errors.size());
+        assertEquals(4, errors.get(0).getLine());
+        assertTrue(errors.get(0).getMessage().contains("Fish3"));
+        assertEquals(5, errors.get(1).getLine());
+        assertTrue(errors.get(1).getMessage().contains("A2Mass"));
+    }
+
+    @Test
+    public void testCreateSpecimens() {
+        System.out.println("createSpecimens");
+        //line 2 parses, but isn't a valid triangle
+        SpecimenFile file = parse("Fish1 1\nFish2 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.311 2.017 0.420 1.051 1.695 0.12 0.2\nFish3" + MEASUREMENTS + "\nFish4");
+        List<SpecimenFile.LineError> errors = new ArrayList<SpecimenFile.LineError>();
+        List<Specimen> specimens = file.createSpecimens(errors);
+        assertEquals(1, specimens.size());
+        assertEquals("Fish3", specimens.get(0).getName());
+        assertEquals(3, errors.size());
+        for (int i = 0; i < errors.size(); i++) {
+            assertEquals(i == 2 ? 4 : i + 1, errors.get(i).getLine());
+        }
+    }
+
+    @Test
+    public void testCreateBatch() {
+        System.out.println("createBatch");
+        SpecimenFile file = parse("Fish1 1\nFish2 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.311 2.017 0.420 1.051 1.695 0.12 0.2\nFish3" + MEASUREMENTS + "\nFish4");
+        List<SpecimenFile.LineError> errors = new ArrayList<SpecimenFile.LineError>();
+        SpecimenBatch batch = file.createBatch(errors);
+        assertEquals(1, batch.size());
+        assertEquals("Fish3", batch.getName(0));
+        assertArrayEquals(file.getMeasurements(1), batch.getMeasurements(0), 0);
+        assertEquals(3, errors.size());
+        assertEquals(2, errors.get(1).getLine());
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        System.out.println("read");
+        //same specimens as Specimen(String) on each line
+        for (String name : new String[] {"SampleData.txt", "SnapperData.txt", "Goby.txt"}) {
+            File data = new File("data", name);
+            SpecimenFile file = SpecimenFile.read(data);
+            List<String> expected = new ArrayList<String>();
+            BufferedReader in = new BufferedReader(new FileReader(data));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    try {
+                        expected.add(new Specimen(line).getDataString());
+                    } catch (IllegalArgumentException e) {
+                        //also an error in the file
+                    }
+                }
+            }
+            in.close();
+
+            List<SpecimenFile.LineError> errors = new ArrayList<SpecimenFile.LineError>();
+            List<String> actual = new ArrayList<String>();
+            for (Specimen specimen : file.createSpecimens(errors)) {
+                actual.add(specimen.getDataString());
+            }
+            assertEquals(name, expected, actual);
+        }
+    }
+
+    @Test
+    public void testReadBlocks() throws Exception {
+        System.out.println("read (several blocks)");
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; data.length() < 3 * 65536; i++) {
+            data.append("Specimen").append(i).append(MEASUREMENTS).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        File temp = File.createTempFile("specimens", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            out.write(data.toString().getBytes(CHARSET));
+            out.close();
+
+            SpecimenFile file = SpecimenFile.read(temp);
+            SpecimenFile expected = parse(data.toString());
+            assertEquals(expected.size(), file.size());
+            for (int i = 0; i < file.size(); i++) {
+                assertEquals(expected.getName(i), file.getName(i));
+                assertArrayEquals(expected.getMeasurements(i), file.getMeasurements(i), 0);
+            }
+            assertTrue(file.getErrors().isEmpty());
+
+            //nothing is left holding the file open
+            assertTrue(temp.delete());
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -17,6 +17,10 @@
 package org.fieldmuseum.biosync.mandibLever.model;
 
 import java.awt.geom.Point2D;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
 import org.fieldmuseum.biosync.biomechanics.muscle.Muscle;
 import org.fieldmuseum.biosync.kinematics.ImmobileJoint;
 import org.fieldmuseum.biosync.kinematics.Joint;
@@ -232,4 +236,104 @@ public class SpecimenTest {
         assertEquals(restingLength, muscle.getLength(), precision);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSimulationMode() throws CloneNotSupportedException {
+        Mandible.setMaxRotation(-Math.PI/6);
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        Specimen simSpecimen = (Specimen) specimen.clone();
+        simSpecimen.setSimulationMode(true);
+        assertTrue(simSpecimen.isSimulationMode());
+
+        final int[] eventCount = new int[1];
+        simSpecimen.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                eventCount[0]++;
+            }
+        });
+
+        //the muscle state must match the event driven state, with no events fired
+        Muscle muscle = specimen.getA3();
+        Muscle simMuscle = simSpecimen.getA3();
+        double length = specimen.getMaxMuscleLength(muscle);
+        double step = (length - specimen.getMinMuscleLength(muscle)) / 10;
+        for (int i = 0; i < 8; i++) {
+            length -= step;
+            assertTrue(specimen.setLength(muscle, length));
+            assertTrue(simSpecimen.setLength(simMuscle, length));
+            assertEquals(muscle.getLength(), simMuscle.getLength(), 1e-12);
+            assertEquals(muscle.getVelocityFraction(), simMuscle.getVelocityFraction(), 1e-12);
+            assertEquals(muscle.getForceFraction(), simMuscle.getForceFraction(), 1e-12);
+            assertEquals(muscle.getForce(), simMuscle.getForce(), 1e-12);
+        }
+        assertEquals(0, eventCount[0]);
+
+        //turning simulation mode off brings the events back
+        simSpecimen.setSimulationMode(false);
+        simSpecimen.getMandible().setRotation(0);
+        assertTrue(eventCount[0] > 0);
+    }
+
+    @Test
+    public void testUpdate() {
+        System.out.println("beginUpdate/commitUpdate");
+        Mandible.setMaxRotation(-Math.PI/6);
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        final List<PropertyChangeEvent> events = new ArrayList<PropertyChangeEvent>();
+        specimen.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                events.add(evt);
+            }
+        });
+
+        //moving the jaw changes the mandible and both muscles, in one event
+        Muscle muscle = specimen.getA2();
+        assertTrue(specimen.setContraction(muscle, 0.1));
+        assertEquals(1, events.size());
+        assertEquals(Specimen.UPDATE_PROPERTY, events.get(0).getPropertyName());
+        assertFalse(specimen.isUpdating());
+
+        //nested updates fire when the outermost is committed
+        events.clear();
+        specimen.beginUpdate();
+        specimen.setName("first");
+        specimen.beginUpdate();
+        specimen.setName("second");
+        specimen.commitUpdate();
+        assertTrue(specimen.isUpdating());
+        assertEquals(0, events.size());
+        specimen.commitUpdate();
+        assertEquals(1, events.size());
+        assertEquals("name", events.get(0).getPropertyName());
+        assertEquals("Testdat1", events.get(0).getOldValue());
+        assertEquals("second", events.get(0).getNewValue());
+
+        //putting a property back fires nothing
+        events.clear();
+        specimen.beginUpdate();
+        specimen.setName("third");
+        specimen.setName("second");
+        specimen.commitUpdate();
+        assertEquals(0, events.size());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testCommitWithoutUpdate() {
+        System.out.println("commitUpdate (no update)");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        specimen.commitUpdate();
+    }
+
+    @Test
+    public void testGetMeasurements() {
+        System.out.println("getMeasurements");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        double[] measurements = specimen.getMeasurements();
+        assertEquals(Specimen.MEASUREMENT_NAMES.length, measurements.length);
+        assertArrayEquals(new double[] {0.598, 0.510, 0.246, 1.509, 1.085, 2.180, 0.60, 0.689, 1.796, 0.420, 1.051, 1.695, 0.12, 0.2}, measurements, 1e-12);
+
+        //round trip
+        Specimen copy = new Specimen("Copy", measurements);
+        assertEquals(specimen.getDataString().replaceFirst("Testdat1", "Copy"), copy.getDataString());
+    }
+
+}
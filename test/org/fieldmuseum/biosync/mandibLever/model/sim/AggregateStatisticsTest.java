@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.stats.RunningStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class AggregateStatisticsTest {
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    @Test
+    public void testGetGroupName() {
+        System.out.println("getGroupName");
+        assertEquals("Rgoby", AggregateStatistics.getGroupName("Rgoby017"));
+        assertEquals("Testdat", AggregateStatistics.getGroupName("Testdat"));
+        assertEquals("123", AggregateStatistics.getGroupName("123"));
+    }
+
+    @Test
+    public void testWrite() {
+        System.out.println("write");
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters(10, 30));
+        List<SpecimenResult> results = new ArrayList<SpecimenResult>();
+        String[] names = {"Testdat1", "Other1", "Testdat2"};
+        for (int i = 0; i < names.length; i++) {
+            Specimen specimen = new Specimen(names[i] + " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0));
+            results.add(engine.run(specimen, i + 1));
+        }
+
+        AggregateStatistics instance = new AggregateStatistics(true);
+        for (SpecimenResult result : results) {
+            instance.write(result);
+        }
+        List<AggregateStatistics.Group> groups = instance.getGroups();
+        assertEquals(3, groups.size());
+        assertEquals(AggregateStatistics.ALL, groups.get(0).getName());
+        assertEquals("Testdat", groups.get(1).getName());
+        assertEquals(2, instance.getGroup("Testdat").getSpecimenCount());
+        assertEquals(1, instance.getGroup("Other").getSpecimenCount());
+
+        //compare with the statistics worked out the long way
+        AggregateStatistics.Group all = instance.getGroup(AggregateStatistics.ALL);
+        assertEquals(3, all.getSpecimenCount());
+        assertEquals(10, all.getBins());
+        double sum = 0, min = Double.MAX_VALUE;
+        for (SpecimenResult result : results) {
+            sum += result.getA3().getPowerPerKg();
+            min = Math.min(min, result.getA3().getPowerPerKg());
+        }
+        RunningStatistics power = all.getStatistics(AggregateStatistics.A3_POWER_PER_KG);
+        assertEquals(sum / 3, power.getMean(), 1e-9);
+        assertEquals(min, power.getMin(), 0);
+
+        double forceSum = 0;
+        for (SpecimenResult result : results) {
+            forceSum += result.getA2().get(MuscleSimResult.FORCE, 4);
+        }
+        assertEquals(forceSum / 3, all.getA2Statistics(4, MuscleSimResult.FORCE).getMean(), 1e-12);
+        assertEquals(3, all.getA3Statistics(9, MuscleSimResult.EMA).getCount());
+
+        //the median of three is the middle one
+        double[] forces = new double[3];
+        for (int i = 0; i < 3; i++) {
+            forces[i] = results.get(i).getTotalBiteForce();
+        }
+        Arrays.sort(forces);
+        assertEquals(forces[1], all.getQuartile(2, AggregateStatistics.TOTAL_BITE_FORCE), 0);
+    }
+
+    @Test
+    public void testNaNSpecimenCount() {
+        System.out.println("specimen count (NaN gape)");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters(10, 30));
+        SpecimenResult nanGape = engine.run(specimen, 2);
+        nanGape.setOpenSummary(30, Double.NaN, 30, 1);
+
+        AggregateStatistics instance = new AggregateStatistics(true);
+        instance.write(engine.run(specimen, 1));
+        instance.write(nanGape);
+        AggregateStatistics.Group group = instance.getGroup("Testdat");
+        assertEquals(2, group.getSpecimenCount());
+        assertEquals(1, group.getStatistics(AggregateStatistics.OPEN_GAPE).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDifferentBins() {
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        AggregateStatistics instance = new AggregateStatistics(false);
+        instance.write(new SimulationEngine(new SimulationParameters(10, 30)).run(specimen, 1));
+        instance.write(new SimulationEngine(new SimulationParameters(12, 30)).run(specimen, 2));
+    }
+}
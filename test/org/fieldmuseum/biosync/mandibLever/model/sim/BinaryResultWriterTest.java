@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class BinaryResultWriterTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+        dir = File.createTempFile("MandibLever", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        System.out.println("write");
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters(12, 30));
+        List<SpecimenResult> results = new ArrayList<SpecimenResult>();
+        for (int i = 0; i < 3; i++) {
+            Specimen specimen = new Specimen("Testdat\u00E9" + i + " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0));
+            results.add(engine.run(specimen, i + 2));
+        }
+
+        BinaryResultWriter writer = new BinaryResultWriter(dir, "test", 12);
+        try {
+            for (SpecimenResult result : results) {
+                writer.write(result);
+            }
+        } finally {
+            writer.close();
+        }
+
+        BinaryResultReader reader = new BinaryResultReader(new File(dir, "test.Sim.bin"));
+        try {
+            assertEquals(3, reader.getSpecimenCount());
+            assertEquals(12, reader.getBins());
+            assertArrayEquals(MuscleSimResult.COLUMN_NAMES, reader.getColumnNames());
+            assertEquals(1, reader.indexOf("Testdat\u00E91"));
+            assertEquals(-1, reader.indexOf("missing"));
+            for (int i = 0; i < results.size(); i++) {
+                SpecimenResult result = results.get(i);
+                assertEquals(result.getName(), reader.getName(i));
+                assertEquals(result.getFishNum(), reader.getFishNum(i));
+                for (int column = 0; column < MuscleSimResult.COLUMN_COUNT; column++) {
+                    assertArrayEquals(result.getA2().getColumn(column), reader.getColumn(i, BinaryResultReader.A2, column), 0);
+                    assertArrayEquals(result.getA3().getColumn(column), reader.getColumn(i, BinaryResultReader.A3, column), 0);
+                }
+            }
+            assertEquals(results.get(2).getA3().get(MuscleSimResult.TORQUE, 11),
+                    reader.get(2, BinaryResultReader.A3, MuscleSimResult.TORQUE, 11), 0);
+            assertEquals(12, reader.getColumnBuffer(1, BinaryResultReader.A2, MuscleSimResult.EMA).remaining());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testNotClosed() throws IOException {
+        System.out.println("read (not closed)");
+        File file = new File(dir, "test.Sim.bin");
+        BinaryResultWriter writer = new BinaryResultWriter(dir, "test", 12);
+        writer.close();
+        new BinaryResultReader(file).close(); //no specimens is fine
+
+        //a file that was never closed has no dictionary
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(BinaryResultWriter.SPECIMEN_COUNT_OFFSET + 8);
+        raf.writeLong(0);
+        raf.close();
+        try {
+            new BinaryResultReader(file);
+            fail("read an incomplete file");
+        } catch (IOException e) {
+            //expected
+        }
+    }
+}
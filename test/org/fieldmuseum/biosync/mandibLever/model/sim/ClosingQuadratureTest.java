@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class ClosingQuadratureTest {
+    /* a muscle going from 0.8 of its max velocity at length 2 to 0.05 at length 1.5 */
+    final double maxVelocity = 10;
+    final double maxForce = 3;
+    final double v0 = 8;
+    final double len0 = 2;
+    final double dvdl = (0.5 - v0) / (1.5 - len0);
+
+    @Test
+    public void testIntegrate() {
+        System.out.println("integrate");
+        double tolerance = 1e-10;
+        ClosingQuadrature instance = new ClosingQuadrature();
+        instance.set(tolerance, false, v0, dvdl, len0, maxVelocity, maxForce);
+        instance.integrate(len0, 1.5);
+
+        //the velocity is linear in the length, so both have closed forms
+        double x0 = v0 / maxVelocity;
+        double x1 = 0.5 / maxVelocity;
+        double meanInverse = Math.log(x1 / x0) / (x1 - x0);
+        double meanForce = maxForce * (hillIntegral(x1) - hillIntegral(x0)) / (x1 - x0);
+        assertEquals(meanInverse, instance.getMeanInverseVelocityFraction(), meanInverse * tolerance * 10);
+        assertEquals(meanForce, instance.getMeanForce(), meanForce * tolerance * 10);
+
+        //far fewer steps than uniform bins would need for the same accuracy
+        assertTrue(instance.getEvaluations() < 1000);
+
+        //the closed forms give the same, in one step
+        ClosingQuadrature exact = new ClosingQuadrature();
+        exact.set(0, true, v0, dvdl, len0, maxVelocity, maxForce);
+        exact.integrate(len0, 1.5);
+        assertEquals(meanInverse, exact.getMeanInverseVelocityFraction(), meanInverse * 1e-14);
+        assertEquals(meanForce, exact.getMeanForce(), meanForce * 1e-14);
+        assertEquals(1, exact.getEvaluations());
+    }
+
+    @Test
+    public void testIntegrateEmptyRange() {
+        System.out.println("integrate (empty range)");
+        ClosingQuadrature instance = new ClosingQuadrature();
+        instance.set(1e-6, false, v0, dvdl, len0, maxVelocity, maxForce);
+        instance.integrate(len0, len0);
+        assertEquals(maxVelocity / v0, instance.getMeanInverseVelocityFraction(), 1e-12);
+        assertEquals(maxForce * (1 - 0.8) / (1 + 0.8 / 0.25), instance.getMeanForce(), 1e-12);
+    }
+
+    /**
+     * @return the integral of the Hill equation (k = 0.25) from 0 to x
+     */
+    private double hillIntegral(double x) {
+        return -x / 4 + 5.0 / 16 * Math.log(1 + 4 * x);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.MandibleKinematics;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class ClosingTimelineTest {
+    final double precision = 0.0005;
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    @Test
+    public void testSteps() {
+        System.out.println("steps");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        SimulationParameters parameters = new SimulationParameters(50, 0.02);
+        ClosingTimeline timeline = new ClosingTimeline(specimen, specimen.getA2(), parameters);
+        MuscleSimResult result = new SimulationEngine(parameters).run(specimen, 1).getA2();
+
+        assertEquals(51, timeline.getSteps());
+        assertEquals(0.0, timeline.getTime(0), 0.0);
+        assertEquals(-Math.PI/6, timeline.getRotation(0), 0.0);
+        assertEquals(result.getTotalTime(), timeline.getDuration(), precision * result.getTotalTime());
+        assertEquals(0.0, timeline.getRotation(50), precision);
+        for (int i = 1; i < timeline.getSteps(); i++) {
+            assertTrue(timeline.getTime(i) > timeline.getTime(i - 1));
+            assertEquals(result.get(MuscleSimResult.FORCE, i - 1), timeline.getForce(i), 0.0);
+            assertEquals(result.get(MuscleSimResult.LENGTH, i - 1), timeline.getLength(i), 0.0);
+        }
+        assertTrue(timeline.getLength(0) > timeline.getLength(1));
+
+        //the specimen isn't changed
+        assertEquals(0.0, specimen.getMandible().getRotation(), 0.0);
+    }
+
+    @Test
+    public void testGetFrame() {
+        System.out.println("getFrame");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        ClosingTimeline timeline = new ClosingTimeline(specimen, specimen.getA3(), new SimulationParameters(20, 0.02));
+        MandibleKinematics kinematics = specimen.getMandible().getKinematics();
+        double[] frame = new double[2 * ClosingTimeline.JOINT_COUNT];
+
+        //on a step, the joints are where the kinematics put them
+        assertEquals(10, timeline.getFrame(timeline.getTime(10), frame));
+        int tip = ClosingTimeline.ANTERIOR_JAW_TIP;
+        assertEquals(kinematics.getX(tip, timeline.getRotation(10)), frame[2 * tip], 1e-12);
+        assertEquals(kinematics.getY(tip, timeline.getRotation(10)), frame[2 * tip + 1], 1e-12);
+        int origin = ClosingTimeline.A3_ORIGIN;
+        assertEquals(specimen.getA3().getOtherJoint(specimen.getMandible().getA3Insertion()).getX(), frame[2 * origin], 0.0);
+
+        //halfway between steps, halfway between the joints
+        double x0 = frame[2 * tip];
+        timeline.getFrame(timeline.getTime(11), frame);
+        double x1 = frame[2 * tip];
+        assertEquals(10, timeline.getFrame((timeline.getTime(10) + timeline.getTime(11)) / 2, frame));
+        assertEquals((x0 + x1) / 2, frame[2 * tip], 1e-12);
+
+        //before the start and after the end
+        assertEquals(0, timeline.getFrame(-1, frame));
+        assertEquals(kinematics.getX(tip, -Math.PI/6), frame[2 * tip], 1e-12);
+        assertEquals(20, timeline.getFrame(timeline.getDuration() + 1, frame));
+        assertEquals(kinematics.getX(tip, timeline.getRotation(20)), frame[2 * tip], 1e-12);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testOtherMuscle() {
+        System.out.println("other muscle");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        Specimen other = new Specimen("Testdat2 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        new ClosingTimeline(specimen, other.getA2(), new SimulationParameters(20, 0.02));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class FixedPointFormatTest {
+    /** Values that have caused trouble for other formatting code */
+    private static final double[] EDGE_CASES = {
+        0, -0.0, 0.5, -0.5, 1.5, 2.5, 0.125, 0.375, 1.005, 0.015, 0.045, 2.675, 1e-20, -1e-20, 0.0049999999,
+        -0.004, 9.995, 99.995, 999.9999999, 1234567.891, -98765.4321, 1e11, 5e11 + 0.5, 1e13, 1e20,
+        Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    private static final int[][] FORMATS = { //{width, precision}
+        {8, 0}, {8, 2}, {10, 3}, {8, 3}, {8, 4}, {12, 6}, {12, 8}, {14, 9}, {10, 6}, {0, 1}
+    };
+
+    @Test
+    public void testAppendFormatted() {
+        System.out.println("appendFormatted");
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int[] format : FORMATS) {
+            String pattern = "%" + (format[0] > 0 ? format[0] : "") + "." + format[1] + "f";
+            for (double value : EDGE_CASES) {
+                assertFormatted(sb, pattern, value, format);
+            }
+            for (int i = 0; i < 20000; i++) {
+                assertFormatted(sb, pattern, randomValue(random), format);
+            }
+        }
+    }
+
+    @Test
+    public void testAppendDecimal() {
+        System.out.println("appendDecimal");
+        Random random = new Random(43);
+        StringBuilder sb = new StringBuilder();
+        String[] patterns = {"0", "0.00", "0.000000", "0.00000000"};
+        int[] precisions = {0, 2, 6, 8};
+        for (int p = 0; p < patterns.length; p++) {
+            DecimalFormat format = new DecimalFormat(patterns[p], new DecimalFormatSymbols(Locale.US));
+            for (double value : EDGE_CASES) {
+                assertDecimal(sb, format, value, precisions[p]);
+            }
+            for (int i = 0; i < 20000; i++) {
+                assertDecimal(sb, format, randomValue(random), precisions[p]);
+            }
+        }
+    }
+
+    @Test
+    public void testCommaLocale() {
+        System.out.println("comma locale");
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            StringBuilder sb = new StringBuilder();
+            //the fast path, a near tie and a very large value (both passed on)
+            assertEquals("   1.235", FixedPointFormat.appendFormatted(sb, 1.2346, 8, 3).toString());
+            sb.setLength(0);
+            assertEquals("0.13", FixedPointFormat.appendFormatted(sb, 0.125, 0, 2).toString());
+            sb.setLength(0);
+            assertEquals("10000000000000.00", FixedPointFormat.appendFormatted(sb, 1e13, 0, 2).toString());
+            sb.setLength(0);
+            assertEquals("0.062", FixedPointFormat.appendDecimal(sb, 0.0625, 3).toString());
+            sb.setLength(0);
+            assertEquals("10000000000000.00", FixedPointFormat.appendDecimal(sb, 1e13, 2).toString());
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPrecisionTooLarge() {
+        FixedPointFormat.appendFormatted(new StringBuilder(), 1, 0, FixedPointFormat.MAX_PRECISION + 1);
+    }
+
+    private static void assertFormatted(StringBuilder sb, String pattern, double value, int[] format) {
+        sb.setLength(0);
+        assertEquals(String.valueOf(value), String.format(Locale.US, pattern, value),
+                FixedPointFormat.appendFormatted(sb, value, format[0], format[1]).toString());
+    }
+
+    private static void assertDecimal(StringBuilder sb, DecimalFormat format, double value, int precision) {
+        sb.setLength(0);
+        assertEquals(String.valueOf(value), format.format(value),
+                FixedPointFormat.appendDecimal(sb, value, precision).toString());
+    }
+
+    /**
+     * @return a value over a wide range of magnitudes, often with few decimal
+     * digits (so lots of them are ties)
+     */
+    private static double randomValue(Random random) {
+        double value = random.nextDouble() * Math.pow(10, random.nextInt(16) - 8);
+        if (random.nextBoolean()) {
+            value = Math.round(value * 1000) / 1000.0;
+        }
+        return random.nextBoolean() ? value : -value;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.stats.RunningStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class MonteCarloSimulationTest {
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    private static List<Specimen> getSpecimens() {
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        specimens.add(new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2"));
+        specimens.add(new Specimen("Testdat2 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.25"));
+        return specimens;
+    }
+
+    private static List<MonteCarloResult> run(MonteCarloSimulation simulation, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return simulation.run(getSpecimens(), executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoError() throws Exception {
+        System.out.println("no error");
+        SimulationParameters parameters = new SimulationParameters(10, 30);
+        MonteCarloSimulation simulation = new MonteCarloSimulation(parameters, 20, 1);
+        List<MonteCarloResult> results = run(simulation, 1);
+        assertEquals(2, results.size());
+
+        //every draw is the specimen itself
+        SpecimenResult expected = new SimulationEngine(parameters).run(getSpecimens().get(1), 2);
+        MonteCarloResult result = results.get(1);
+        assertEquals(2, result.getFishNum());
+        assertEquals("Testdat2", result.getName());
+        assertEquals(20, result.getDraws());
+        assertEquals(0, result.getRejected());
+        assertEquals(expected.getTotalBiteForce(), result.getStatistics(MonteCarloResult.TOTAL_BITE_FORCE).getMean(), 1e-9);
+        assertEquals(0, result.getStatistics(MonteCarloResult.TOTAL_BITE_FORCE).getStandardDeviation(), 1e-9);
+        assertEquals(expected.getA3().getTotalWork(), result.getLowerBound(MonteCarloResult.A3_WORK), 1e-12);
+        assertEquals(expected.getA3().getTotalWork(), result.getUpperBound(MonteCarloResult.A3_WORK), 1e-12);
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        System.out.println("deterministic");
+        MonteCarloSimulation simulation = new MonteCarloSimulation(new SimulationParameters(10, 30), 600, 42);
+        simulation.setRelativeError(0.02);
+        List<MonteCarloResult> single = run(simulation, 1);
+        List<MonteCarloResult> multi = run(simulation, 3);
+        for (int i = 0; i < single.size(); i++) {
+            MonteCarloResult expected = single.get(i);
+            MonteCarloResult result = multi.get(i);
+            assertEquals(600, expected.getDraws() + expected.getRejected());
+            assertEquals(expected.getDraws(), result.getDraws());
+            for (int q = 0; q < MonteCarloResult.QUANTITY_COUNT; q++) {
+                assertEquals(expected.getStatistics(q).getMean(), result.getStatistics(q).getMean(), 0);
+                assertEquals(expected.getStatistics(q).getVariance(), result.getStatistics(q).getVariance(), 0);
+                assertEquals(expected.getUpperBound(q), result.getUpperBound(q), 0);
+            }
+            RunningStatistics force = expected.getStatistics(MonteCarloResult.TOTAL_BITE_FORCE);
+            assertTrue(force.getStandardDeviation() > 0);
+            assertTrue(expected.getLowerBound(MonteCarloResult.TOTAL_BITE_FORCE) < force.getMean());
+            assertTrue(expected.getUpperBound(MonteCarloResult.TOTAL_BITE_FORCE) > force.getMean());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class ParameterSweepTest {
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    private static String format(SpecimenResult result) {
+        StringBuilder sb = new StringBuilder();
+        SimulationCsvFormat.appendOpenRow(sb, result);
+        SimulationCsvFormat.appendClosedRow(sb, result);
+        SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A2_HEADER, result, result.getA2());
+        SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A3_HEADER, result, result.getA3());
+        return sb.toString();
+    }
+
+    @Test
+    public void testRange() {
+        System.out.println("range");
+        assertArrayEquals(new double[] {1, 1.5, 2}, ParameterSweep.range(1, 2, 3), 1e-12);
+        assertArrayEquals(new double[] {1}, ParameterSweep.range(1, 2, 1), 1e-12);
+    }
+
+    @Test
+    public void testGetParameterSets() {
+        System.out.println("getParameterSets");
+        SimulationParameters base = new SimulationParameters(10, 25);
+        ParameterSweep sweep = new ParameterSweep(base);
+        assertEquals(1, sweep.getParameterSets().size());
+
+        sweep.setMaxRotations(-0.3, -0.5);
+        sweep.setForcePerAreaMaxes(ParameterSweep.range(100, 300, 3));
+        sweep.setMinVMaxFractions(0.05, 0.1);
+        List<SimulationParameters> parameterSets = sweep.getParameterSets();
+        assertEquals(12, parameterSets.size());
+
+        SimulationParameters last = parameterSets.get(11);
+        assertEquals(-0.5, last.getMaxRotation(), 0);
+        assertEquals(300, last.getForcePerAreaMax(), 0);
+        assertEquals(0.1, last.getMinVMaxFraction(), 0);
+        assertEquals(base.getVelocityPerLengthMax(), last.getVelocityPerLengthMax(), 0);
+        assertEquals(10, last.getBins());
+        assertEquals(25, last.getOpenDuration(), 0);
+        assertEquals(0.05, parameterSets.get(10).getMinVMaxFraction(), 0);
+
+        //everything else comes from the base
+        sweep = new ParameterSweep(base.withTolerance(1e-6).withExact(true));
+        sweep.setMaxRotations(-0.3, -0.5);
+        for (SimulationParameters parameters : sweep.getParameterSets()) {
+            assertEquals(1e-6, parameters.getTolerance(), 0);
+            assertTrue(parameters.isExact());
+        }
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("run");
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        for (int i = 0; i < 3; i++) {
+            specimens.add(new Specimen("Testdat" + i + " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0)));
+        }
+        ParameterSweep sweep = new ParameterSweep(new SimulationParameters(15, 30));
+        sweep.setMaxRotations(-Math.PI/6, -Math.PI/5);
+        sweep.setVelocityPerLengthMaxes(5, 10);
+        sweep.setPeakVMaxFractions(0.7, 0.8, 0.9);
+
+        //expected: every parameter set run separately
+        List<String> expected = new ArrayList<String>();
+        List<SimulationParameters> parameterSets = sweep.getParameterSets();
+        for (int i = 0; i < specimens.size(); i++) {
+            for (SimulationParameters parameters : parameterSets) {
+                expected.add(format(new SimulationEngine(parameters).run(specimens.get(i), i + 1)));
+            }
+        }
+
+        final List<String> results = new ArrayList<String>();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            sweep.run(specimens, executor, new SimulationOutput() {
+                public void write(SpecimenResult result) {
+                    results.add(format(result));
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expected, results);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class SimulationCsvWriterTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+        dir = File.createTempFile("MandibLever", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("write");
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        for (int i = 0; i < 30; i++) {
+            specimens.add(new Specimen("Testdat" + i + " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0)));
+        }
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters());
+
+        //expected: the whole data set formatted in memory
+        StringBuilder open = new StringBuilder(SimulationCsvFormat.OPEN_HEADER);
+        StringBuilder closed = new StringBuilder(SimulationCsvFormat.CLOSED_HEADER);
+        StringBuilder a2Out = new StringBuilder();
+        StringBuilder a3Out = new StringBuilder();
+        for (SpecimenResult result : engine.run(specimens)) {
+            SimulationCsvFormat.appendOpenRow(open, result);
+            SimulationCsvFormat.appendMuscleRows(a2Out, SimulationCsvFormat.A2_HEADER, result, result.getA2());
+            SimulationCsvFormat.appendMuscleRows(a3Out, SimulationCsvFormat.A3_HEADER, result, result.getA3());
+            SimulationCsvFormat.appendClosedRow(closed, result);
+        }
+
+        SimulationCsvWriter writer = new SimulationCsvWriter(dir, "test");
+        try {
+            engine.runParallel(specimens, writer);
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(open.toString(), read(new File(dir, "test.OpenSum.csv")));
+        assertEquals(closed.toString(), read(new File(dir, "test.CloseSum.csv")));
+        assertEquals(a2Out.toString(), read(new File(dir, "test.A2Sim.csv")));
+        assertEquals(a3Out.toString(), read(new File(dir, "test.A3Sim.csv")));
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+            return new String(bytes, "ISO-8859-1");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.mandibLever.model.sim;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.fieldmuseum.biosync.mandibLever.model.Mandible;
+import org.fieldmuseum.biosync.mandibLever.model.SimulationParameters;
+import org.fieldmuseum.biosync.mandibLever.model.Specimen;
+import org.fieldmuseum.biosync.mandibLever.model.SpecimenBatch;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class SimulationEngineTest {
+    final double precision = 0.0005;
+
+    @Before
+    public void setUp() {
+        Mandible.setMaxRotation(-Math.PI/6); //the max rotation is static, and other tests change it
+    }
+
+    @Test
+    public void testRunDoesNotModifySpecimen() {
+        System.out.println("run (specimen unchanged)");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        double a2Length = specimen.getA2().getLength();
+
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters());
+        engine.run(specimen, 1);
+
+        assertEquals(0.0, specimen.getMandible().getRotation(), 0.0);
+        assertEquals(a2Length, specimen.getA2().getLength(), 0.0);
+    }
+
+    @Test
+    public void testRun() {
+        System.out.println("run");
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        specimens.add(new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2"));
+        specimens.add(new Specimen("Testdat2 5.98 5.10 2.46 15.09 10.85 21.80 6.0 6.89 17.96 4.20 10.51 16.95 2.4 4"));
+        int bins = 50;
+
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters(bins, 30));
+        List<SpecimenResult> results = engine.run(specimens);
+        assertEquals(2, results.size());
+        assertEquals("Testdat1", results.get(0).getName());
+        assertEquals(1, results.get(0).getFishNum());
+        assertEquals("Testdat2", results.get(1).getName());
+        assertEquals(2, results.get(1).getFishNum());
+
+        SpecimenResult result = results.get(0);
+        assertEquals(Math.toDegrees(-Mandible.getMaxRotation()), result.getOpenJawAngle(), precision);
+        for (MuscleSimResult muscle : new MuscleSimResult[] {result.getA2(), result.getA3()}) {
+            assertEquals(bins, muscle.getBins());
+
+            //the jaw ends up closed
+            assertEquals(0.0, muscle.get(MuscleSimResult.JAW_ANGLE, bins - 1), precision);
+
+            //time increases monotonically, and sums to the total time
+            for (int bin = 1; bin < bins; bin++) {
+                assertTrue(muscle.get(MuscleSimResult.TIME, bin) > muscle.get(MuscleSimResult.TIME, bin - 1));
+            }
+            assertEquals(muscle.getTotalTime() * 1000, muscle.get(MuscleSimResult.TIME, bins - 1), precision);
+        }
+
+        //closed summary agrees with the specimen itself
+        Specimen specimen = specimens.get(0);
+        assertEquals(specimen.getMandible().getMechanicalAdvantage(specimen.getA2()), result.getA2().getMechanicalAdvantage(), precision);
+        assertEquals(specimen.getA3().getMaxForce(), result.getA3().getMaxForce(), precision);
+    }
+
+    @Test
+    public void testRunParallel() throws InterruptedException {
+        System.out.println("runParallel");
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        for (int i = 0; i < 20; i++) {
+            specimens.add(new Specimen("Testdat" + i + " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0)));
+        }
+
+        SimulationEngine engine = new SimulationEngine(new SimulationParameters());
+        List<SpecimenResult> serial = engine.run(specimens);
+        List<SpecimenResult> parallel = engine.runParallel(specimens);
+
+        //the output should be identical, in the same order
+        assertEquals(toCsv(serial), toCsv(parallel));
+    }
+
+    @Test
+    public void testConcurrentParameters() throws Exception {
+        System.out.println("run (different parameters at the same time)");
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        for (int i = 0; i < 10; i++) {
+            specimens.add(new Specimen("Testdat" + i + " 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0)));
+        }
+        SimulationParameters defaults = new SimulationParameters();
+        SimulationParameters other = defaults.withForcePerAreaMax(defaults.getForcePerAreaMax() / 2)
+                .withVelocityPerLengthMax(defaults.getVelocityPerLengthMax() * 2)
+                .withVMaxFractions(0.9, 0.1)
+                .withMaxRotation(-Math.PI/4);
+        final SimulationEngine engine1 = new SimulationEngine(defaults);
+        final SimulationEngine engine2 = new SimulationEngine(other);
+        String expected1 = toCsv(engine1.run(specimens));
+        String expected2 = toCsv(engine2.run(specimens));
+
+        //run both at once, on the same pool
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            final List<Specimen> input = specimens;
+            Future<List<SpecimenResult>> results1 = caller.submit(new Callable<List<SpecimenResult>>() {
+                public List<SpecimenResult> call() throws InterruptedException {
+                    return engine1.run(input, executor);
+                }
+            });
+            List<SpecimenResult> results2 = engine2.run(specimens, executor);
+            assertEquals(expected1, toCsv(results1.get()));
+            assertEquals(expected2, toCsv(results2));
+        } finally {
+            caller.shutdown();
+            executor.shutdown();
+        }
+
+        //the parameters only apply to their own run
+        SpecimenResult result1 = engine1.run(specimens.get(0), 1);
+        SpecimenResult result2 = engine2.run(specimens.get(0), 1);
+        assertEquals(result1.getA2().getMaxForce() / 2, result2.getA2().getMaxForce(), precision);
+        assertEquals(45, result2.getOpenJawAngle(), precision);
+        assertEquals(Math.toDegrees(-Mandible.getMaxRotation()), result1.getOpenJawAngle(), precision);
+        assertNull(specimens.get(0).getSimulationParameters());
+    }
+
+    @Test
+    public void testRunBatch() throws Exception {
+        System.out.println("run (batch)");
+        List<Specimen> specimens = new ArrayList<Specimen>();
+        SpecimenBatch batch = new SpecimenBatch(1);
+        //more than a block, so the blocks have to join up
+        for (int i = 0; i < 300; i++) {
+            Specimen specimen = new Specimen("Testdat" + i + " " + (0.598 + i / 1000.0) + " 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 " + (0.2 + i / 100.0));
+            specimens.add(specimen);
+            batch.add(specimen);
+        }
+        //one made from joint locations, and one rotated
+        Specimen specimen = new Specimen("Points", new Point2D.Double(0.1, 0.2), new Point2D.Double(0.7, 0.5),
+                new Point2D.Double(0.6, 0.3), new Point2D.Double(0.3, -0.1), new Point2D.Double(1.6, 0.1),
+                new Point2D.Double(1.2, 0.9), new Point2D.Double(1.5, 0.6), 0.4, 0.1, 0.2);
+        specimens.add(specimen);
+        batch.add(specimen);
+        specimen = new Specimen("Testdat2 5.98 5.10 2.46 15.09 10.85 21.80 6.0 6.89 17.96 4.20 10.51 16.95 2.4 4");
+        specimen.getMandible().setRotation(-0.3);
+        specimens.add(specimen);
+        batch.add(specimen);
+
+        SimulationParameters[] parameterSets = {
+            new SimulationParameters(),
+            new SimulationParameters(7, 20, -Math.PI/4, 150, 12, 0.9, 0.1, Math.toRadians(10), Math.toRadians(20)),
+            new SimulationParameters().withTolerance(1e-6),
+            new SimulationParameters(7, 30).withExact(true)
+        };
+        for (SimulationParameters parameters : parameterSets) {
+            SimulationEngine engine = new SimulationEngine(parameters);
+            List<SpecimenResult> expected = engine.run(specimens);
+            List<SpecimenResult> actual = engine.run(batch);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameResult(expected.get(i), actual.get(i));
+            }
+
+            final List<SpecimenResult> parallel = new ArrayList<SpecimenResult>();
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                engine.run(batch, executor, new SimulationOutput() {
+                    public void write(SpecimenResult result) {
+                        parallel.add(result);
+                    }
+                });
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(toCsv(expected), toCsv(parallel));
+        }
+    }
+
+    @Test
+    public void testTolerance() {
+        System.out.println("run (with a tolerance)");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        SimulationParameters parameters = new SimulationParameters(5, 30).withTolerance(1e-9);
+        MuscleSimResult coarse = new SimulationEngine(parameters).run(specimen, 1).getA3();
+        MuscleSimResult fine = new SimulationEngine(new SimulationParameters(40, 30).withTolerance(1e-9)).run(specimen, 1).getA3();
+        MuscleSimResult uniform = new SimulationEngine(new SimulationParameters(5, 30)).run(specimen, 1).getA3();
+        MuscleSimResult uniformFine = new SimulationEngine(new SimulationParameters(20000, 30)).run(specimen, 1).getA3();
+
+        //the totals don't depend on the number of bins
+        assertEquals(fine.getTotalTime(), coarse.getTotalTime(), fine.getTotalTime() * 1e-8);
+        assertEquals(fine.getTotalWork(), coarse.getTotalWork(), fine.getTotalWork() * 1e-8);
+
+        //and they're what lots of uniform bins converge to
+        assertEquals(coarse.getTotalTime(), uniformFine.getTotalTime(), coarse.getTotalTime() * 1e-3);
+        assertEquals(coarse.getTotalWork(), uniformFine.getTotalWork(), coarse.getTotalWork() * 1e-3);
+        assertTrue(Math.abs(uniform.getTotalTime() - coarse.getTotalTime()) > 10 * Math.abs(uniformFine.getTotalTime() - coarse.getTotalTime()));
+
+        //the work of the bins adds up to the total
+        double work = 0;
+        for (int bin = 0; bin < coarse.getBins(); bin++) {
+            work += coarse.get(MuscleSimResult.WORK, bin);
+        }
+        assertEquals(coarse.getTotalWork(), work, coarse.getTotalWork() * 1e-12);
+
+        //the positions are still the ends of the bins
+        assertArrayEquals(uniform.getColumn(MuscleSimResult.JAW_ANGLE), coarse.getColumn(MuscleSimResult.JAW_ANGLE), 0.0);
+        assertArrayEquals(uniform.getColumn(MuscleSimResult.FORCE), coarse.getColumn(MuscleSimResult.FORCE), 0.0);
+    }
+
+    @Test
+    public void testExact() {
+        System.out.println("run (exact)");
+        Specimen specimen = new Specimen("Testdat1 0.598 0.510 0.246 1.509 1.085 2.180 0.60 0.689 1.796 0.420 1.051 1.695 0.12 0.2");
+        SpecimenResult exact = new SimulationEngine(new SimulationParameters(5, 30).withExact(true)).run(specimen, 1);
+        SpecimenResult adaptive = new SimulationEngine(new SimulationParameters(5, 30).withTolerance(1e-10)).run(specimen, 1);
+        for (int m = 0; m < 2; m++) {
+            MuscleSimResult expected = m == 0 ? adaptive.getA2() : adaptive.getA3();
+            MuscleSimResult actual = m == 0 ? exact.getA2() : exact.getA3();
+            assertEquals(expected.getTotalTime(), actual.getTotalTime(), expected.getTotalTime() * 1e-9);
+            assertEquals(expected.getTotalWork(), actual.getTotalWork(), expected.getTotalWork() * 1e-9);
+            assertEquals(expected.getPowerPerKg(), actual.getPowerPerKg(), expected.getPowerPerKg() * 1e-9);
+            for (int bin = 0; bin < actual.getBins(); bin++) {
+                assertEquals(expected.get(MuscleSimResult.TIME, bin), actual.get(MuscleSimResult.TIME, bin), expected.get(MuscleSimResult.TIME, bin) * 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Checks that two results are exactly the same
+     */
+    private void assertSameResult(SpecimenResult expected, SpecimenResult actual) {
+        assertEquals(expected.getFishNum(), actual.getFishNum());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getOpenJawAngle(), actual.getOpenJawAngle(), 0.0);
+        assertEquals(expected.getOpenGape(), actual.getOpenGape(), 0.0);
+        assertEquals(expected.getOpenMechanicalAdvantage(), actual.getOpenMechanicalAdvantage(), 0.0);
+        assertEquals(expected.getTotalBiteForce(), actual.getTotalBiteForce(), 0.0);
+        assertEquals(expected.getMaxBiteForce(), actual.getMaxBiteForce(), 0.0);
+        MuscleSimResult[] expectedMuscles = {expected.getA2(), expected.getA3()};
+        MuscleSimResult[] actualMuscles = {actual.getA2(), actual.getA3()};
+        for (int m = 0; m < 2; m++) {
+            for (int column = 0; column < MuscleSimResult.COLUMN_COUNT; column++) {
+                assertArrayEquals(expected.getName() + " " + MuscleSimResult.COLUMN_NAMES[column],
+                        expectedMuscles[m].getColumn(column), actualMuscles[m].getColumn(column), 0.0);
+            }
+            assertEquals(expectedMuscles[m].getTotalForce(), actualMuscles[m].getTotalForce(), 0.0);
+            assertEquals(expectedMuscles[m].getTotalTorque(), actualMuscles[m].getTotalTorque(), 0.0);
+            assertEquals(expectedMuscles[m].getTotalTime(), actualMuscles[m].getTotalTime(), 0.0);
+            assertEquals(expectedMuscles[m].getClosedBiteForce(), actualMuscles[m].getClosedBiteForce(), 0.0);
+            assertEquals(expectedMuscles[m].getMechanicalAdvantage(), actualMuscles[m].getMechanicalAdvantage(), 0.0);
+            assertEquals(expectedMuscles[m].getCrossSectionArea(), actualMuscles[m].getCrossSectionArea(), 0.0);
+            assertEquals(expectedMuscles[m].getMaxForce(), actualMuscles[m].getMaxForce(), 0.0);
+            assertEquals(expectedMuscles[m].getTotalWork(), actualMuscles[m].getTotalWork(), 0.0);
+            assertEquals(expectedMuscles[m].getPowerPerKg(), actualMuscles[m].getPowerPerKg(), 0.0);
+        }
+    }
+
+    private String toCsv(List<SpecimenResult> results) {
+        StringBuilder sb = new StringBuilder();
+        for (SpecimenResult result : results) {
+            SimulationCsvFormat.appendOpenRow(sb, result);
+            SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A2_HEADER, result, result.getA2());
+            SimulationCsvFormat.appendMuscleRows(sb, SimulationCsvFormat.A3_HEADER, result, result.getA3());
+            SimulationCsvFormat.appendClosedRow(sb, result);
+        }
+        return sb.toString();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroBins() {
+        new SimulationParameters(0, 30);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeTolerance() {
+        new SimulationParameters().withTolerance(-1e-6);
+    }
+}
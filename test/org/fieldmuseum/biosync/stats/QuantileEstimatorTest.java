@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.stats;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class QuantileEstimatorTest {
+
+    @Test
+    public void testFewValues() {
+        System.out.println("few values");
+        QuantileEstimator median = new QuantileEstimator(0.5);
+        assertTrue(Double.isNaN(median.getQuantile()));
+        median.add(3);
+        median.add(1);
+        median.add(2);
+        assertEquals(2, median.getQuantile(), 0);
+        median.add(4);
+        assertEquals(2.5, median.getQuantile(), 1e-12);
+    }
+
+    @Test
+    public void testGetQuantile() {
+        System.out.println("getQuantile");
+        QuantileEstimator median = new QuantileEstimator(0.5);
+        QuantileEstimator upper = new QuantileEstimator(0.975);
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            double value = random.nextGaussian();
+            median.add(value);
+            upper.add(value);
+        }
+        assertEquals(100000, median.getCount());
+        assertEquals(0, median.getQuantile(), 0.02);
+        assertEquals(1.96, upper.getQuantile(), 0.05);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadProbability() {
+        new QuantileEstimator(1.5);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 Mark Westneat, Kristopher Urie
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fieldmuseum.biosync.stats;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author kurie
+ */
+public class RunningStatisticsTest {
+
+    private static final double[] VALUES = {2, 4, 4, 4, 5, 5, 7, 9};
+
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        RunningStatistics instance = new RunningStatistics();
+        assertEquals(0, instance.getCount());
+        assertTrue(Double.isNaN(instance.getMean()));
+        for (double value : VALUES) {
+            instance.add(value);
+        }
+        instance.add(Double.NaN); //ignored
+        assertEquals(8, instance.getCount());
+        assertEquals(5, instance.getMean(), 1e-12);
+        assertEquals(32.0 / 7, instance.getVariance(), 1e-12);
+        assertEquals(Math.sqrt(32.0 / 7), instance.getStandardDeviation(), 1e-12);
+        assertEquals(2, instance.getMin(), 0);
+        assertEquals(9, instance.getMax(), 0);
+    }
+
+    @Test
+    public void testMerge() {
+        System.out.println("merge");
+        RunningStatistics all = new RunningStatistics();
+        RunningStatistics first = new RunningStatistics();
+        RunningStatistics second = new RunningStatistics();
+        for (int i = 0; i < VALUES.length; i++) {
+            all.add(VALUES[i] + 1e6); //offset to check it's numerically stable
+            (i < 3 ? first : second).add(VALUES[i] + 1e6);
+        }
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 1e-9);
+        assertEquals(all.getVariance(), first.getVariance(), 1e-9);
+        assertEquals(all.getMin(), first.getMin(), 0);
+        assertEquals(all.getMax(), first.getMax(), 0);
+
+        //merging an empty one changes nothing
+        first.merge(new RunningStatistics());
+        assertEquals(all.getVariance(), first.getVariance(), 1e-9);
+    }
+}